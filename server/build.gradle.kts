@@ -9,6 +9,7 @@ plugins {
     application
     alias(libs.plugins.shadowjar)
     id(libs.plugins.buildconfig.get().pluginId)
+    alias(libs.plugins.jmh)
 }
 
 dependencies {
@@ -87,6 +88,17 @@ sourceSets {
     }
 }
 
+// benchmarks live in src/jmh, run with `./gradlew :server:jmh -Pjmh.includes=<regex>`
+jmh {
+    val includes = findProperty("jmh.includes") as String?
+    if (includes != null) {
+        this.includes.set(listOf(includes))
+    }
+    fork.set(1)
+    warmupIterations.set(2)
+    iterations.set(3)
+}
+
 buildConfig {
     className("BuildConfig")
     packageName("suwayomi.tachidesk.server")
@@ -0,0 +1,71 @@
+package eu.kanade.tachiyomi.data.backup
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.data.backup.models.Backup
+import eu.kanade.tachiyomi.data.backup.models.BackupChapter
+import eu.kanade.tachiyomi.data.backup.models.BackupManga
+import kotlinx.serialization.protobuf.ProtoBuf
+import okio.blackholeSink
+import okio.buffer
+import okio.gzip
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.State
+import java.util.concurrent.TimeUnit
+
+/**
+ * Encoding a 3k manga / 450k chapter library into a gzipped backup, the whole [Backup] at once as
+ * ProtoBackupExport did before against [BackupStreamWriter] chunk by chunk.
+ *
+ * Memory is what this is about, run it with `-prof gc` and compare gc.alloc.rate.norm and the churn, or give the
+ * fork a small heap (e.g. `-Xmx256m`) and see which mode survives.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class BackupExportBenchmark {
+    @Param("buffered", "streaming")
+    var mode: String = ""
+
+    @Param("3000")
+    var mangas: Int = 0
+
+    @Param("150")
+    var chaptersPerManga: Int = 0
+
+    private fun manga(i: Int) = BackupManga(
+        source = i % 40L,
+        url = "/manga/$i",
+        title = "manga title $i",
+        description = "description of manga $i ".repeat(10),
+        genre = listOf("action", "adventure", "fantasy"),
+        chapters = (0 until chaptersPerManga).map {
+            BackupChapter(url = "/manga/$i/chapter/$it", name = "Chapter $it", read = it % 3 == 0, chapterNumber = it.toFloat())
+        },
+    )
+
+    @Benchmark
+    fun export() {
+        blackholeSink().gzip().buffer().use { sink ->
+            if (mode == "buffered") {
+                val backup = Backup((0 until mangas).map { manga(it) })
+                sink.write(ProtoBuf.encodeToByteArray(Backup.serializer(), backup))
+            } else {
+                val writer = BackupStreamWriter(sink)
+                (0 until mangas).chunked(100).forEach { chunk ->
+                    chunk.map { manga(it) }.forEach { writer.writeManga(it) }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package eu.kanade.tachiyomi.source.local.loader
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import com.github.junrar.Archive
+import com.github.junrar.exception.RarException
+import com.github.junrar.rarfile.FileHeader
+import eu.kanade.tachiyomi.util.lang.compareToCaseInsensitiveNaturalOrder
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.infra.Blackhole
+import suwayomi.tachidesk.manga.impl.util.storage.ImageUtil
+import java.io.File
+import java.io.IOException
+import java.io.InputStream
+import java.io.PipedInputStream
+import java.io.PipedOutputStream
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * Reading every page of a CBR in a shuffled order, from 1 or 4 threads, with [RarPageLoader] against the
+ * piped loader it replaced.
+ *
+ * There is no way to write a rar from java, so the archive is taken from the `RAR_BENCHMARK_FILE` environment
+ * variable. Use a non solid CBR of about 200 pages.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class RarPageLoaderBenchmark {
+    @Param("piped", "indexed")
+    var loader: String = ""
+
+    @Param("1", "4")
+    var threads: Int = 0
+
+    private lateinit var pageLoader: PageLoader
+    private lateinit var pages: List<() -> InputStream>
+    private lateinit var order: List<Int>
+    private val executor = Executors.newFixedThreadPool(4)
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val path = System.getenv("RAR_BENCHMARK_FILE") ?: error("set RAR_BENCHMARK_FILE to a cbr file")
+        val file = File(path)
+        pageLoader = if (loader == "piped") PipedRarPageLoader(file) else RarPageLoader(file)
+        pages = pageLoader.getPages().map { it.stream!! }
+        order = pages.indices.shuffled(Random(42))
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        pageLoader.close()
+        executor.shutdownNow()
+    }
+
+    @Benchmark
+    fun readAllPages(blackhole: Blackhole) {
+        order.chunked((order.size + threads - 1) / threads)
+            .map { part ->
+                executor.submit {
+                    part.forEach { index ->
+                        pages[index]().use { blackhole.consume(it.readBytes()) }
+                    }
+                }
+            }
+            .forEach { it.get() }
+    }
+
+    /** the loader before, every page extracted through a pipe by a single thread per archive */
+    private class PipedRarPageLoader(file: File) : PageLoader {
+        private val archive = Archive(file)
+        private val executor = Executors.newSingleThreadExecutor()
+
+        override fun getPages(): List<ReaderPage> {
+            return archive.fileHeaders
+                .filter { !it.isDirectory && ImageUtil.isImage(it.fileName) { archive.getInputStream(it) } }
+                .sortedWith { f1, f2 -> f1.fileName.compareToCaseInsensitiveNaturalOrder(f2.fileName) }
+                .mapIndexed { i, header ->
+                    ReaderPage(i).apply {
+                        stream = { getInputStream(header) }
+                    }
+                }
+        }
+
+        private fun getInputStream(hd: FileHeader): InputStream {
+            val input = PipedInputStream(32 * 1024)
+            val out = PipedOutputStream(input)
+            executor.submit {
+                try {
+                    archive.extractFile(hd, out)
+                } catch (ignored: RarException) {
+                } finally {
+                    try {
+                        out.close()
+                    } catch (ignored: IOException) {
+                    }
+                }
+            }
+            return input
+        }
+
+        override fun close() {
+            executor.shutdownNow()
+            archive.close()
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package suwayomi.tachidesk.manga.impl
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.jetbrains.exposed.sql.Database
+import org.jetbrains.exposed.sql.SchemaUtils
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.like
+import org.jetbrains.exposed.sql.and
+import org.jetbrains.exposed.sql.batchInsert
+import org.jetbrains.exposed.sql.or
+import org.jetbrains.exposed.sql.select
+import org.jetbrains.exposed.sql.transactions.transaction
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import suwayomi.tachidesk.manga.model.table.CategoryMangaTable
+import suwayomi.tachidesk.manga.model.table.CategoryTable
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.manga.model.table.toDataClass
+import suwayomi.tachidesk.server.database.migration.M0033_LibrarySearchIndex
+import java.io.File
+import java.util.concurrent.TimeUnit
+import kotlin.random.Random
+
+/**
+ * A library search over 50k manga, `like` is a substring scan over the text columns as a point of comparison,
+ * `fts` is [LibrarySearch] on the M0033 index.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class LibrarySearchBenchmark {
+    @Param("like", "fts")
+    var mode: String = ""
+
+    @Param("dragon", "sword mag")
+    var query: String = ""
+
+    private lateinit var dbFile: File
+    private lateinit var db: Database
+
+    private val words = listOf(
+        "dragon", "sword", "magic", "school", "knight", "demon", "village", "sky", "ocean", "shadow",
+        "princess", "hunter", "star", "garden", "clock", "winter", "blade", "spirit", "tower", "wolf",
+    )
+
+    @Setup(Level.Trial)
+    fun setup() {
+        dbFile = File.createTempFile("library-search", ".db")
+        db = Database.connect("jdbc:sqlite:${dbFile.absolutePath}", "org.sqlite.JDBC")
+        val random = Random(42)
+        fun phrase(n: Int) = (0 until n).joinToString(" ") { words[random.nextInt(words.size)] + random.nextInt(100) }
+        transaction(db) {
+            SchemaUtils.create(MangaTable, ChapterTable, CategoryTable, CategoryMangaTable)
+            M0033_LibrarySearchIndex().sqls.forEach { exec(it) }
+            MangaTable.batchInsert(0 until 50_000) { i ->
+                this[MangaTable.url] = "/manga/$i"
+                this[MangaTable.title] = "${phrase(3)} $i"
+                this[MangaTable.author] = phrase(2)
+                this[MangaTable.genre] = phrase(3)
+                this[MangaTable.description] = phrase(40)
+                this[MangaTable.inLibrary] = true
+                this[MangaTable.sourceReference] = 0L
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        dbFile.delete()
+    }
+
+    @Benchmark
+    fun search(): Int {
+        return transaction(db) {
+            if (mode == "fts") {
+                LibrarySearch.search(query, 0).page.size
+            } else {
+                val condition = query.split(' ').map { word ->
+                    val pattern = "%$word%"
+                    (MangaTable.title like pattern) or (MangaTable.author like pattern) or (MangaTable.artist like pattern) or
+                        (MangaTable.genre like pattern) or (MangaTable.description like pattern)
+                }.reduce { acc, op -> acc and op }
+                MangaTable.select { (MangaTable.inLibrary eq true) and condition }
+                    .limit(50)
+                    .map { MangaTable.toDataClass(it) }
+                    .size
+            }
+        }
+    }
+}
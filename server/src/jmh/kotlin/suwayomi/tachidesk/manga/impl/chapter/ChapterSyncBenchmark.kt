@@ -0,0 +1,136 @@
+package suwayomi.tachidesk.manga.impl.chapter
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.source.model.SChapter
+import org.jetbrains.exposed.sql.Database
+import org.jetbrains.exposed.sql.SchemaUtils
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.eq
+import org.jetbrains.exposed.sql.and
+import org.jetbrains.exposed.sql.batchInsert
+import org.jetbrains.exposed.sql.deleteAll
+import org.jetbrains.exposed.sql.deleteWhere
+import org.jetbrains.exposed.sql.insertAndGetId
+import org.jetbrains.exposed.sql.select
+import org.jetbrains.exposed.sql.transactions.transaction
+import org.jetbrains.exposed.sql.update
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import suwayomi.tachidesk.manga.impl.chapter.ChapterUtil.deleteChapters
+import suwayomi.tachidesk.manga.impl.chapter.ChapterUtil.updateChaptersBatch
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.manga.model.table.PageTable
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+/**
+ * The write part of a chapter refresh where the source renumbered every chapter and dropped a tenth of them.
+ * `perRow` replays what Chapter.getSourceChapters used to do, `batched` is the current path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class ChapterSyncBenchmark {
+    @Param("2000")
+    var size: Int = 0
+
+    private lateinit var dbFile: File
+    private var mangaId = 0
+    private lateinit var updates: List<Triple<Int, Int, SChapter>>
+    private lateinit var deletes: List<Int>
+
+    @Setup(Level.Trial)
+    fun setupDatabase() {
+        dbFile = File.createTempFile("chapter-sync", ".db")
+        Database.connect("jdbc:sqlite:${dbFile.absolutePath}", "org.sqlite.JDBC")
+        transaction {
+            SchemaUtils.create(MangaTable, ChapterTable, PageTable)
+            mangaId = MangaTable.insertAndGetId {
+                it[url] = "/manga"
+                it[title] = "synthetic"
+                it[sourceReference] = 0L
+            }.value
+        }
+    }
+
+    @Setup(Level.Invocation)
+    fun setupChapters() {
+        transaction {
+            PageTable.deleteAll()
+            ChapterTable.deleteAll()
+            val ids = ChapterTable.batchInsert(0 until size) { i ->
+                this[ChapterTable.url] = "/chapter/$i"
+                this[ChapterTable.name] = "Chapter $i"
+                this[ChapterTable.chapter_number] = i.toFloat()
+                this[ChapterTable.sourceOrder] = i + 1
+                this[ChapterTable.manga] = mangaId
+            }.map { it[ChapterTable.id].value }
+            PageTable.batchInsert(ids) { chapterId ->
+                this[PageTable.index] = 0
+                this[PageTable.url] = ""
+                this[PageTable.chapter] = chapterId
+            }
+            deletes = ids.filterIndexed { i, _ -> i % 10 == 0 }
+            updates = ids.withIndex()
+                .filter { it.index % 10 != 0 }
+                .map { (i, chapterId) ->
+                    val chapter = SChapter.create().apply {
+                        url = "/chapter/$i"
+                        name = "Chapter $i (renumbered)"
+                        chapter_number = i.toFloat()
+                    }
+                    Triple(chapterId, size - i, chapter)
+                }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        dbFile.delete()
+    }
+
+    @Benchmark
+    fun perRow() {
+        transaction {
+            updates.forEach { (_, sourceOrder, chapter) ->
+                ChapterTable.update({ (ChapterTable.manga eq mangaId) and (ChapterTable.url eq chapter.url) }) {
+                    it[name] = chapter.name
+                    it[date_upload] = chapter.date_upload
+                    it[chapter_number] = chapter.chapter_number
+                    it[scanlator] = chapter.scanlator
+                    it[memo] = chapter.memo.toString()
+                    it[ChapterTable.sourceOrder] = sourceOrder
+                }
+            }
+        }
+        deletes.forEach { chapterId ->
+            transaction {
+                PageTable.deleteWhere { PageTable.chapter eq chapterId }
+                ChapterTable.deleteWhere { ChapterTable.id eq chapterId }
+            }
+        }
+        transaction { ChapterTable.select { ChapterTable.manga eq mangaId }.toList() }
+    }
+
+    @Benchmark
+    fun batched() {
+        transaction {
+            updateChaptersBatch(updates)
+            deleteChapters(deletes)
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package suwayomi.tachidesk.manga.impl.download
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.infra.Blackhole
+import suwayomi.tachidesk.manga.impl.download.model.DownloadChapter
+import suwayomi.tachidesk.manga.impl.download.model.DownloadState
+import suwayomi.tachidesk.manga.model.dataclass.ChapterDataClass
+import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.TimeUnit
+
+/**
+ * [DownloadQueue] against the CopyOnWriteArrayList it replaced in [DownloadManager].
+ * The list variants replay what DownloadManager/Downloader used to do on it.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+open class DownloadQueueBenchmark {
+    @Param("10000", "50000")
+    var size: Int = 0
+
+    private lateinit var downloads: List<DownloadChapter>
+    private lateinit var list: CopyOnWriteArrayList<DownloadChapter>
+    private lateinit var queue: DownloadQueue
+
+    @Setup(Level.Trial)
+    fun setup() {
+        val mangas = (0 until 200).map { MangaDataClass(id = it, sourceId = (it % SOURCES).toString(), url = "", title = "manga $it") }
+        downloads = (0 until size).map {
+            val manga = mangas[it % mangas.size]
+            val chapter = ChapterDataClass(
+                id = it,
+                url = "",
+                name = "chapter $it",
+                uploadDate = 0,
+                chapterNumber = it.toFloat(),
+                scanlator = null,
+                mangaId = manga.id,
+                read = false,
+                bookmarked = false,
+                lastPageRead = 0,
+                lastReadAt = 0,
+                index = it / mangas.size,
+                fetchedAt = 0,
+                downloaded = false,
+            )
+            DownloadChapter(chapter.index, manga.id, chapter, manga)
+        }
+        list = CopyOnWriteArrayList(downloads)
+        queue = DownloadQueue().also { q -> downloads.forEach { q.add(it) } }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    fun enqueueList(bh: Blackhole) {
+        val target = CopyOnWriteArrayList<DownloadChapter>()
+        downloads.forEach { d ->
+            if (target.none { it.mangaId == d.mangaId && it.chapterIndex == d.chapterIndex }) {
+                target.add(d)
+            }
+        }
+        bh.consume(target)
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    fun enqueueQueue(bh: Blackhole) {
+        val target = DownloadQueue()
+        downloads.forEach { target.add(it) }
+        bh.consume(target)
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    fun progressTickList(bh: Blackhole) {
+        bh.consume(list.filter { it.manga.sourceId.toLong() == 3L && it.state != DownloadState.Error }.take(5))
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    fun progressTickQueue(bh: Blackhole) {
+        bh.consume(queue.take(3L, 5) { it.state != DownloadState.Error })
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    fun reorderList() {
+        val download = list.find { it.mangaId == 199 && it.chapterIndex == size / 200 - 1 } ?: return
+        list -= download
+        list.add(0, download)
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    fun reorderQueue() {
+        queue.move(199, size / 200 - 1, 0)
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    fun unqueueList() {
+        // re-enqueue so every invocation removes an entry
+        val download = list.find { it.mangaId == 100 && it.chapterIndex == 10 } ?: return
+        list.removeIf { it.mangaId == 100 && it.chapterIndex == 10 }
+        list.add(download)
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    fun unqueueQueue() {
+        // re-enqueue so every invocation removes an entry
+        val download = queue.remove(100, 10) ?: return
+        queue.add(download)
+    }
+
+    companion object {
+        private const val SOURCES = 40
+    }
+}
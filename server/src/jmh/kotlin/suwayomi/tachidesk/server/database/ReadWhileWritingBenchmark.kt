@@ -0,0 +1,123 @@
+package suwayomi.tachidesk.server.database
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.jetbrains.exposed.sql.Database
+import org.jetbrains.exposed.sql.SchemaUtils
+import org.jetbrains.exposed.sql.batchInsert
+import org.jetbrains.exposed.sql.count
+import org.jetbrains.exposed.sql.insertAndGetId
+import org.jetbrains.exposed.sql.selectAll
+import org.jetbrains.exposed.sql.transactions.transaction
+import org.openjdk.jmh.annotations.Benchmark
+import org.openjdk.jmh.annotations.BenchmarkMode
+import org.openjdk.jmh.annotations.Level
+import org.openjdk.jmh.annotations.Mode
+import org.openjdk.jmh.annotations.OutputTimeUnit
+import org.openjdk.jmh.annotations.Param
+import org.openjdk.jmh.annotations.Scope
+import org.openjdk.jmh.annotations.Setup
+import org.openjdk.jmh.annotations.State
+import org.openjdk.jmh.annotations.TearDown
+import org.openjdk.jmh.annotations.Threads
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import java.io.File
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+/**
+ * Latency of a library read (chapter counts per manga) from 4 threads while another thread keeps
+ * writing chapters the way a library update does.
+ * `direct` is the old setup, a new IMMEDIATE connection per transaction without WAL,
+ * `pooled` is the single writer plus read only DEFERRED connections of [DBManager].
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+open class ReadWhileWritingBenchmark {
+    @Param("direct", "pooled")
+    var mode: String = ""
+
+    private lateinit var dbFile: File
+    private lateinit var writeDb: Database
+    private lateinit var readDb: Database
+    private val dataSources = mutableListOf<SqliteDataSource>()
+
+    @Volatile
+    private var writing = true
+    private var writer: Thread? = null
+
+    @Setup(Level.Trial)
+    fun setup() {
+        dbFile = File.createTempFile("read-while-writing", ".db")
+        val url = "jdbc:sqlite:${dbFile.absolutePath}"
+        if (mode == "pooled") {
+            val writerSource = SqliteDataSource(url, 1, false, SqlitePragmas())
+            writeDb = Database.connect(writerSource)
+            transaction(writeDb) { SchemaUtils.create(MangaTable, ChapterTable) }
+            val readerSource = SqliteDataSource(url, 4, true, SqlitePragmas())
+            readDb = Database.connect(readerSource)
+            dataSources += listOf(writerSource, readerSource)
+        } else {
+            writeDb = Database.connect("$url?transaction_mode=IMMEDIATE", "org.sqlite.JDBC")
+            readDb = writeDb
+            transaction(writeDb) { SchemaUtils.create(MangaTable, ChapterTable) }
+        }
+
+        val mangaIds = transaction(writeDb) {
+            (0 until 300).map { i ->
+                MangaTable.insertAndGetId {
+                    it[url] = "/manga/$i"
+                    it[title] = "manga $i"
+                    it[inLibrary] = true
+                    it[sourceReference] = 0L
+                }.value
+            }
+        }
+        writing = true
+        writer = thread(name = "benchmark-writer") {
+            var n = 0
+            while (writing) {
+                val mangaId = mangaIds[n % mangaIds.size]
+                transaction(writeDb) {
+                    ChapterTable.batchInsert(0 until 200) { i ->
+                        this[ChapterTable.url] = "/chapter/$n/$i"
+                        this[ChapterTable.name] = "Chapter $i"
+                        this[ChapterTable.sourceOrder] = i
+                        this[ChapterTable.manga] = mangaId
+                    }
+                }
+                n++
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    fun tearDown() {
+        writing = false
+        writer?.join()
+        dataSources.forEach { it.close() }
+        dataSources.clear()
+        dbFile.delete()
+        File(dbFile.path + "-wal").delete()
+        File(dbFile.path + "-shm").delete()
+    }
+
+    @Benchmark
+    @Threads(4)
+    fun libraryRead(): Int {
+        val chapterCount = ChapterTable.id.count()
+        return transaction(readDb) {
+            ChapterTable.slice(ChapterTable.manga, chapterCount)
+                .selectAll()
+                .groupBy(ChapterTable.manga)
+                .count { it[chapterCount] > 0 }
+        }
+    }
+}
@@ -7,52 +7,14 @@ package org.tachiyomi;
  * License, v. 2.0. If a copy of the MPL was not distributed with this
  * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 
-public class Profiler {
-    private static final ThreadLocal<Long> TIME_THREADLOCAL = new ThreadLocal<>();
-    private static final ThreadLocal<Long> TIME_THREAD_LOCAL_ALL = new ThreadLocal<>();
-    private static final ThreadLocal<Long> TIME_THREAD_LOCAL_NET = new ThreadLocal<>();
-    private static final ThreadLocal<Long> TIME_THREAD_LOCAL_NATIVE_NET = new ThreadLocal<>();
-
-    public static void start() {
-        TIME_THREADLOCAL.set(System.currentTimeMillis());
-        TIME_THREAD_LOCAL_ALL.set(System.currentTimeMillis());
-        TIME_THREAD_LOCAL_NET.set(0L);
-        TIME_THREAD_LOCAL_NATIVE_NET.set(0L);
-    }
+import suwayomi.tachidesk.server.util.Tracer;
 
+/**
+ * Step timing inside a trace, see {@link Tracer}.
+ * A trace is started with Tracer.trace so it follows the coroutine instead of the thread.
+ */
+public class Profiler {
     public static void split(String key) {
-        Long aLong = TIME_THREADLOCAL.get();
-        if (aLong != null) {
-            System.out.println("Profiler: " + key
-                    + " cost:" + (System.currentTimeMillis() - aLong) + "ms");
-        }
-        TIME_THREADLOCAL.set(System.currentTimeMillis());
-    }
-
-    public static void incrNet(String tag, long cost) {
-        if (TIME_THREAD_LOCAL_NET.get() != null) {
-            TIME_THREAD_LOCAL_NET.set(TIME_THREAD_LOCAL_NET.get() + cost);
-        }
-    }
-
-    public static void incrNativeNet(String tag, long cost) {
-        if (TIME_THREAD_LOCAL_NATIVE_NET.get() != null) {
-            TIME_THREAD_LOCAL_NATIVE_NET.set(TIME_THREAD_LOCAL_NATIVE_NET.get() + cost);
-        }
-    }
-
-    public static void all() {
-        Long t = TIME_THREAD_LOCAL_ALL.get();
-        if (t != null) {
-            long all = System.currentTimeMillis() - t;
-            long net = TIME_THREAD_LOCAL_NET.get();
-            long native_net = TIME_THREAD_LOCAL_NATIVE_NET.get();
-            System.out.println("Profiler: all cost " + all + "ms, "
-                    + (native_net > 0 ?
-                        ("net cost[" + net + "|" + native_net + "|+" + (net-native_net)+"]") :
-                        ("net cost: " + net + "ms"))
-                    + " left cost:" + (all - net) + "ms");
-        }
+        Tracer.INSTANCE.split(key);
     }
 }
-
@@ -0,0 +1,109 @@
+package eu.kanade.tachiyomi.data.backup
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.data.backup.models.Backup
+import eu.kanade.tachiyomi.data.backup.models.BackupCategory
+import eu.kanade.tachiyomi.data.backup.models.BackupExtensionRepos
+import eu.kanade.tachiyomi.data.backup.models.BackupManga
+import eu.kanade.tachiyomi.data.backup.models.BackupSource
+import kotlinx.serialization.protobuf.ProtoBuf
+import okio.BufferedSource
+import okio.buffer
+import okio.source
+import java.io.File
+import java.io.IOException
+
+/**
+ * Reads an uncompressed [Backup] from [file] field by field, the counterpart of [BackupStreamWriter].
+ *
+ * The mangas come first in a backup but are restored last, so the file is read twice: [readHeader] skips over
+ * the mangas and [forEachManga] decodes them one at a time.
+ */
+class BackupReader(private val file: File, private val parser: ProtoBuf = ProtoBuf) {
+    class Header(
+        val mangaCount: Int,
+        val categories: List<BackupCategory>,
+        val sources: List<BackupSource>,
+        val extensionRepos: List<BackupExtensionRepos>,
+    )
+
+    fun readHeader(): Header {
+        var mangaCount = 0
+        val categories = mutableListOf<BackupCategory>()
+        val sources = mutableListOf<BackupSource>()
+        val extensionRepos = mutableListOf<BackupExtensionRepos>()
+        readFields { number, source, length ->
+            when (number) {
+                MANGA_FIELD -> {
+                    mangaCount++
+                    source.skip(length)
+                }
+                CATEGORY_FIELD -> categories += parser.decodeFromByteArray(BackupCategory.serializer(), source.readByteArray(length))
+                SOURCE_FIELD -> sources += parser.decodeFromByteArray(BackupSource.serializer(), source.readByteArray(length))
+                EXTENSION_REPO_FIELD -> extensionRepos += parser.decodeFromByteArray(BackupExtensionRepos.serializer(), source.readByteArray(length))
+                else -> source.skip(length)
+            }
+        }
+        return Header(mangaCount, categories, sources, extensionRepos)
+    }
+
+    fun forEachManga(block: (BackupManga) -> Unit) {
+        readFields { number, source, length ->
+            if (number == MANGA_FIELD) {
+                block(parser.decodeFromByteArray(BackupManga.serializer(), source.readByteArray(length)))
+            } else {
+                source.skip(length)
+            }
+        }
+    }
+
+    /** calls [onField] for every length delimited field, which has to consume exactly its length */
+    private fun readFields(onField: (number: Int, source: BufferedSource, length: Long) -> Unit) {
+        file.source().buffer().use { source ->
+            while (!source.exhausted()) {
+                val tag = readVarint(source)
+                val number = (tag ushr 3).toInt()
+                when (val wireType = (tag and 0x7).toInt()) {
+                    WIRE_TYPE_VARINT -> readVarint(source)
+                    WIRE_TYPE_FIXED64 -> source.skip(8)
+                    WIRE_TYPE_LENGTH_DELIMITED -> onField(number, source, readVarint(source))
+                    WIRE_TYPE_FIXED32 -> source.skip(4)
+                    else -> throw IOException("Invalid backup, wire type $wireType of field $number")
+                }
+            }
+        }
+    }
+
+    private fun readVarint(source: BufferedSource): Long {
+        var result = 0L
+        var shift = 0
+        while (shift < 64) {
+            val b = source.readByte().toLong()
+            result = result or ((b and 0x7F) shl shift)
+            if (b and 0x80 == 0L) {
+                return result
+            }
+            shift += 7
+        }
+        throw IOException("Invalid backup, malformed varint")
+    }
+
+    companion object {
+        // the @ProtoNumber of the fields of Backup
+        private const val MANGA_FIELD = 1
+        private const val CATEGORY_FIELD = 2
+        private const val SOURCE_FIELD = 101
+        private const val EXTENSION_REPO_FIELD = 106
+
+        private const val WIRE_TYPE_VARINT = 0
+        private const val WIRE_TYPE_FIXED64 = 1
+        private const val WIRE_TYPE_LENGTH_DELIMITED = 2
+        private const val WIRE_TYPE_FIXED32 = 5
+    }
+}
@@ -0,0 +1,60 @@
+package eu.kanade.tachiyomi.data.backup
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.data.backup.models.Backup
+import eu.kanade.tachiyomi.data.backup.models.BackupCategory
+import eu.kanade.tachiyomi.data.backup.models.BackupManga
+import eu.kanade.tachiyomi.data.backup.models.BackupSource
+import kotlinx.serialization.protobuf.ProtoBuf
+import okio.BufferedSink
+
+/**
+ * Writes a [Backup] one element at a time. The result has the same bytes as encoding the whole [Backup] with
+ * [ProtoBuf], but only a single manga is held encoded at once.
+ *
+ * Every element is a length delimited field of [Backup]. Mangas, categories and sources have to be written in
+ * that order, the order of their fields.
+ */
+class BackupStreamWriter(private val sink: BufferedSink, private val parser: ProtoBuf = ProtoBuf) {
+    fun writeManga(manga: BackupManga) {
+        writeField(MANGA_FIELD, parser.encodeToByteArray(BackupManga.serializer(), manga))
+    }
+
+    fun writeCategory(category: BackupCategory) {
+        writeField(CATEGORY_FIELD, parser.encodeToByteArray(BackupCategory.serializer(), category))
+    }
+
+    fun writeSource(source: BackupSource) {
+        writeField(SOURCE_FIELD, parser.encodeToByteArray(BackupSource.serializer(), source))
+    }
+
+    private fun writeField(number: Int, bytes: ByteArray) {
+        writeVarint((number.toLong() shl 3) or WIRE_TYPE_LENGTH_DELIMITED)
+        writeVarint(bytes.size.toLong())
+        sink.write(bytes)
+    }
+
+    private fun writeVarint(value: Long) {
+        var v = value
+        while (v and 0x7FL.inv() != 0L) {
+            sink.writeByte(((v and 0x7F) or 0x80).toInt())
+            v = v ushr 7
+        }
+        sink.writeByte(v.toInt())
+    }
+
+    companion object {
+        // the @ProtoNumber of the fields of Backup
+        private const val MANGA_FIELD = 1
+        private const val CATEGORY_FIELD = 2
+        private const val SOURCE_FIELD = 101
+
+        private const val WIRE_TYPE_LENGTH_DELIMITED = 2L
+    }
+}
@@ -10,9 +10,12 @@ package eu.kanade.tachiyomi.util
 import eu.kanade.tachiyomi.data.backup.ProtoBackupImport
 import eu.kanade.tachiyomi.data.backup.models.Backup
 import kotlinx.serialization.ExperimentalSerializationApi
+import okio.BufferedSource
 import okio.buffer
 import okio.gzip
+import okio.sink
 import okio.source
+import java.io.File
 import java.io.InputStream
 
 object BackupUtil {
@@ -21,17 +24,30 @@ object BackupUtil {
      */
     @OptIn(ExperimentalSerializationApi::class)
     fun decodeBackup(sourceStream: InputStream): Backup {
+        val backupString = openBackup(sourceStream).use { it.readByteArray() }
+
+        return ProtoBackupImport.parser.decodeFromByteArray(Backup.serializer(), backupString)
+    }
+
+    /**
+     * Writes a potentially-gzipped backup uncompressed to [target], to be read with BackupReader.
+     */
+    fun spoolBackup(sourceStream: InputStream, target: File) {
+        openBackup(sourceStream).use { source ->
+            target.sink().buffer().use { it.writeAll(source) }
+        }
+    }
+
+    private fun openBackup(sourceStream: InputStream): BufferedSource {
         val backupStringSource = sourceStream.source().buffer()
 
         val peeked = backupStringSource.peek()
         peeked.require(2)
         val id1id2 = peeked.readShort()
-        val backupString = if (id1id2.toInt() == 0x1f8b) { // 0x1f8b is gzip magic bytes
+        return if (id1id2.toInt() == 0x1f8b) { // 0x1f8b is gzip magic bytes
             backupStringSource.gzip().buffer()
         } else {
             backupStringSource
-        }.use { it.readByteArray() }
-
-        return ProtoBackupImport.parser.decodeFromByteArray(Backup.serializer(), backupString)
+        }
     }
 }
@@ -18,4 +18,10 @@ data class ImportStatus(
     val message: String,
     // extension language codes
     val codes: List<String> = emptyList(),
+    // sources, categories or manga while running
+    val phase: String? = null,
+    // manga of the backup gone through so far and in total
+    val done: Int = 0,
+    val total: Int = 0,
+    val mangaPerSecond: Double = 0.0,
 )
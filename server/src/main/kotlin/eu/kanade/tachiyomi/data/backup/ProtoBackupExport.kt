@@ -31,13 +31,16 @@ object ProtoBackupExport {
     private val logger = KotlinLogging.logger {}
     private val applicationDirs by DI.global.instance<ApplicationDirs>()
 
+    // manga read from the database at a time
+    private const val MANGA_CHUNK = 100
+
+    /**
+     * Writes the backup to a file manga chunk by manga chunk, only one chunk with its chapters is in memory at a
+     * time. See [BackupStreamWriter] for the format.
+     */
     fun createBackup(flags: BackupFlags): String {
         logger.info { "[BACKUP]createBackup..." }
 
-        val t0 = System.currentTimeMillis()
-        val mangas = transaction { MangaTable.select { MangaTable.inLibrary eq true }.toList() }
-        logger.info { "[BACKUP]mangas size:${mangas.size}, cost:${ System.currentTimeMillis() - t0}ms" }
-
         val dbCategories = if (flags.includeCategories) {
             Category.getCategoryList().filter { it.id != Category.DEFAULT_CATEGORY_ID }
         } else {
@@ -45,35 +48,43 @@ object ProtoBackupExport {
         }
         val categoryMap = dbCategories.associate { it.id to it.order.toLong() }
 
-        val t1 = System.currentTimeMillis()
-        val backup = Backup(
-            backupMangas(mangas, flags, categoryMap),
-            backupCategories(dbCategories),
-            backupSources(mangas),
-        )
-        logger.info { "[BACKUP]backup done, cost:${ System.currentTimeMillis() - t1}ms" }
-
-        val t2 = System.currentTimeMillis()
-        val byteArray = parser.encodeToByteArray(Backup.serializer(), backup)
-        logger.info { "[BACKUP]encode done, cost:${ System.currentTimeMillis() - t2}ms" }
-
-        val t3 = System.currentTimeMillis()
-        val path = writeToFile(byteArray)
-        logger.info { "[BACKUP]write to file done, cost:${ System.currentTimeMillis() - t3}ms, path:$path" }
-        return path
-    }
-
-    private fun writeToFile(byteArray: ByteArray): String {
+        val t0 = System.currentTimeMillis()
         val date = SimpleDateFormat("yyyy-MM-dd_HH-mm", Locale.ENGLISH).format(Date())
         val path = "${applicationDirs.tempProtoBackups}/tachimanga_$date.tachibk"
         val file = File(path)
         if (file.exists()) {
             file.delete()
         }
-        file.outputStream()
-            .sink().gzip().buffer().use {
-                it.write(byteArray)
+        var mangaCount = 0
+        try {
+            file.outputStream().sink().gzip().buffer().use { sink ->
+                val writer = BackupStreamWriter(sink, parser)
+                val sourceIds = LinkedHashSet<Long>()
+                var lastId = 0
+                while (true) {
+                    // keyset pagination, an offset would scan the skipped rows again for every chunk
+                    val mangas = transaction {
+                        MangaTable.select { (MangaTable.inLibrary eq true) and (MangaTable.id greater lastId) }
+                            .orderBy(MangaTable.id)
+                            .limit(MANGA_CHUNK)
+                            .toList()
+                    }
+                    if (mangas.isEmpty()) {
+                        break
+                    }
+                    lastId = mangas.last()[MangaTable.id].value
+                    backupMangas(mangas, flags, categoryMap).forEach { writer.writeManga(it) }
+                    mangas.mapTo(sourceIds) { it[MangaTable.sourceReference] }
+                    mangaCount += mangas.size
+                }
+                backupCategories(dbCategories).forEach { writer.writeCategory(it) }
+                backupSources(sourceIds).forEach { writer.writeSource(it) }
             }
+        } catch (e: Throwable) {
+            file.delete()
+            throw e
+        }
+        logger.info { "[BACKUP]backup done, mangas size:$mangaCount, cost:${ System.currentTimeMillis() - t0}ms, path:$path" }
         return path
     }
 
@@ -208,11 +219,7 @@ object ProtoBackupExport {
         }
     }
 
-    private fun backupSources(mangas: List<ResultRow>): List<BackupSource> {
-        val sourceIds = mangas
-            .map { it[MangaTable.sourceReference] }
-            .distinct()
-            .toList()
+    private fun backupSources(sourceIds: Collection<Long>): List<BackupSource> {
         return transaction {
             SourceTable.slice(SourceTable.id, SourceTable.name)
                 .select { (SourceTable.id inList sourceIds) }
@@ -7,14 +7,17 @@ package eu.kanade.tachiyomi.data.backup
  * License, v. 2.0. If a copy of the MPL was not distributed with this
  * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 
-import eu.kanade.tachiyomi.data.backup.models.Backup
 import eu.kanade.tachiyomi.data.backup.models.BackupManga
+import eu.kanade.tachiyomi.source.CatalogueSource
 import eu.kanade.tachiyomi.source.model.SManga
 import eu.kanade.tachiyomi.source.online.HttpSource
 import eu.kanade.tachiyomi.util.BackupUtil
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.trySendBlocking
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.launch
@@ -26,8 +29,11 @@ import org.jetbrains.exposed.sql.SqlExpressionBuilder.eq
 import org.jetbrains.exposed.sql.statements.jdbc.JdbcConnectionImpl
 import org.jetbrains.exposed.sql.transactions.TransactionManager
 import org.jetbrains.exposed.sql.transactions.transaction
+import org.kodein.di.DI
+import org.kodein.di.conf.global
+import org.kodein.di.instance
+import suwayomi.tachidesk.cloud.impl.Sync
 import suwayomi.tachidesk.manga.impl.Category
-import suwayomi.tachidesk.manga.impl.CategoryManga
 import suwayomi.tachidesk.manga.impl.History
 import suwayomi.tachidesk.manga.impl.Repo
 import suwayomi.tachidesk.manga.impl.extension.Extension
@@ -39,7 +45,9 @@ import suwayomi.tachidesk.manga.impl.util.source.GetCatalogueSource.getCatalogue
 import suwayomi.tachidesk.manga.model.table.CategoryMangaTable
 import suwayomi.tachidesk.manga.model.table.ChapterTable
 import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.server.ApplicationDirs
 import suwayomi.tachidesk.server.database.MyBatchInsertStatement
+import java.io.File
 import java.io.InputStream
 import java.time.Instant
 import java.util.*
@@ -47,7 +55,8 @@ import java.util.concurrent.TimeUnit
 import kotlin.math.max
 
 data class ImportContext(
-    val backup: Backup,
+    val header: BackupReader.Header,
+    val reader: BackupReader,
     val defaultRepoUrl: String,
     // backupCategory#order -> dbCategory#id
     val categoryMap: MutableMap<Long, Int> = mutableMapOf(),
@@ -58,6 +67,7 @@ object ProtoBackupImport {
     val parser = ProtoBuf
     private val logger = KotlinLogging.logger {}
     private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    private val applicationDirs by DI.global.instance<ApplicationDirs>()
 
     private val _status = MutableStateFlow(ImportStatus(ImportState.INIT.name, ""))
     val status = _status.asStateFlow()
@@ -66,9 +76,17 @@ object ProtoBackupImport {
         val dummy: String,
     )
 
-    private fun updateStatus(state: ImportState, message: String, codes: List<String> = emptyList()) {
+    private fun updateStatus(
+        state: ImportState,
+        message: String,
+        codes: List<String> = emptyList(),
+        phase: String? = null,
+        done: Int = 0,
+        total: Int = 0,
+        mangaPerSecond: Double = 0.0,
+    ) {
         logger.info { "[Import]updateStatus, state:$state message=$message" }
-        _status.value = ImportStatus(state.name, message, codes)
+        _status.value = ImportStatus(state.name, message, codes, phase, done, total, mangaPerSecond)
     }
 
     suspend fun performRestore(sourceStream: InputStream, defaultRepoUrl: String): ImportResult {
@@ -85,32 +103,40 @@ object ProtoBackupImport {
     }
 
     private suspend fun performRestore0(sourceStream: InputStream, defaultRepoUrl: String): ImportResult {
-        // decode
-        logger.info { "[Import]decode start" }
-        val backup = BackupUtil.decodeBackup(sourceStream)
-        logger.info { "[Import]decode done" }
-
-        // validate
-        logger.info { "[Import]validate start" }
-        validate(backup)
-        logger.info { "[Import]validate done" }
+        // the mangas are decoded one at a time while restoring, from an uncompressed copy of the backup
+        val file = File(applicationDirs.tempProtoBackups, "restore_${System.currentTimeMillis()}.proto")
+        val header = try {
+            logger.info { "[Import]decode start" }
+            file.parentFile.mkdirs()
+            BackupUtil.spoolBackup(sourceStream, file)
+            val reader = BackupReader(file, parser)
+            reader.readHeader().also {
+                logger.info { "[Import]decode done, manga:${it.mangaCount}" }
+                validate(it)
+            }
+        } catch (e: Throwable) {
+            file.delete()
+            throw e
+        }
 
         scope.launch {
             logger.info { "[Import]scope.launch..." }
             try {
-                val context = ImportContext(backup, defaultRepoUrl)
+                val context = ImportContext(header, BackupReader(file, parser), defaultRepoUrl)
                 doRestore(context)
                 updateStatus(ImportState.SUCCESS, "Import successful.", context.codes)
             } catch (e: Exception) {
                 logger.error(e) { "[Import]doRestore error" }
                 updateStatus(ImportState.FAIL, if (e.message != null) "Import failed: ${e.message}" else "Import failed")
+            } finally {
+                file.delete()
             }
         }
         return ImportResult("")
     }
 
-    private fun validate(backup: Backup) {
-        if (backup.backupManga.isEmpty()) {
+    private fun validate(header: BackupReader.Header) {
+        if (header.mangaCount == 0) {
             throw Exception("Backup does not contain any manga.")
         }
     }
@@ -122,7 +148,7 @@ object ProtoBackupImport {
     }
 
     private suspend fun restoreRepos(context: ImportContext) {
-        val repos = context.backup.backupExtensionRepo
+        val repos = context.header.extensionRepos
         updateStatus(ImportState.RUNNING, "Fetching extensions...")
         logger.info { "[Import]backupExtensionRepo size=${repos.size}" }
         val repoMap = Repo.repoList().associateBy { it.baseUrl }
@@ -145,10 +171,10 @@ object ProtoBackupImport {
     }
 
     private suspend fun restoreSources(context: ImportContext) {
-        val sources = context.backup.backupSources.associate { it.sourceId to it.name }
+        val sources = context.header.sources.associate { it.sourceId to it.name }
         logger.info { "[Import]backupSources $sources" }
 
-        updateStatus(ImportState.RUNNING, "Fetching extensions...")
+        updateStatus(ImportState.RUNNING, "Fetching extensions...", phase = PHASE_SOURCES)
         val pair = ExtensionsList.getExtensionListForImport(context.defaultRepoUrl)
         val foundExtensions = pair.second
         val dbExtensions = pair.first.groupBy { it.pkgName }
@@ -159,7 +185,7 @@ object ProtoBackupImport {
         logger.info { "[Import]to install extensions ${todoList.map { it.pkgName }}" }
 
         todoList.forEach {
-            updateStatus(ImportState.RUNNING, "Installing ${it.name}...")
+            updateStatus(ImportState.RUNNING, "Installing ${it.name}...", phase = PHASE_SOURCES)
             val extensions = dbExtensions[it.pkgName]
             if (extensions?.isNotEmpty() == true) {
                 try {
@@ -175,9 +201,9 @@ object ProtoBackupImport {
     }
 
     private fun restoreCategories(context: ImportContext) {
-        updateStatus(ImportState.RUNNING, "Importing categories...")
+        updateStatus(ImportState.RUNNING, "Importing categories...", phase = PHASE_CATEGORIES)
 
-        val backupCategories = context.backup.backupCategories
+        val backupCategories = context.header.categories
         logger.info { "[Import]backupCategories $backupCategories" }
         val dbCategories = Category.getCategoryList().associateBy { it.name }
         logger.info { "[Import]dbCategories $dbCategories" }
@@ -195,188 +221,310 @@ object ProtoBackupImport {
         logger.info { "[Import]categoryMap ${context.categoryMap}" }
     }
 
-    private fun restoreManga(context: ImportContext) {
-        val mangas = context.backup.backupManga.filter { it.favorite }.toList()
-        val total = mangas.size
-        mangas.forEachIndexed { index, manga ->
-            updateStatus(ImportState.RUNNING, "Importing(${index + 1}/$total) ${manga.title}...")
+    private suspend fun restoreManga(context: ImportContext) = coroutineScope {
+        val total = context.header.mangaCount
+        val startedAt = System.currentTimeMillis()
+        updateStatus(ImportState.RUNNING, "Importing(0/$total)...", phase = PHASE_MANGA, total = total)
+
+        // the next chunk is decoded while the current one is written, sqlite only takes one writer anyway
+        val chunks = Channel<MangaChunk>(2)
+        launch(Dispatchers.IO) {
             try {
-                restoreMangaData(manga, context.categoryMap)
+                var mangas = mutableListOf<BackupManga>()
+                var chapters = 0
+                var read = 0
+                context.reader.forEachManga { manga ->
+                    read++
+                    if (manga.favorite) {
+                        mangas += manga
+                        chapters += manga.chapters.size
+                    }
+                    if (mangas.size >= MANGA_CHUNK || chapters >= CHAPTER_CHUNK) {
+                        chunks.trySendBlocking(MangaChunk(mangas, read)).getOrThrow()
+                        mangas = mutableListOf()
+                        chapters = 0
+                    }
+                }
+                chunks.trySendBlocking(MangaChunk(mangas, read)).getOrThrow()
+            } finally {
+                chunks.close()
+            }
+        }
+
+        var done = 0
+        for (chunk in chunks) {
+            try {
+                restoreChunk(chunk.mangas, context.categoryMap)
             } catch (e: Exception) {
-                logger.error { "[Import]restoreMangaData error:$e" }
+                // the chunk was rolled back, so one bad manga doesn't take the others with it
+                logger.error { "[Import]restoreChunk error:$e, restoring one by one" }
+                chunk.mangas.forEach { manga ->
+                    try {
+                        restoreChunk(listOf(manga), context.categoryMap)
+                    } catch (e: Exception) {
+                        logger.error { "[Import]restoreMangaData error:$e, title: ${manga.title}" }
+                    }
+                }
             }
+            done = chunk.read
+            updateStatus(
+                ImportState.RUNNING,
+                "Importing($done/$total) ${chunk.mangas.lastOrNull()?.title.orEmpty()}...",
+                phase = PHASE_MANGA,
+                done = done,
+                total = total,
+                mangaPerSecond = mangaPerSecond(done, startedAt),
+            )
         }
+        logger.info { "[Import]import manga done, $done manga, ${mangaPerSecond(done, startedAt)} manga/s" }
     }
 
-    private fun restoreMangaData(
-        manga: BackupManga,
+    private class MangaChunk(val mangas: List<BackupManga>, val read: Int)
+
+    private fun mangaPerSecond(done: Int, startedAt: Long): Double {
+        val seconds = (System.currentTimeMillis() - startedAt) / 1000.0
+        return if (seconds > 0) done / seconds else 0.0
+    }
+
+    /** restores [mangas] in one transaction, with one statement per kind of row where possible */
+    private fun restoreChunk(
+        mangas: List<BackupManga>,
         categoryMapping: Map<Long, Int>,
     ) {
-        logger.info { "[Import]import manga..., title: ${manga.title}" }
+        if (mangas.isEmpty()) {
+            return
+        }
         val now = System.currentTimeMillis()
-        val source = getCatalogueSourceOrNull(manga.source)
+        // loading an extension can take a while, it is done before taking the writer connection
+        val sources = mangas.map { it.source }.distinct().associateWith { getCatalogueSourceOrNull(it) }
+        // a manga that is twice in the backup is restored on top of the first one, once that is committed
+        val deferred = mutableListOf<BackupManga>()
         transaction {
-            val dbManga =
-                MangaTable.select { (MangaTable.url eq manga.url) and (MangaTable.sourceReference eq manga.source) }
-                    .firstOrNull()
-            val mangaId =
-                if (dbManga != null) {
-                    val id = dbManga[MangaTable.id].value
-                    val mangaInLibrary = dbManga[MangaTable.inLibrary]
-                    logger.info { "[Import]exist manga, inLibrary:$mangaInLibrary. title: ${manga.title}" }
-                    if (!mangaInLibrary) {
-                        transaction {
-                            MangaTable.update({ MangaTable.id eq id }) {
-                                it[inLibrary] = manga.favorite
-                                it[inLibraryAt] = TimeUnit.MILLISECONDS.toSeconds(manga.dateAdded)
-                                it[MangaTable.updateAt] = now
-                                it[MangaTable.dirty] = true
-                            }
-                        }
-                    }
-
-                    val chapters = manga.chapters.filter { it.read || it.bookmark || it.lastPageRead > 0 }
-                    if (chapters.isNotEmpty()) {
-                        val dbChapters = ChapterTable
-                            .slice(ChapterTable.id, ChapterTable.isRead, ChapterTable.isBookmarked, ChapterTable.lastPageRead, ChapterTable.memo, ChapterTable.url)
-                            .select { ChapterTable.manga eq id }
-                            .associateBy { it[ChapterTable.url] }
-                        chapters.forEach { chapter ->
-                            val dbChapter = dbChapters[chapter.url]
-                            if (dbChapter != null) {
-                                val backupMemoStr = chapter.memo.decodeToString()
-                                val memoChanged = backupMemoStr != dbChapter[ChapterTable.memo]
-
-                                if (dbChapter[ChapterTable.isRead] != chapter.read ||
-                                    dbChapter[ChapterTable.isBookmarked] != chapter.bookmark ||
-                                    dbChapter[ChapterTable.lastPageRead] != chapter.lastPageRead.toInt() ||
-                                    memoChanged
-                                ) {
-                                    ChapterTable.update({ (ChapterTable.id eq dbChapter[ChapterTable.id]) }) {
-                                        it[isRead] = chapter.read || dbChapter[isRead]
-                                        it[isBookmarked] = chapter.bookmark || dbChapter[isBookmarked]
-                                        it[ChapterTable.lastPageRead] = max(chapter.lastPageRead.toInt(), dbChapter[ChapterTable.lastPageRead])
-                                        if (memoChanged) {
-                                            it[ChapterTable.memo] = backupMemoStr
-                                        }
-                                        it[ChapterTable.updateAt] = now
-                                        it[ChapterTable.dirty] = true
-                                    }
-                                }
-                            }
-                        }
-                    }
-                    id
+            val dbMangas = findMangas(mangas)
+            val restored = mutableMapOf<Pair<Long, String>, Int>()
+            val restoredMangas = mutableListOf<BackupManga>()
+            val existing = mutableListOf<Pair<ResultRow, BackupManga>>()
+            val inserted = mutableListOf<Pair<Int, BackupManga>>()
+            mangas.forEach { manga ->
+                val key = manga.source to manga.url
+                if (restored.containsKey(key)) {
+                    deferred += manga
+                    return@forEach
+                }
+                restoredMangas += manga
+                val dbManga = dbMangas[key]
+                restored[key] = if (dbManga != null) {
+                    existing += dbManga to manga
+                    dbManga[MangaTable.id].value
                 } else {
-                    // insert manga to database
-                    val id = MangaTable.insertAndGetId {
-                        it[url] = manga.url
-                        it[title] = manga.title.take(512)
+                    insertManga(manga, sources[manga.source], categoryMapping, now).also { inserted += it to manga }
+                }
+            }
 
-                        it[artist] = manga.artist?.take(512)
-                        it[author] = manga.author?.take(512)
-                        it[description] = manga.description
-                        it[genre] = manga.genre.joinToString()
+            restoreExistingMangas(existing, categoryMapping, now)
+            insertChapters(inserted, now)
+            insertCategories(inserted, categoryMapping)
 
-                        it[status] = manga.status
-                        it[thumbnail_url] = manga.thumbnailUrl
-                        it[updateStrategy] = manga.updateStrategy.name
+            restoredMangas.forEach { manga ->
+                val mangaId = restored.getValue(manga.source to manga.url)
+                manga.tracking.forEach {
+                    Track.upsertTrackRecord(it.toTrack(mangaId.toLong()))
+                }
+            }
+            restoreHistory(restored, restoredMangas)
+        }
+        Sync.setNeedsSync()
+        restoreChunk(deferred, categoryMapping)
+    }
+
+    private fun findMangas(mangas: List<BackupManga>): Map<Pair<Long, String>, ResultRow> {
+        val keys = mangas.map { it.source to it.url }.toSet()
+        return MangaTable
+            .select { (MangaTable.url inList mangas.map { it.url }.distinct()) and (MangaTable.sourceReference inList mangas.map { it.source }.distinct()) }
+            .filter { (it[MangaTable.sourceReference] to it[MangaTable.url]) in keys }
+            .associateBy { it[MangaTable.sourceReference] to it[MangaTable.url] }
+    }
 
-                        it[sourceReference] = manga.source
+    private fun insertManga(manga: BackupManga, source: CatalogueSource?, categoryMapping: Map<Long, Int>, now: Long): Int {
+        logger.info { "[Import]import manga..., title: ${manga.title}" }
+        return MangaTable.insertAndGetId {
+            it[url] = manga.url
+            it[title] = manga.title.take(512)
 
-                        it[initialized] = true
+            it[artist] = manga.artist?.take(512)
+            it[author] = manga.author?.take(512)
+            it[description] = manga.description
+            it[genre] = manga.genre.joinToString()
 
-                        it[inLibrary] = manga.favorite
+            it[status] = manga.status
+            it[thumbnail_url] = manga.thumbnailUrl
+            it[updateStrategy] = manga.updateStrategy.name
 
-                        it[inLibraryAt] = TimeUnit.MILLISECONDS.toSeconds(manga.dateAdded)
+            it[sourceReference] = manga.source
 
-                        // memo
-                        val memoStr = manga.memo.decodeToString()
-                        if (memoStr.isNotEmpty() && memoStr != "{}") {
-                            it[MangaTable.memo] = memoStr
-                        }
+            it[initialized] = true
 
-                        val sManga = SManga.create().apply {
-                            title = manga.title
-                            url = manga.url
-                        }
-                        it[realUrl] = runCatching {
-                            val clone = SManga.create()
-                            clone.cloneFrom(sManga)
-                            (source as? HttpSource)?.getMangaUrl(clone)
-                        }.getOrNull()
-
-                        it[MangaTable.updateAt] = now
-                        it[MangaTable.dirty] = true
-                    }.value
-
-                    // insert chapter data
-                    if (manga.chapters.isNotEmpty()) {
-                        val historyMap = manga.history.associateBy { it.url }
-                        val chaptersLength = manga.chapters.size
-                        val myBatchInsertStatement = MyBatchInsertStatement(ChapterTable)
-                        manga.chapters.forEach { chapter ->
-                            val my = myBatchInsertStatement
-
-                            my.addBatch()
-
-                            my[ChapterTable.url] = chapter.url
-                            my[ChapterTable.name] = chapter.name.take(512)
-                            my[ChapterTable.date_upload] = chapter.dateUpload
-                            my[ChapterTable.chapter_number] = chapter.chapterNumber
-                            my[ChapterTable.scanlator] = chapter.scanlator?.take(128)
-                            my[ChapterTable.sourceOrder] = chaptersLength - chapter.sourceOrder.toInt()
-                            my[ChapterTable.manga] = id
-
-                            my[ChapterTable.isRead] = chapter.read
-                            my[ChapterTable.lastPageRead] = chapter.lastPageRead.toInt()
-                            my[ChapterTable.isBookmarked] = chapter.bookmark
-
-                            my[ChapterTable.fetchedAt] = TimeUnit.MILLISECONDS.toSeconds(chapter.dateFetch)
-
-                            // memo
-                            val memoStr = chapter.memo.decodeToString()
-                            if (memoStr.isNotEmpty() && memoStr != "{}") {
-                                my[ChapterTable.memo] = memoStr
-                            }
-
-                            val history = historyMap[chapter.url]
-                            if (history != null) {
-                                my[ChapterTable.lastReadAt] = TimeUnit.MILLISECONDS.toSeconds(history.lastRead)
-                            }
-
-                            if (chapter.read || chapter.bookmark || chapter.lastPageRead > 0 || history != null) {
-                                my[ChapterTable.updateAt] = now
-                                my[ChapterTable.dirty] = true
-                            }
-                        }
-                        val sql = myBatchInsertStatement.prepareSQL(this)
-                        val conn = (TransactionManager.current().connection as JdbcConnectionImpl).connection
-                        val statement = conn.createStatement()
-                        statement.execute(sql)
-                    }
+            it[inLibrary] = manga.favorite
 
-                    id
+            it[inLibraryAt] = TimeUnit.MILLISECONDS.toSeconds(manga.dateAdded)
+
+            // the categories are inserted with the rest of the chunk
+            it[defaultCategory] = manga.categories.none { c -> categoryMapping.containsKey(c) }
+
+            // memo
+            val memoStr = manga.memo.decodeToString()
+            if (memoStr.isNotEmpty() && memoStr != "{}") {
+                it[MangaTable.memo] = memoStr
+            }
+
+            val sManga = SManga.create().apply {
+                title = manga.title
+                url = manga.url
+            }
+            it[realUrl] = runCatching {
+                val clone = SManga.create()
+                clone.cloneFrom(sManga)
+                (source as? HttpSource)?.getMangaUrl(clone)
+            }.getOrNull()
+
+            it[MangaTable.updateAt] = now
+            it[MangaTable.dirty] = true
+        }.value
+    }
+
+    private fun Transaction.restoreExistingMangas(
+        existing: List<Pair<ResultRow, BackupManga>>,
+        categoryMapping: Map<Long, Int>,
+        now: Long,
+    ) {
+        existing.forEach { (dbManga, manga) ->
+            val mangaInLibrary = dbManga[MangaTable.inLibrary]
+            logger.info { "[Import]exist manga, inLibrary:$mangaInLibrary. title: ${manga.title}" }
+            if (!mangaInLibrary) {
+                MangaTable.update({ MangaTable.id eq dbManga[MangaTable.id] }) {
+                    it[inLibrary] = manga.favorite
+                    it[inLibraryAt] = TimeUnit.MILLISECONDS.toSeconds(manga.dateAdded)
+                    it[MangaTable.updateAt] = now
+                    it[MangaTable.dirty] = true
                 }
+            }
+        }
 
-            if (dbManga != null) {
-                fastAddMangaToCategories(dbManga, manga.categories, categoryMapping)
-            } else {
-                manga.categories.forEach {
-                    val categoryId = categoryMapping[it]
-                    if (categoryId != null) {
-                        CategoryManga.addMangaToCategory(mangaId, categoryId)
+        val progress = existing
+            .map { (dbManga, manga) -> dbManga[MangaTable.id].value to manga.chapters.filter { it.read || it.bookmark || it.lastPageRead > 0 } }
+            .filter { it.second.isNotEmpty() }
+        if (progress.isNotEmpty()) {
+            val dbChapters = ChapterTable
+                .slice(ChapterTable.id, ChapterTable.manga, ChapterTable.isRead, ChapterTable.isBookmarked, ChapterTable.lastPageRead, ChapterTable.memo, ChapterTable.url)
+                .select { ChapterTable.manga inList progress.map { it.first } }
+                .groupBy { it[ChapterTable.manga].value }
+                .mapValues { entry -> entry.value.associateBy { it[ChapterTable.url] } }
+            val t = ChapterTable
+            val sql = "UPDATE ${identity(t)} SET " +
+                listOf(t.isRead, t.isBookmarked, t.lastPageRead, t.memo, t.updateAt, t.dirty).joinToString { "${identity(it)} = ?" } +
+                " WHERE ${identity(t.id)} = ?"
+            val conn = (connection as JdbcConnectionImpl).connection
+            conn.prepareStatement(sql).use { stmt ->
+                progress.forEach { (mangaId, chapters) ->
+                    chapters.forEach { chapter ->
+                        val dbChapter = dbChapters[mangaId]?.get(chapter.url) ?: return@forEach
+                        val backupMemoStr = chapter.memo.decodeToString()
+                        val memoChanged = backupMemoStr != dbChapter[ChapterTable.memo]
+
+                        if (dbChapter[ChapterTable.isRead] != chapter.read ||
+                            dbChapter[ChapterTable.isBookmarked] != chapter.bookmark ||
+                            dbChapter[ChapterTable.lastPageRead] != chapter.lastPageRead.toInt() ||
+                            memoChanged
+                        ) {
+                            stmt.setBoolean(1, chapter.read || dbChapter[ChapterTable.isRead])
+                            stmt.setBoolean(2, chapter.bookmark || dbChapter[ChapterTable.isBookmarked])
+                            stmt.setInt(3, max(chapter.lastPageRead.toInt(), dbChapter[ChapterTable.lastPageRead]))
+                            stmt.setString(4, if (memoChanged) backupMemoStr else dbChapter[ChapterTable.memo])
+                            stmt.setLong(5, now)
+                            stmt.setBoolean(6, true)
+                            stmt.setInt(7, dbChapter[ChapterTable.id].value)
+                            stmt.addBatch()
+                        }
                     }
                 }
+                stmt.executeBatch()
             }
+        }
 
-            manga.tracking.forEach {
-                Track.upsertTrackRecord(it.toTrack(mangaId.toLong()))
+        existing.forEach { (dbManga, manga) ->
+            fastAddMangaToCategories(dbManga, manga.categories, categoryMapping)
+        }
+    }
+
+    /** the chapters of the new mangas, as multi row inserts of up to [CHAPTER_INSERT_ROWS] */
+    private fun Transaction.insertChapters(inserted: List<Pair<Int, BackupManga>>, now: Long) {
+        var myBatchInsertStatement = MyBatchInsertStatement(ChapterTable)
+        var rows = 0
+        fun flush() {
+            if (rows == 0) {
+                return
             }
+            val sql = myBatchInsertStatement.prepareSQL(this)
+            val conn = (TransactionManager.current().connection as JdbcConnectionImpl).connection
+            conn.createStatement().use { it.execute(sql) }
+            myBatchInsertStatement = MyBatchInsertStatement(ChapterTable)
+            rows = 0
+        }
+
+        inserted.forEach { (id, manga) ->
+            val historyMap = manga.history.associateBy { it.url }
+            val chaptersLength = manga.chapters.size
+            manga.chapters.forEach { chapter ->
+                val my = myBatchInsertStatement
 
-            restoreHistory(manga, mangaId)
+                my.addBatch()
+
+                my[ChapterTable.url] = chapter.url
+                my[ChapterTable.name] = chapter.name.take(512)
+                my[ChapterTable.date_upload] = chapter.dateUpload
+                my[ChapterTable.chapter_number] = chapter.chapterNumber
+                my[ChapterTable.scanlator] = chapter.scanlator?.take(128)
+                my[ChapterTable.sourceOrder] = chaptersLength - chapter.sourceOrder.toInt()
+                my[ChapterTable.manga] = id
+
+                my[ChapterTable.isRead] = chapter.read
+                my[ChapterTable.lastPageRead] = chapter.lastPageRead.toInt()
+                my[ChapterTable.isBookmarked] = chapter.bookmark
+
+                my[ChapterTable.fetchedAt] = TimeUnit.MILLISECONDS.toSeconds(chapter.dateFetch)
+
+                // memo
+                val memoStr = chapter.memo.decodeToString()
+                if (memoStr.isNotEmpty() && memoStr != "{}") {
+                    my[ChapterTable.memo] = memoStr
+                }
+
+                val history = historyMap[chapter.url]
+                if (history != null) {
+                    my[ChapterTable.lastReadAt] = TimeUnit.MILLISECONDS.toSeconds(history.lastRead)
+                }
+
+                if (chapter.read || chapter.bookmark || chapter.lastPageRead > 0 || history != null) {
+                    my[ChapterTable.updateAt] = now
+                    my[ChapterTable.dirty] = true
+                }
+
+                if (++rows >= CHAPTER_INSERT_ROWS) {
+                    flush()
+                }
+            }
+        }
+        flush()
+    }
+
+    private fun insertCategories(inserted: List<Pair<Int, BackupManga>>, categoryMapping: Map<Long, Int>) {
+        val rows = inserted
+            .flatMap { (id, manga) -> manga.categories.mapNotNull { categoryMapping[it] }.map { id to it } }
+            .distinct()
+        CategoryMangaTable.batchInsert(rows, shouldReturnGeneratedValues = false) { (mangaId, categoryId) ->
+            this[CategoryMangaTable.category] = categoryId
+            this[CategoryMangaTable.manga] = mangaId
         }
-        logger.info { "[Import]import manga done, title: ${manga.title}" }
     }
 
     private fun fastAddMangaToCategories(dbManga: ResultRow, categories: List<Long>, categoryMapping: Map<Long, Int>) {
@@ -414,16 +562,36 @@ object ProtoBackupImport {
         }
     }
 
-    private fun restoreHistory(manga: BackupManga, mangaId: Int) {
-        val history = manga.history
-        if (history.isEmpty()) {
+    private fun restoreHistory(restored: Map<Pair<Long, String>, Int>, mangas: List<BackupManga>) {
+        val latest = mangas
+            .filter { it.history.isNotEmpty() }
+            .mapNotNull { manga -> restored[manga.source to manga.url]?.let { it to manga } }
+        if (latest.isEmpty()) {
             return
         }
-        val totalDuration = history.sumOf { it.readDuration } / 1000
-        val latestHistory = history.maxBy { it.lastRead }
-        val latestChapter = ChapterTable.slice(ChapterTable.id)
-            .select { (ChapterTable.manga eq mangaId) and (ChapterTable.url eq latestHistory.url) }
-            .firstOrNull() ?: return
-        History.upsertHistory(mangaId, latestChapter[ChapterTable.id].value, totalDuration.toInt(), latestHistory.lastRead / 1000)
+        val chapterIds = ChapterTable.slice(ChapterTable.id, ChapterTable.manga, ChapterTable.url)
+            .select {
+                (ChapterTable.manga inList latest.map { it.first }) and
+                    (ChapterTable.url inList latest.map { (_, manga) -> manga.history.maxBy { it.lastRead }.url }.distinct())
+            }
+            .associate { (it[ChapterTable.manga].value to it[ChapterTable.url]) to it[ChapterTable.id].value }
+        latest.forEach { (mangaId, manga) ->
+            val history = manga.history
+            val totalDuration = history.sumOf { it.readDuration } / 1000
+            val latestHistory = history.maxBy { it.lastRead }
+            val latestChapterId = chapterIds[mangaId to latestHistory.url] ?: return@forEach
+            History.upsertHistory(mangaId, latestChapterId, totalDuration.toInt(), latestHistory.lastRead / 1000)
+        }
     }
+
+    private const val PHASE_SOURCES = "sources"
+    private const val PHASE_CATEGORIES = "categories"
+    private const val PHASE_MANGA = "manga"
+
+    // a chunk of mangas is restored in one transaction
+    private const val MANGA_CHUNK = 50
+    private const val CHAPTER_CHUNK = 20_000
+
+    // rows of one multi row chapter insert
+    private const val CHAPTER_INSERT_ROWS = 1000
 }
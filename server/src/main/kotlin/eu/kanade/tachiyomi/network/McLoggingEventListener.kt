@@ -17,7 +17,8 @@ import okhttp3.Protocol
 import okhttp3.Request
 import okhttp3.Response
 import okhttp3.logging.HttpLoggingInterceptor
-import org.tachiyomi.Profiler
+import suwayomi.tachidesk.server.util.SpanKind
+import suwayomi.tachidesk.server.util.Tracer
 import java.io.IOException
 import java.net.InetAddress
 import java.net.InetSocketAddress
@@ -140,12 +141,14 @@ class McLoggingEventListener private constructor(
 
     override fun callEnd(call: Call) {
         logWithTime("callEnd")
-        val timeMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs)
-        Profiler.incrNet(call.request().url.toString(), timeMs)
+        Tracer.record(Tracer.contextOf(call), call.request().url.host, SpanKind.NET, System.nanoTime() - startNs)
+        Tracer.unbind(call)
     }
 
     override fun callFailed(call: Call, ioe: IOException) {
         logWithTime("callFailed: $ioe")
+        Tracer.record(Tracer.contextOf(call), call.request().url.host, SpanKind.NET, System.nanoTime() - startNs)
+        Tracer.unbind(call)
     }
 
     override fun canceled(call: Call) {
@@ -176,6 +179,10 @@ class McLoggingEventListener private constructor(
     open class Factory @JvmOverloads constructor(
         private val logger: HttpLoggingInterceptor.Logger = HttpLoggingInterceptor.Logger.DEFAULT,
     ) : EventListener.Factory {
-        override fun create(call: Call): EventListener = McLoggingEventListener(logger)
+        override fun create(call: Call): EventListener {
+            // called by newCall() on the thread of the caller, the call events may come from a dispatcher thread
+            Tracer.bind(call)
+            return McLoggingEventListener(logger)
+        }
     }
 }
@@ -18,7 +18,8 @@ import org.kodein.di.DI
 import org.kodein.di.conf.global
 import org.kodein.di.instance
 import org.tachiyomi.NativeNet
-import org.tachiyomi.Profiler
+import suwayomi.tachidesk.server.util.SpanKind
+import suwayomi.tachidesk.server.util.Tracer
 import xyz.nulldev.androidcompat.CommonSwitch
 import java.io.IOException
 
@@ -40,7 +41,7 @@ class CallNativeNetInterceptor : Interceptor {
         val nativeCost = response.headers["x-native-cost"]?.toLong()
         val timeMs = System.currentTimeMillis() - t
         val diff = if (nativeCost != null) {
-            Profiler.incrNativeNet(request.url.toString(), nativeCost)
+            Tracer.record(Tracer.contextOf(call), request.url.host, SpanKind.NATIVE_NET, nativeCost * 1_000_000)
             timeMs - nativeCost
         } else { 0 }
 
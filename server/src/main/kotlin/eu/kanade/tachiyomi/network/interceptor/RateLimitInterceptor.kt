@@ -8,7 +8,6 @@ package eu.kanade.tachiyomi.network.interceptor
  * License, v. 2.0. If a copy of the MPL was not distributed with this
  * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 
-import android.os.SystemClock
 import okhttp3.Interceptor
 import okhttp3.OkHttpClient
 import okhttp3.Response
@@ -34,41 +33,17 @@ fun OkHttpClient.Builder.rateLimit(
     unit: TimeUnit = TimeUnit.SECONDS,
 ) = addInterceptor(RateLimitInterceptor(permits, period, unit))
 
-private class RateLimitInterceptor(
-    private val permits: Int,
+internal class RateLimitInterceptor(
+    permits: Int,
     period: Long,
     unit: TimeUnit,
 ) : Interceptor {
 
-    private val requestQueue = ArrayList<Long>(permits)
-    private val rateLimitMillis = unit.toMillis(period)
+    /** one per client, the sources of an extension each build their own client */
+    val limiter = RateLimiter("client@${Integer.toHexString(System.identityHashCode(this))}", permits, unit.toMillis(period))
 
     override fun intercept(chain: Interceptor.Chain): Response {
-        synchronized(requestQueue) {
-            val now = SystemClock.elapsedRealtime()
-            val waitTime = if (requestQueue.size < permits) {
-                0
-            } else {
-                val oldestReq = requestQueue[0]
-                val newestReq = requestQueue[permits - 1]
-
-                if (newestReq - oldestReq > rateLimitMillis) {
-                    0
-                } else {
-                    oldestReq + rateLimitMillis - now // Remaining time
-                }
-            }
-
-            if (requestQueue.size == permits) {
-                requestQueue.removeAt(0)
-            }
-            if (waitTime > 0) {
-                requestQueue.add(now + waitTime)
-                Thread.sleep(waitTime) // Sleep inside synchronized to pause queued requests
-            } else {
-                requestQueue.add(now)
-            }
-        }
+        limiter.acquireBlocking()
 
         return chain.proceed(chain.request())
     }
@@ -0,0 +1,105 @@
+package eu.kanade.tachiyomi.network.interceptor
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import android.os.SystemClock
+import kotlinx.coroutines.delay
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * At most [permits] requests in any [periodMillis] window, shared by every caller of one source or host.
+ *
+ * A caller reserves the next free slot under a short lock and waits for it outside the lock, so a waiting
+ * caller never holds up the callers queued behind it. Coroutines wait with [acquire] and don't park a thread.
+ */
+class RateLimiter(val key: String, val permits: Int, val periodMillis: Long) {
+    // start times of the last `permits` reservations, slots[head] is the oldest
+    private val slots = LongArray(permits.coerceAtLeast(1)) { Long.MIN_VALUE / 2 }
+    private var head = 0
+
+    private val waiting = AtomicInteger()
+    private val granted = AtomicLong()
+    private val waitedMillis = AtomicLong()
+
+    /** takes the next slot and returns how long the caller has to wait for it */
+    fun reserve(): Long {
+        val now = SystemClock.elapsedRealtime()
+        val wait = synchronized(this) {
+            val start = maxOf(now, slots[head] + periodMillis)
+            slots[head] = start
+            head = (head + 1) % slots.size
+            start - now
+        }
+        granted.incrementAndGet()
+        waitedMillis.addAndGet(wait)
+        return wait
+    }
+
+    /** how long a request made now would wait, without taking a slot */
+    fun waitMillis(): Long {
+        val now = SystemClock.elapsedRealtime()
+        return synchronized(this) { (slots[head] + periodMillis - now).coerceAtLeast(0) }
+    }
+
+    fun hasCapacity() = waitMillis() == 0L
+
+    suspend fun acquire() {
+        val wait = reserve()
+        if (wait > 0) {
+            waiting.incrementAndGet()
+            try {
+                delay(wait)
+            } finally {
+                waiting.decrementAndGet()
+            }
+        }
+    }
+
+    /** for the OkHttp interceptors, which have to block the calling thread */
+    fun acquireBlocking() {
+        val wait = reserve()
+        if (wait > 0) {
+            waiting.incrementAndGet()
+            try {
+                Thread.sleep(wait)
+            } finally {
+                waiting.decrementAndGet()
+            }
+        }
+    }
+
+    fun stats() = RateLimiterStats(
+        key = key,
+        permits = permits,
+        periodMillis = periodMillis,
+        waitMillis = waitMillis(),
+        waiting = waiting.get(),
+        granted = granted.get(),
+        waitedMillis = waitedMillis.get(),
+    )
+
+    companion object {
+        private val shared = ConcurrentHashMap<String, RateLimiter>()
+
+        /** the limiter of [key], created on first use. The limit is part of the key, so clients with other limits don't share it */
+        fun shared(key: String, permits: Int, periodMillis: Long): RateLimiter =
+            shared.computeIfAbsent("$key|$permits/$periodMillis") { RateLimiter(key, permits, periodMillis) }
+    }
+}
+
+data class RateLimiterStats(
+    val key: String,
+    val permits: Int,
+    val periodMillis: Long,
+    val waitMillis: Long,
+    val waiting: Int,
+    val granted: Long,
+    val waitedMillis: Long,
+)
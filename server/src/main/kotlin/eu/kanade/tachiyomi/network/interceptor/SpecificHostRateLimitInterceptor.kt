@@ -8,7 +8,6 @@ package eu.kanade.tachiyomi.network.interceptor
  * License, v. 2.0. If a copy of the MPL was not distributed with this
  * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 
-import android.os.SystemClock
 import okhttp3.HttpUrl
 import okhttp3.Interceptor
 import okhttp3.OkHttpClient
@@ -39,44 +38,21 @@ fun OkHttpClient.Builder.rateLimitHost(
 
 class SpecificHostRateLimitInterceptor(
     httpUrl: HttpUrl,
-    private val permits: Int,
+    permits: Int,
     period: Long,
     unit: TimeUnit,
 ) : Interceptor {
 
-    private val requestQueue = ArrayList<Long>(permits)
-    private val rateLimitMillis = unit.toMillis(period)
     private val host = httpUrl.host
 
+    /** shared by every client limiting the same host the same way */
+    val limiter = RateLimiter.shared("host:$host", permits, unit.toMillis(period))
+
     override fun intercept(chain: Interceptor.Chain): Response {
         if (chain.request().url.host != host) {
             return chain.proceed(chain.request())
         }
-        synchronized(requestQueue) {
-            val now = SystemClock.elapsedRealtime()
-            val waitTime = if (requestQueue.size < permits) {
-                0
-            } else {
-                val oldestReq = requestQueue[0]
-                val newestReq = requestQueue[permits - 1]
-
-                if (newestReq - oldestReq > rateLimitMillis) {
-                    0
-                } else {
-                    oldestReq + rateLimitMillis - now // Remaining time
-                }
-            }
-
-            if (requestQueue.size == permits) {
-                requestQueue.removeAt(0)
-            }
-            if (waitTime > 0) {
-                requestQueue.add(now + waitTime)
-                Thread.sleep(waitTime) // Sleep inside synchronized to pause queued requests
-            } else {
-                requestQueue.add(now)
-            }
-        }
+        limiter.acquireBlocking()
 
         return chain.proceed(chain.request())
     }
@@ -0,0 +1,315 @@
+package eu.kanade.tachiyomi.source.local
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.source.model.SChapter
+import eu.kanade.tachiyomi.source.model.SManga
+import eu.kanade.tachiyomi.util.storage.EpubFile
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.decodeFromString
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonObject
+import kotlinx.serialization.json.contentOrNull
+import kotlinx.serialization.json.decodeFromStream
+import kotlinx.serialization.json.intOrNull
+import kotlinx.serialization.json.jsonArray
+import kotlinx.serialization.json.jsonPrimitive
+import mu.KotlinLogging
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.inList
+import org.jetbrains.exposed.sql.deleteWhere
+import org.jetbrains.exposed.sql.replace
+import org.jetbrains.exposed.sql.selectAll
+import org.jetbrains.exposed.sql.transactions.transaction
+import org.kodein.di.DI
+import org.kodein.di.conf.global
+import org.kodein.di.instance
+import suwayomi.tachidesk.manga.impl.util.storage.ImageUtil
+import suwayomi.tachidesk.manga.model.table.LocalMangaIndexTable
+import suwayomi.tachidesk.server.ApplicationDirs
+import uy.kohesive.injekt.injectLazy
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.attribute.BasicFileAttributes
+
+/**
+ * The manga directories of the local source with their chapter files, cover and metadata, kept in memory and in
+ * [LocalMangaIndexTable] so browsing the local library doesn't walk and probe every directory.
+ *
+ * A directory is read again once its modification time changes, which adding, removing or renaming a file in it
+ * does. A file rewritten in place keeps the directory time, so [mangaEntry] also checks the size and modification
+ * time of each chapter, and epubs and the details json are parsed when first needed and again when theirs change.
+ * The listing of [mangaEntries] only goes by the directory time.
+ */
+object LocalLibraryIndex {
+    private val logger = KotlinLogging.logger {}
+    private val applicationDirs by DI.global.instance<ApplicationDirs>()
+    private val json: Json by injectLazy()
+
+    // a directory changed within this long of its scan may have changed again within the same mtime tick
+    private const val MTIME_GRANULARITY_MS = 2000L
+
+    @Serializable
+    data class MangaEntry(
+        val dir: String,
+        val modified: Long,
+        val scannedAt: Long,
+        val chapters: List<FileEntry>,
+        val cover: String? = null,
+        val detailsFile: String? = null,
+        val details: Details? = null,
+    ) {
+        fun isCurrent(modified: Long) = modified == this.modified && scannedAt - modified > MTIME_GRANULARITY_MS
+    }
+
+    /** a chapter, either a directory of images or an archive */
+    @Serializable
+    data class FileEntry(
+        val name: String,
+        val isDirectory: Boolean,
+        val modified: Long,
+        val size: Long,
+        val epub: EpubMeta? = null,
+    )
+
+    @Serializable
+    data class EpubMeta(
+        val title: String? = null,
+        val scanlator: String? = null,
+        val dateUpload: Long? = null,
+        val author: String? = null,
+        val description: String? = null,
+    )
+
+    /** the fields of the details json, null ones are missing from it */
+    @Serializable
+    data class Details(
+        val modified: Long,
+        val size: Long,
+        val title: String? = null,
+        val author: String? = null,
+        val artist: String? = null,
+        val description: String? = null,
+        val genre: String? = null,
+        val status: Int? = null,
+    )
+
+    private val entries = HashMap<String, MangaEntry>()
+    private var loaded = false
+
+    /** every manga directory of the local source */
+    @Synchronized
+    fun mangaEntries(): List<MangaEntry> {
+        load()
+        val root = File(applicationDirs.localMangaRoot).toPath()
+        if (!Files.isDirectory(root)) {
+            return emptyList()
+        }
+        val now = System.currentTimeMillis()
+        val changed = mutableListOf<MangaEntry>()
+        val found = Files.newDirectoryStream(root).use { stream ->
+            stream.mapNotNull { path ->
+                val name = path.fileName.toString()
+                val attrs = readAttributes(path) ?: return@mapNotNull null
+                if (!attrs.isDirectory || name.startsWith('.')) {
+                    return@mapNotNull null
+                }
+                val modified = attrs.lastModifiedTime().toMillis()
+                val cached = entries[name]
+                if (cached != null && cached.isCurrent(modified)) {
+                    cached
+                } else {
+                    scan(path.toFile(), modified, now, cached).also { changed += it }
+                }
+            }
+        }
+        val removed = entries.keys - found.map { it.dir }.toSet()
+        persist(changed, removed)
+        return found
+    }
+
+    /** the manga directory [dir] with the metadata of its epubs, null if it doesn't exist */
+    @Synchronized
+    fun mangaEntry(dir: String): MangaEntry? {
+        load()
+        val file = File(applicationDirs.localMangaRoot, dir)
+        val attrs = readAttributes(file.toPath())
+        if (attrs == null || !attrs.isDirectory) {
+            if (entries.containsKey(dir)) {
+                persist(emptyList(), setOf(dir))
+            }
+            return null
+        }
+        val modified = attrs.lastModifiedTime().toMillis()
+        var entry = entries[dir]?.takeIf { it.isCurrent(modified) }
+            ?: scan(file, modified, System.currentTimeMillis(), entries[dir])
+        var dirty = entry !== entries[dir]
+
+        val chapters = entry.chapters.map { cached ->
+            // a removed file changes the directory time, so it is only missing here if removed since the scan above
+            val chapterAttrs = readAttributes(File(file, cached.name).toPath())
+            val restated = chapterAttrs?.let { cached.copy(modified = it.lastModifiedTime().toMillis(), size = it.size()) }
+            // rewritten in place, the epub is parsed again below
+            val chapter = if (restated != null && restated != cached) {
+                dirty = true
+                restated.copy(epub = null)
+            } else {
+                cached
+            }
+            val isEpub = !chapter.isDirectory && chapter.name.substringAfterLast('.').equals("epub", true)
+            if (isEpub && chapter.epub == null) {
+                dirty = true
+                chapter.copy(epub = readEpubMeta(File(file, chapter.name)))
+            } else {
+                chapter
+            }
+        }
+        if (dirty) {
+            entry = entry.copy(chapters = chapters)
+            persist(listOf(entry), emptySet())
+        }
+        return entry
+    }
+
+    /** the details json of the manga directory [dir], parsed again if it changed */
+    @Synchronized
+    fun details(dir: String): Details? {
+        val entry = mangaEntry(dir) ?: return null
+        val fileName = entry.detailsFile ?: return null
+        val attrs = readAttributes(File(File(applicationDirs.localMangaRoot, dir), fileName).toPath()) ?: return null
+        val modified = attrs.lastModifiedTime().toMillis()
+        val cached = entry.details
+        if (cached != null && cached.modified == modified && cached.size == attrs.size()) {
+            return cached
+        }
+        val details = readDetails(File(File(applicationDirs.localMangaRoot, dir), fileName), modified, attrs.size())
+        persist(listOf(entry.copy(details = details)), emptySet())
+        return details
+    }
+
+    /** forgets [dir], for changes made by the server itself that may fall within the same mtime tick */
+    @Synchronized
+    fun invalidate(dir: String) {
+        load()
+        if (entries.containsKey(dir)) {
+            persist(emptyList(), setOf(dir))
+        }
+    }
+
+    private fun load() {
+        if (loaded) {
+            return
+        }
+        transaction {
+            LocalMangaIndexTable.selectAll().forEach {
+                try {
+                    val entry = json.decodeFromString<MangaEntry>(it[LocalMangaIndexTable.data])
+                    entries[entry.dir] = entry
+                } catch (e: Exception) {
+                    // read again on the next scan
+                    logger.warn { "dropping local index entry ${it[LocalMangaIndexTable.dir]}: $e" }
+                }
+            }
+        }
+        loaded = true
+    }
+
+    private fun scan(dir: File, modified: Long, now: Long, previous: MangaEntry?): MangaEntry {
+        val previousChapters = previous?.chapters.orEmpty().associateBy { it.name }
+        val files = Files.newDirectoryStream(dir.toPath()).use { stream ->
+            stream.mapNotNull { path -> readAttributes(path)?.let { path.toFile() to it } }
+        }
+        val chapters = files
+            .filter { (file, attrs) -> attrs.isDirectory || LocalSource.isSupportedFile(file.extension) }
+            .map { (file, attrs) ->
+                val entry = FileEntry(file.name, attrs.isDirectory, attrs.lastModifiedTime().toMillis(), attrs.size())
+                val old = previousChapters[file.name]
+                // the parsed epub stays valid as long as the file does
+                if (old != null && old.modified == entry.modified && old.size == entry.size) entry.copy(epub = old.epub) else entry
+            }
+        val cover = files
+            .firstOrNull { (file, attrs) ->
+                file.nameWithoutExtension == "cover" && attrs.isRegularFile && ImageUtil.isImage(file.name) { file.inputStream() }
+            }
+            ?.first?.name
+        val detailsFile = files.firstOrNull { (file, _) -> file.extension == "json" }?.first?.name
+        return MangaEntry(
+            dir = dir.name,
+            modified = modified,
+            scannedAt = now,
+            chapters = chapters,
+            cover = cover,
+            detailsFile = detailsFile,
+            details = previous?.details?.takeIf { detailsFile == previous.detailsFile },
+        )
+    }
+
+    private fun readEpubMeta(file: File): EpubMeta? {
+        return try {
+            val chapter = SChapter.create().apply { name = "" }
+            val manga = SManga.create()
+            EpubFile(file).use { epub ->
+                epub.fillChapterMetadata(chapter)
+                epub.fillMangaMetadata(manga)
+            }
+            EpubMeta(
+                title = chapter.name.ifEmpty { null },
+                scanlator = chapter.scanlator,
+                dateUpload = chapter.date_upload.takeIf { it != 0L },
+                author = manga.author,
+                description = manga.description,
+            )
+        } catch (e: Exception) {
+            logger.warn { "failed to read epub ${file.name}: $e" }
+            null
+        }
+    }
+
+    private fun readDetails(file: File, modified: Long, size: Long): Details {
+        val obj = file.inputStream().use { json.decodeFromStream<JsonObject>(it) }
+        return Details(
+            modified = modified,
+            size = size,
+            title = obj["title"]?.jsonPrimitive?.contentOrNull,
+            author = obj["author"]?.jsonPrimitive?.contentOrNull,
+            artist = obj["artist"]?.jsonPrimitive?.contentOrNull,
+            description = obj["description"]?.jsonPrimitive?.contentOrNull,
+            genre = obj["genre"]?.jsonArray?.joinToString(", ") { it.jsonPrimitive.content },
+            status = obj["status"]?.jsonPrimitive?.intOrNull,
+        )
+    }
+
+    private fun persist(changed: List<MangaEntry>, removed: Set<String>) {
+        if (changed.isEmpty() && removed.isEmpty()) {
+            return
+        }
+        changed.forEach { entries[it.dir] = it }
+        removed.forEach { entries.remove(it) }
+        transaction {
+            changed.forEach { entry ->
+                LocalMangaIndexTable.replace {
+                    it[dir] = entry.dir
+                    it[modified] = entry.modified
+                    it[data] = json.encodeToString(entry)
+                }
+            }
+            removed.chunked(500).forEach { dirs ->
+                LocalMangaIndexTable.deleteWhere { LocalMangaIndexTable.dir inList dirs }
+            }
+        }
+    }
+
+    private fun readAttributes(path: Path): BasicFileAttributes? {
+        return try {
+            Files.readAttributes(path, BasicFileAttributes::class.java)
+        } catch (e: Exception) {
+            null
+        }
+    }
+}
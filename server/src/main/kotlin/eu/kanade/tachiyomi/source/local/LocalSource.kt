@@ -14,7 +14,9 @@ import eu.kanade.tachiyomi.source.local.LocalSource.Format.Directory
 import eu.kanade.tachiyomi.source.local.LocalSource.Format.Epub
 import eu.kanade.tachiyomi.source.local.LocalSource.Format.Rar
 import eu.kanade.tachiyomi.source.local.LocalSource.Format.Zip
+import eu.kanade.tachiyomi.source.local.loader.ArchiveHandleCache
 import eu.kanade.tachiyomi.source.local.loader.EpubPageLoader
+import eu.kanade.tachiyomi.source.local.loader.PageLoader
 import eu.kanade.tachiyomi.source.local.loader.RarPageLoader
 import eu.kanade.tachiyomi.source.local.loader.ZipPageLoader
 import eu.kanade.tachiyomi.source.model.Filter
@@ -26,13 +28,6 @@ import eu.kanade.tachiyomi.source.model.SManga
 import eu.kanade.tachiyomi.util.chapter.ChapterRecognition
 import eu.kanade.tachiyomi.util.lang.compareToCaseInsensitiveNaturalOrder
 import eu.kanade.tachiyomi.util.storage.EpubFile
-import kotlinx.serialization.json.Json
-import kotlinx.serialization.json.JsonObject
-import kotlinx.serialization.json.contentOrNull
-import kotlinx.serialization.json.decodeFromStream
-import kotlinx.serialization.json.intOrNull
-import kotlinx.serialization.json.jsonArray
-import kotlinx.serialization.json.jsonPrimitive
 import mu.KotlinLogging
 import okio.buffer
 import okio.sink
@@ -50,7 +45,7 @@ import suwayomi.tachidesk.manga.impl.util.storage.ImageUtil
 import suwayomi.tachidesk.manga.model.table.ExtensionTable
 import suwayomi.tachidesk.manga.model.table.SourceTable
 import suwayomi.tachidesk.server.ApplicationDirs
-import uy.kohesive.injekt.injectLazy
+import suwayomi.tachidesk.server.serverConfig
 import java.io.File
 import java.io.FileInputStream
 import java.io.IOException
@@ -77,7 +72,25 @@ class LocalSource : CatalogueSource {
 
         private val applicationDirs by DI.global.instance<ApplicationDirs>()
 
-        val pageCache: MutableMap<String, List<() -> InputStream>> = mutableMapOf()
+        /** the archives of chapters being read, keyed by chapter url */
+        val archiveHandles = ArchiveHandleCache(
+            { serverConfig.localArchiveMaxOpen },
+            { serverConfig.localArchiveMemoryMb * 1024L * 1024L },
+            ::openArchive,
+        )
+
+        internal fun isSupportedFile(extension: String): Boolean {
+            return extension.lowercase() in SUPPORTED_ARCHIVE_TYPES
+        }
+
+        private fun openArchive(file: File): PageLoader {
+            return when (file.extension.lowercase()) {
+                "zip", "cbz" -> ZipPageLoader(file)
+                "rar", "cbr" -> RarPageLoader(file)
+                "epub" -> EpubPageLoader(file)
+                else -> throw Exception("Invalid chapter format")
+            }
+        }
 
         fun updateCover(manga: SManga, input: InputStream): File? {
             val cover = findCoverFile(File("${applicationDirs.localMangaRoot}/${manga.url}"))
@@ -89,6 +102,7 @@ class LocalSource : CatalogueSource {
                     input.copyTo(it)
                 }
             }
+            LocalLibraryIndex.invalidate(manga.url)
 
             return cover
         }
@@ -152,13 +166,16 @@ class LocalSource : CatalogueSource {
                     sink.flush()
                 }
             }
+            LocalLibraryIndex.invalidate(dir)
             return 200
         }
 
         suspend fun deleteManga(fileName: String) {
             val dir = File("${applicationDirs.localMangaRoot}/$fileName")
+            archiveHandles.evict { it.startsWith("$fileName/") }
             if (dir.exists() && dir.isDirectory) {
                 dir.deleteRecursively()
+                LocalLibraryIndex.invalidate(fileName)
                 println("Directory '$dir' has been deleted.")
             } else {
                 println("Directory '$dir' does not exist in the specified directory.")
@@ -181,9 +198,9 @@ class LocalSource : CatalogueSource {
 
         fun getPageImage(chapterDirName: String, pageFileName: String?, index: Int): Pair<InputStream, String> {
             // is of archive format
-            if (pageCache.containsKey(chapterDirName)) {
-                val pageStream = pageCache[chapterDirName]!![index]
-                return pageStream() to "image/jpeg"
+            val archive = File(applicationDirs.localMangaRoot, chapterDirName)
+            if (archive.isFile) {
+                return archiveHandles.openPage(chapterDirName, archive, index) to "image/jpeg"
             }
 
             // is of directory format
@@ -199,8 +216,6 @@ class LocalSource : CatalogueSource {
     override val lang = LANG
     override val supportsLatest = true
 
-    private val json: Json by injectLazy()
-
     override fun toString() = name
 
     override fun fetchPopularManga(page: Int) = fetchSearchManga(page, "", POPULAR_FILTERS)
@@ -208,38 +223,35 @@ class LocalSource : CatalogueSource {
     override fun fetchSearchManga(page: Int, query: String, filters: FilterList): Observable<MangasPage> {
         val time = if (filters === LATEST_FILTERS) System.currentTimeMillis() - LATEST_THRESHOLD else 0L
 
-        var mangaDirs = File(applicationDirs.localMangaRoot).listFiles().orEmpty().toList()
-            .filter { it.isDirectory }
-            .filterNot { it.name.startsWith('.') }
-            .filter { if (time == 0L) it.name.contains(query, ignoreCase = true) else it.lastModified() >= time }
-            .distinctBy { it.name }
+        var mangaDirs = LocalLibraryIndex.mangaEntries()
+            .filter { if (time == 0L) it.dir.contains(query, ignoreCase = true) else it.modified >= time }
 
         val state = ((if (filters.isEmpty()) POPULAR_FILTERS else filters)[0] as OrderBy).state
         when (state?.index) {
             0 -> {
                 mangaDirs = if (state.ascending) {
-                    mangaDirs.sortedBy { it.name.lowercase(Locale.ENGLISH) }
+                    mangaDirs.sortedBy { it.dir.lowercase(Locale.ENGLISH) }
                 } else {
-                    mangaDirs.sortedByDescending { it.name.lowercase(Locale.ENGLISH) }
+                    mangaDirs.sortedByDescending { it.dir.lowercase(Locale.ENGLISH) }
                 }
             }
             1 -> {
                 mangaDirs = if (state.ascending) {
-                    mangaDirs.sortedBy(File::lastModified)
+                    mangaDirs.sortedBy { it.modified }
                 } else {
-                    mangaDirs.sortedByDescending(File::lastModified)
+                    mangaDirs.sortedByDescending { it.modified }
                 }
             }
         }
 
         val mangas = mangaDirs.map { mangaDir ->
             SManga.create().apply {
-                title = mangaDir.name
-                url = mangaDir.name
+                title = mangaDir.dir
+                url = mangaDir.dir
 
-                val cover = findCoverFile(File("${applicationDirs.localMangaRoot}/$url"))
-                if (cover != null && cover.exists()) {
-                    thumbnail_url = cover.name
+                val cover = mangaDir.cover
+                if (cover != null) {
+                    thumbnail_url = cover
                 } else {
                     logger.info { "[LocalSource] thumbnail_url is empty, try to find one" }
                     updateMangaCover(this)
@@ -289,49 +301,44 @@ class LocalSource : CatalogueSource {
         val chapters = fetchChapterList(manga).toBlocking().first()
         if (chapters.isNotEmpty()) {
             val chapter = chapters.last()
-            val format = getFormat(chapter)
-            if (format is Format.Epub) {
-                EpubFile(format.file).use { epub ->
-                    epub.fillMangaMetadata(manga)
-                }
+            val epub = LocalLibraryIndex.mangaEntry(manga.url)?.chapters
+                ?.find { "${manga.url}/${it.name}" == chapter.url }
+                ?.epub
+            if (epub != null) {
+                manga.author = epub.author
+                manga.description = epub.description
             }
         }
     }
 
     private fun updateJsonMeta(manga: SManga) {
-        File(applicationDirs.localMangaRoot, manga.url).listFiles().orEmpty().toList()
-            .firstOrNull { it.extension == "json" }
-            ?.apply {
-                val obj = json.decodeFromStream<JsonObject>(inputStream())
-
-                manga.title = obj["title"]?.jsonPrimitive?.contentOrNull ?: manga.title
-                manga.author = obj["author"]?.jsonPrimitive?.contentOrNull ?: manga.author
-                manga.artist = obj["artist"]?.jsonPrimitive?.contentOrNull ?: manga.artist
-                manga.description = obj["description"]?.jsonPrimitive?.contentOrNull ?: manga.description
-                manga.genre = obj["genre"]?.jsonArray?.joinToString(", ") { it.jsonPrimitive.content }
-                    ?: manga.genre
-                manga.status = obj["status"]?.jsonPrimitive?.intOrNull ?: manga.status
-            }
+        LocalLibraryIndex.details(manga.url)?.apply {
+            manga.title = title ?: manga.title
+            manga.author = author ?: manga.author
+            manga.artist = artist ?: manga.artist
+            manga.description = description ?: manga.description
+            manga.genre = genre ?: manga.genre
+            manga.status = status ?: manga.status
+        }
     }
 
     override fun fetchChapterList(manga: SManga): Observable<List<SChapter>> {
-        val chapters = File(applicationDirs.localMangaRoot, manga.url).listFiles().orEmpty().toList()
-            .filter { it.isDirectory || isSupportedFile(it.extension) }
+        val entry = LocalLibraryIndex.mangaEntry(manga.url)
+        val chapters = entry?.chapters.orEmpty()
             .map { chapterFile ->
                 SChapter.create().apply {
                     url = "${manga.url}/${chapterFile.name}"
                     name = if (chapterFile.isDirectory) {
                         chapterFile.name
                     } else {
-                        chapterFile.nameWithoutExtension
+                        chapterFile.name.substringBeforeLast('.')
                     }
-                    date_upload = chapterFile.lastModified()
+                    date_upload = chapterFile.modified
 
-                    val format = getFormat(this)
-                    if (format is Format.Epub) {
-                        EpubFile(format.file).use { epub ->
-                            epub.fillChapterMetadata(this)
-                        }
+                    chapterFile.epub?.let { epub ->
+                        epub.title?.let { name = it }
+                        epub.scanlator?.let { scanlator = it }
+                        epub.dateUpload?.let { date_upload = it }
                     }
 
                     val chapNameCut = stripMangaTitle(name, manga.title)
@@ -382,10 +389,6 @@ class LocalSource : CatalogueSource {
         return chapterName.substring(chapterNameIndex).trimStart(' ', '-', '_', ',', ':')
     }
 
-    private fun isSupportedFile(extension: String): Boolean {
-        return extension.lowercase() in SUPPORTED_ARCHIVE_TYPES
-    }
-
     override fun fetchPageList(chapter: SChapter): Observable<List<Page>> {
         val chapterFile = File(applicationDirs.localMangaRoot + "/" + chapter.url)
 
@@ -403,23 +406,10 @@ class LocalSource : CatalogueSource {
                         },
                 )
             }
-            is Zip -> {
-                val pages = ZipPageLoader(chapterFile).getPages()
-                pageCache[chapter.url] = pages.map { it.stream!! }
-
-                Observable.just(pages)
-            }
-            is Rar -> {
-                val pages = RarPageLoader(chapterFile).getPages()
-                pageCache[chapter.url] = pages.map { it.stream!! }
-
-                Observable.just(pages)
-            }
-            is Epub -> {
-                val pages = EpubPageLoader(chapterFile).getPages()
-                pageCache[chapter.url] = pages.map { it.stream!! }
-
-                Observable.just(pages)
+            is Zip, is Rar, is Epub -> {
+                // the archive stays open in archiveHandles for the page requests that follow
+                val pageCount = archiveHandles.pageCount(chapter.url, chapterFile)
+                Observable.just((0 until pageCount).map { Page(it) })
             }
         }
     }
@@ -0,0 +1,198 @@
+package eu.kanade.tachiyomi.source.local.loader
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import kotlinx.serialization.Serializable
+import mu.KotlinLogging
+import java.io.File
+import java.io.FilterInputStream
+import java.io.InputStream
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Open archives of local chapters, so the pages of a chapter are read without opening its archive again each time.
+ *
+ * At most [maxOpen] archives stay open and their estimated memory stays under [maxBytes], the least recently
+ * used one is closed first. An archive that still has a page stream open is closed once that stream is, and an
+ * evicted archive is opened again on its next page.
+ */
+class ArchiveHandleCache(
+    private val maxOpen: () -> Int,
+    private val maxBytes: () -> Long,
+    private val open: (File) -> PageLoader,
+) {
+    private val logger = KotlinLogging.logger {}
+
+    private class Handle(val key: String, val loader: PageLoader, val pages: List<() -> InputStream>, file: File) {
+        val modified = file.lastModified()
+        val length = file.length()
+
+        // the entry headers kept by ZipFile / Archive plus buffers, a rough estimate
+        val bytes = HANDLE_BYTES + pages.size * ENTRY_BYTES
+        var users = 0
+        var evicted = false
+
+        fun isCurrent(file: File) = file.lastModified() == modified && file.length() == length
+    }
+
+    private val handles = LinkedHashMap<String, Handle>(16, 0.75f, true)
+    private var usedBytes = 0L
+    private var hits = 0L
+    private var misses = 0L
+    private var evictions = 0L
+
+    /** the number of pages of the archive at [file], [key] identifies the chapter */
+    fun pageCount(key: String, file: File): Int {
+        val handle = acquire(key, file)
+        return try {
+            handle.pages.size
+        } finally {
+            release(handle)
+        }
+    }
+
+    /** page [index] of the archive at [file], the archive stays open at least until the stream is closed */
+    fun openPage(key: String, file: File, index: Int): InputStream {
+        val handle = acquire(key, file)
+        val stream = try {
+            handle.pages[index]()
+        } catch (e: Throwable) {
+            release(handle)
+            throw e
+        }
+        return ReleasingInputStream(stream) { release(handle) }
+    }
+
+    /** closes the archives whose key matches [predicate], e.g. those of a deleted manga */
+    fun evict(predicate: (String) -> Boolean) {
+        synchronized(this) {
+            val iterator = handles.values.iterator()
+            while (iterator.hasNext()) {
+                val handle = iterator.next()
+                if (predicate(handle.key)) {
+                    iterator.remove()
+                    retire(handle)
+                }
+            }
+        }
+    }
+
+    fun stats(): ArchiveCacheStats {
+        synchronized(this) {
+            val lookups = hits + misses
+            return ArchiveCacheStats(
+                openArchives = handles.size,
+                inUse = handles.values.count { it.users > 0 },
+                estimatedBytes = usedBytes,
+                hits = hits,
+                misses = misses,
+                evictions = evictions,
+                hitRate = if (lookups == 0L) 0.0 else hits.toDouble() / lookups,
+            )
+        }
+    }
+
+    private fun acquire(key: String, file: File): Handle {
+        synchronized(this) {
+            val cached = handles[key]
+            if (cached != null && cached.isCurrent(file)) {
+                hits++
+                cached.users++
+                return cached
+            }
+            if (cached != null) {
+                // the archive was replaced on disk
+                handles.remove(key)
+                retire(cached)
+            }
+            misses++
+        }
+
+        // opening reads the whole entry table, it is done outside the lock
+        val loader = open(file)
+        val handle = try {
+            Handle(key, loader, loader.getPages().map { it.stream!! }, file)
+        } catch (e: Throwable) {
+            loader.close()
+            throw e
+        }
+        synchronized(this) {
+            handle.users++
+            handles.put(key, handle)?.let { retire(it) }
+            usedBytes += handle.bytes
+            trim()
+        }
+        return handle
+    }
+
+    private fun release(handle: Handle) {
+        synchronized(this) {
+            handle.users--
+            if (handle.evicted && handle.users == 0) {
+                close(handle)
+            }
+        }
+    }
+
+    private fun trim() {
+        val iterator = handles.values.iterator()
+        while ((handles.size > maxOpen() || usedBytes > maxBytes()) && iterator.hasNext()) {
+            val handle = iterator.next()
+            iterator.remove()
+            retire(handle)
+            evictions++
+        }
+    }
+
+    /** [handle] is no longer in [handles], it's closed now or by the [release] of its last user */
+    private fun retire(handle: Handle) {
+        usedBytes -= handle.bytes
+        handle.evicted = true
+        if (handle.users == 0) {
+            close(handle)
+        }
+    }
+
+    private fun close(handle: Handle) {
+        try {
+            handle.loader.close()
+        } catch (e: Exception) {
+            logger.warn(e) { "failed to close archive ${handle.key}" }
+        }
+    }
+
+    private class ReleasingInputStream(input: InputStream, private val onClose: () -> Unit) : FilterInputStream(input) {
+        private val closed = AtomicBoolean(false)
+
+        override fun close() {
+            try {
+                super.close()
+            } finally {
+                if (closed.compareAndSet(false, true)) {
+                    onClose()
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val HANDLE_BYTES = 64 * 1024L
+        private const val ENTRY_BYTES = 512L
+    }
+}
+
+@Serializable
+data class ArchiveCacheStats(
+    val openArchives: Int,
+    val inUse: Int,
+    val estimatedBytes: Long,
+    val hits: Long,
+    val misses: Long,
+    val evictions: Long,
+    val hitRate: Double,
+)
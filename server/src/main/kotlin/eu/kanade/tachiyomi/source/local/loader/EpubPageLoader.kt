@@ -26,4 +26,8 @@ class EpubPageLoader(file: File) : PageLoader {
                 }
             }
     }
+
+    override fun close() {
+        epub.close()
+    }
 }
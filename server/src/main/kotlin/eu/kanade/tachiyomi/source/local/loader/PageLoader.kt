@@ -1,7 +1,9 @@
 package eu.kanade.tachiyomi.source.local.loader
 
+import java.io.Closeable
+
 // adapted from eu.kanade.tachiyomi.ui.reader.loader.PageLoader
-interface PageLoader {
+interface PageLoader : Closeable {
     /**
      * Returns an observable containing the list of pages of a chapter. Only the first emission
      * will be used.
@@ -9,81 +9,235 @@ package eu.kanade.tachiyomi.source.local.loader
  * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 
 import com.github.junrar.Archive
-import com.github.junrar.exception.RarException
 import com.github.junrar.rarfile.FileHeader
 import eu.kanade.tachiyomi.util.lang.compareToCaseInsensitiveNaturalOrder
 import suwayomi.tachidesk.manga.impl.util.storage.ImageUtil
-import java.io.*
-import java.util.concurrent.Executors
-import kotlin.math.max
-import kotlin.math.min
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.io.FileInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.io.OutputStream
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
 
 /**
  * Loader used to load a chapter from a .rar or .cbr file.
+ *
+ * Pages are extracted on the thread that reads them, into a pooled buffer or a temp file for large ones. An
+ * [Archive] can only extract one entry at a time, up to [MAX_ARCHIVES] of them are opened on the same file so
+ * different pages can be read concurrently. An archive only extracts its own [FileHeader]s, so a page is
+ * identified by its entry index and resolved against the headers of whichever archive reads it.
  */
-class RarPageLoader(file: File) : PageLoader {
+class RarPageLoader(private val file: File) : PageLoader {
+
+    private class OpenArchive(val archive: Archive) {
+        // a new list on every call of fileHeaders, read once
+        val headers: List<FileHeader> = archive.fileHeaders
+    }
 
     /**
-     * The rar archive to load pages from.
+     * The rar archive the pages are listed from, the first of [archives].
      */
-    private val archive = Archive(file)
+    private val first = OpenArchive(Archive(file))
+    private val archive = first.archive
+
+    private val archives = ArrayBlockingQueue<OpenArchive>(MAX_ARCHIVES).apply { add(first) }
+    private var openedArchives = 1
 
-    private val executor = Executors.newSingleThreadExecutor()
+    @Volatile
+    private var closed = false
 
     /**
-     * Returns an observable containing the pages found on this rar archive ordered with a natural
-     * comparator.
+     * Returns the pages found on this rar archive ordered with a natural comparator.
      */
     override fun getPages(): List<ReaderPage> {
         if (archive.isPasswordProtected) throw RuntimeException("Encrypted RAR archives are not supported")
         if (archive.mainHeader.isSolid) throw RuntimeException("Solid RAR archives are not supported")
         if (archive.mainHeader.isMultiVolume) throw RuntimeException("Multi-Volume RAR archives are not supported")
-        return archive.fileHeaders
-            .filter { !it.isDirectory && ImageUtil.isImage(it.fileName) { archive.getInputStream(it) } }
-            .sortedWith { f1, f2 -> f1.fileName.compareToCaseInsensitiveNaturalOrder(f2.fileName) }
-            .mapIndexed { i, header ->
+        return first.headers.indices
+            .filter { entry ->
+                val hd = first.headers[entry]
+                !hd.isDirectory && ImageUtil.isImage(hd.fileName) { readHead(entry).inputStream() }
+            }
+            .sortedWith { i1, i2 -> first.headers[i1].fileName.compareToCaseInsensitiveNaturalOrder(first.headers[i2].fileName) }
+            .mapIndexed { i, entry ->
                 ReaderPage(i).apply {
-                    stream = { getInputStream(archive, header) }
+                    stream = { getInputStream(entry) }
                 }
             }
     }
 
-    private fun getInputStream(rar: Archive, hd: FileHeader): InputStream {
-        // If the file is empty, return an empty InputStream
-        // This saves adding a task on the executor that will effectively do nothing
-        if (hd.fullUnpackSize <= 0) {
-            return EmptyInputStream()
+    /** entry [entry] of the archive, by its index in the headers */
+    private fun getInputStream(entry: Int): InputStream {
+        val size = first.headers[entry].fullUnpackSize
+        if (size <= 0) {
+            return ByteArrayInputStream(ByteArray(0))
         }
+        if (size > LARGE_PAGE_BYTES) {
+            val tmp = File.createTempFile("rar-page", ".tmp")
+            try {
+                tmp.outputStream().buffered().use { out -> extract(entry, out) }
+            } catch (e: Throwable) {
+                tmp.delete()
+                throw e
+            }
+            return object : FileInputStream(tmp) {
+                override fun close() {
+                    super.close()
+                    tmp.delete()
+                }
+            }
+        }
+        val buffer = BufferPool.borrow(size.toInt())
+        return try {
+            val out = BufferOutputStream(buffer)
+            extract(entry, out)
+            PooledInputStream(buffer, out.count)
+        } catch (e: Throwable) {
+            BufferPool.release(buffer)
+            throw e
+        }
+    }
 
-        // Small optimization to prevent the creation of large buffers for very small files
-        // Never allocate more than needed, but ensure the buffer will be at least 1-byte long
-        val bufferSize = max(min(hd.fullUnpackSize.toDouble(), 32 * 1024.0), 1.0).toInt()
-        val input = PipedInputStream(bufferSize)
-        val out = PipedOutputStream(input)
+    /** the first bytes of an entry, enough to tell the image type of a page without extension */
+    private fun readHead(entry: Int): ByteArray {
+        val out = HeadOutputStream(ByteArray(HEAD_BYTES))
+        try {
+            extract(entry, out)
+        } catch (e: Exception) {
+            // extraction is aborted once the head is read
+            if (out.count < out.buffer.size && out.count.toLong() < first.headers[entry].fullUnpackSize) {
+                return ByteArray(0)
+            }
+        }
+        return out.buffer.copyOf(out.count)
+    }
+
+    private fun extract(entry: Int, out: OutputStream) {
+        val open = borrowArchive()
+        try {
+            open.archive.extractFile(open.headers[entry], out)
+        } finally {
+            if (closed) {
+                open.archive.close()
+            } else {
+                archives.put(open)
+            }
+        }
+    }
+
+    private fun borrowArchive(): OpenArchive {
+        archives.poll()?.let { return it }
+        val canOpen = synchronized(this) {
+            (openedArchives < MAX_ARCHIVES).also { if (it) openedArchives++ }
+        }
+        if (canOpen) {
+            return try {
+                OpenArchive(Archive(file))
+            } catch (e: Throwable) {
+                synchronized(this) { openedArchives-- }
+                throw e
+            }
+        }
+        while (true) {
+            if (closed) throw IOException("RAR archive $file is closed")
+            archives.poll(1, TimeUnit.SECONDS)?.let { return it }
+        }
+    }
 
-        // Data will be available in another InputStream, connected to the OutputStream
-        // Delegates execution to the cached executor service.
-        executor.submit {
+    override fun close() {
+        closed = true
+        generateSequence { archives.poll() }.forEach {
             try {
-                rar.extractFile(hd, out)
-            } catch (ignored: RarException) {
-            } finally {
-                try {
-                    out.close()
-                } catch (ignored: IOException) {
+                it.archive.close()
+            } catch (ignored: IOException) {
+            }
+        }
+    }
+
+    private class BufferOutputStream(val buffer: ByteArray) : OutputStream() {
+        var count = 0
+
+        override fun write(b: Int) {
+            ensure(1)
+            buffer[count++] = b.toByte()
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            ensure(len)
+            System.arraycopy(b, off, buffer, count, len)
+            count += len
+        }
+
+        private fun ensure(len: Int) {
+            if (count + len > buffer.size) throw IOException("entry larger than its header says")
+        }
+    }
+
+    private class HeadOutputStream(val buffer: ByteArray) : OutputStream() {
+        var count = 0
+
+        override fun write(b: Int) {
+            write(byteArrayOf(b.toByte()), 0, 1)
+        }
+
+        override fun write(b: ByteArray, off: Int, len: Int) {
+            val n = minOf(len, buffer.size - count)
+            System.arraycopy(b, off, buffer, count, n)
+            count += n
+            if (count == buffer.size) throw IOException("head read")
+        }
+    }
+
+    private class PooledInputStream(private val buffer: ByteArray, length: Int) : ByteArrayInputStream(buffer, 0, length) {
+        private var released = false
+
+        override fun close() {
+            synchronized(this) {
+                if (!released) {
+                    released = true
+                    BufferPool.release(buffer)
                 }
             }
         }
-        return input
     }
 
-    private class EmptyInputStream : InputStream() {
-        override fun available(): Int {
-            return 0
+    /** page buffers of closed streams, reused by the next pages of any rar chapter */
+    private object BufferPool {
+        private val free = ArrayList<ByteArray>()
+        private var freeBytes = 0L
+
+        @Synchronized
+        fun borrow(size: Int): ByteArray {
+            val index = free.indices
+                .filter { free[it].size >= size && free[it].size <= size * 2 }
+                .minByOrNull { free[it].size }
+            if (index != null) {
+                val buffer = free.removeAt(index)
+                freeBytes -= buffer.size
+                return buffer
+            }
+            return ByteArray(size)
         }
 
-        override fun read(): Int {
-            return -1
+        @Synchronized
+        fun release(buffer: ByteArray) {
+            if (buffer.size > MAX_POOLED_BYTES / 4) {
+                return
+            }
+            free.add(buffer)
+            freeBytes += buffer.size
+            while (freeBytes > MAX_POOLED_BYTES) {
+                freeBytes -= free.removeAt(0).size
+            }
         }
     }
+
+    companion object {
+        private const val MAX_ARCHIVES = 3
+        private const val HEAD_BYTES = 12
+        private const val LARGE_PAGE_BYTES = 16L * 1024 * 1024
+        private const val MAX_POOLED_BYTES = 32L * 1024 * 1024
+    }
 }
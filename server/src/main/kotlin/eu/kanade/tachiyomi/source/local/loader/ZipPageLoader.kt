@@ -39,4 +39,8 @@ class ZipPageLoader(file: File) : PageLoader {
                 }
             }
     }
+
+    override fun close() {
+        zip.close()
+    }
 }
@@ -25,6 +25,14 @@ object GlobalAPI {
             get("uploadUserAgent", SettingsController.uploadUserAgent)
             get("detectDefaultUserAgent", SettingsController.detectDefaultUserAgent)
             get("systemInfo", SettingsController.systemInfo)
+            get("sqlStats", SettingsController.sqlStats)
+            post("sqlStats", SettingsController.updateSqlStats)
+            delete("sqlStats", SettingsController.resetSqlStats)
+            get("traces", SettingsController.traces)
+            get("traceStats", SettingsController.traceStats)
+            delete("traceStats", SettingsController.resetTraceStats)
+            get("rateLimits", SettingsController.rateLimits)
+            get("archiveCache", SettingsController.archiveCache)
         }
     }
 }
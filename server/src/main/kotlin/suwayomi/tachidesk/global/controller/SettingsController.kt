@@ -9,7 +9,10 @@ package suwayomi.tachidesk.global.controller
  * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 
 import eu.kanade.tachiyomi.network.NetworkHelper
+import eu.kanade.tachiyomi.source.local.LocalSource
+import eu.kanade.tachiyomi.source.local.loader.ArchiveCacheStats
 import io.javalin.http.HttpCode
+import kotlinx.serialization.Serializable
 import kotlinx.serialization.json.Json
 import mu.KotlinLogging
 import org.kodein.di.DI
@@ -19,7 +22,15 @@ import org.tachiyomi.NativeChannel
 import suwayomi.tachidesk.global.impl.About
 import suwayomi.tachidesk.global.impl.AboutDataClass
 import suwayomi.tachidesk.manga.impl.Setting
+import suwayomi.tachidesk.manga.impl.util.source.SourceRateLimitStats
+import suwayomi.tachidesk.manga.impl.util.source.SourceRateLimits
+import suwayomi.tachidesk.server.database.SqlShapeStats
+import suwayomi.tachidesk.server.database.SqlStats
+import suwayomi.tachidesk.server.util.TraceDataClass
+import suwayomi.tachidesk.server.util.Tracer
 import suwayomi.tachidesk.server.util.handler
+import suwayomi.tachidesk.server.util.queryParam
+import suwayomi.tachidesk.server.util.toDataClass
 import suwayomi.tachidesk.server.util.withOperation
 import uy.kohesive.injekt.injectLazy
 
@@ -91,4 +102,100 @@ object SettingsController {
             httpCode(HttpCode.OK)
         },
     )
+
+    /** dumps the sql stats collected since the last reset */
+    val sqlStats = handler(
+        behaviorOf = { ctx ->
+            ctx.json(SqlStats.snapshot())
+        },
+        withResults = {
+            json<Array<SqlShapeStats>>(HttpCode.OK)
+        },
+    )
+
+    /** clears the collected sql stats */
+    val resetSqlStats = handler(
+        behaviorOf = {
+            SqlStats.reset()
+        },
+        withResults = {
+            httpCode(HttpCode.OK)
+        },
+    )
+
+    /** changes the sql instrumentation and tracing until the next restart */
+    val updateSqlStats = handler(
+        behaviorOf = { ctx ->
+            val input = json.decodeFromString<SqlStatsSetting>(ctx.body())
+            logger.info { "updateSqlStats: $input" }
+            SqlStats.configure(
+                input.statsEnabled ?: SqlStats.statsEnabled,
+                input.slowQueryMs ?: SqlStats.slowQueryMs,
+                input.sampleEvery ?: SqlStats.sampleEvery,
+            )
+            input.traceEnabled?.let { Tracer.enabled = it }
+        },
+        withResults = {
+            httpCode(HttpCode.OK)
+        },
+    )
+
+    /** the last finished traces with their span trees, newest first */
+    val traces = handler(
+        queryParam("limit", 20),
+        behaviorOf = { ctx, limit ->
+            ctx.json(Tracer.recentTraces(limit).map { it.toDataClass() })
+        },
+        withResults = {
+            json<Array<TraceDataClass>>(HttpCode.OK)
+        },
+    )
+
+    /** latency histograms of all spans, keyed by kind and name */
+    val traceStats = handler(
+        behaviorOf = { ctx ->
+            ctx.json(Tracer.spanStats())
+        },
+        withResults = {
+            httpCode(HttpCode.OK)
+        },
+    )
+
+    /** clears the recorded traces and span histograms */
+    val resetTraceStats = handler(
+        behaviorOf = {
+            Tracer.reset()
+        },
+        withResults = {
+            httpCode(HttpCode.OK)
+        },
+    )
+
+    /** the rate limiters of the loaded sources and how long a request would wait on each of them now */
+    val rateLimits = handler(
+        behaviorOf = { ctx ->
+            ctx.json(SourceRateLimits.stats())
+        },
+        withResults = {
+            json<Array<SourceRateLimitStats>>(HttpCode.OK)
+        },
+    )
+
+    /** the archives of local chapters that are kept open and how often a page found its archive open */
+    val archiveCache = handler(
+        behaviorOf = { ctx ->
+            ctx.json(LocalSource.archiveHandles.stats())
+        },
+        withResults = {
+            json<ArchiveCacheStats>(HttpCode.OK)
+        },
+    )
+
+    @Serializable
+    data class SqlStatsSetting(
+        val statsEnabled: Boolean? = null,
+        val slowQueryMs: Long? = null,
+        val sampleEvery: Int? = null,
+        val traceEnabled: Boolean? = null,
+    )
 }
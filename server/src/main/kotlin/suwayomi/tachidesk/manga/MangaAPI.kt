@@ -32,6 +32,7 @@ object MangaAPI {
         path("source") {
             get("list", SourceController.list)
             get("listForSearch", SourceController.listForSearch)
+            post("global-search", SourceController.globalSearch)
             get("{sourceId}", SourceController.retrieve)
 
             get("{sourceId}/popular/{pageNum}", SourceController.popular)
@@ -48,6 +49,10 @@ object MangaAPI {
             post("meta/update", SourceController.updateMeta)
         }
 
+        path("library") {
+            get("search", MangaController.librarySearch)
+        }
+
         path("manga") {
             get("{mangaId}", MangaController.retrieve)
             get("{mangaId}/full", MangaController.retrieveFull)
@@ -16,11 +16,11 @@ import mu.KotlinLogging
 import org.kodein.di.DI
 import org.kodein.di.conf.global
 import org.kodein.di.instance
-import org.tachiyomi.Profiler
 import suwayomi.tachidesk.manga.impl.Category
 import suwayomi.tachidesk.manga.impl.CategoryManga
 import suwayomi.tachidesk.manga.model.dataclass.CategoryDataClass
 import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
+import suwayomi.tachidesk.server.util.Tracer
 import suwayomi.tachidesk.server.util.formParam
 import suwayomi.tachidesk.server.util.handler
 import suwayomi.tachidesk.server.util.pathParam
@@ -112,9 +112,7 @@ object CategoryController {
             }
         },
         behaviorOf = { ctx, categoryId ->
-            Profiler.start()
-            ctx.json(CategoryManga.getCategoryMangaListV2(categoryId))
-            Profiler.all()
+            ctx.json(Tracer.traceBlocking("category.mangaList") { CategoryManga.getCategoryMangaListV2(categoryId) })
         },
         withResults = {
             json<Array<MangaDataClass>>(HttpCode.OK)
@@ -10,11 +10,11 @@ package suwayomi.tachidesk.manga.controller
 
 import io.javalin.http.HttpCode
 import mu.KotlinLogging
-import org.tachiyomi.Profiler
 import suwayomi.tachidesk.manga.impl.extension.Extension
 import suwayomi.tachidesk.manga.impl.extension.ExtensionsList
 import suwayomi.tachidesk.manga.model.dataclass.ExtensionDataClass
 import suwayomi.tachidesk.server.JavalinSetup.future
+import suwayomi.tachidesk.server.util.Tracer
 import suwayomi.tachidesk.server.util.handler
 import suwayomi.tachidesk.server.util.pathParam
 import suwayomi.tachidesk.server.util.withOperation
@@ -33,10 +33,9 @@ object ExtensionController {
         behaviorOf = { ctx ->
             ctx.future(
                 future {
-                    Profiler.start()
-                    val r = ExtensionsList.getExtensionList()
-                    Profiler.all()
-                    r
+                    Tracer.trace("extension.list") {
+                        ExtensionsList.getExtensionList()
+                    }
                 },
             )
         },
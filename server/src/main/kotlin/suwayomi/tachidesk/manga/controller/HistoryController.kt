@@ -14,9 +14,9 @@ import mu.KotlinLogging
 import org.kodein.di.DI
 import org.kodein.di.conf.global
 import org.kodein.di.instance
-import org.tachiyomi.Profiler
 import suwayomi.tachidesk.manga.impl.*
 import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
+import suwayomi.tachidesk.server.util.Tracer
 import suwayomi.tachidesk.server.util.handler
 
 object HistoryController {
@@ -25,9 +25,7 @@ object HistoryController {
 
     val list = handler(
         behaviorOf = { ctx ->
-            Profiler.start()
-            ctx.json(History.getHistoryMangaListV2())
-            Profiler.all()
+            ctx.json(Tracer.traceBlocking("history.list") { History.getHistoryMangaListV2() })
         },
         withResults = {
             json<Array<MangaDataClass>>(HttpCode.OK)
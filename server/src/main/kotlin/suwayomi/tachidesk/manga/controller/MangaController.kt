@@ -17,7 +17,6 @@ import mu.KotlinLogging
 import org.kodein.di.DI
 import org.kodein.di.conf.global
 import org.kodein.di.instance
-import org.tachiyomi.Profiler
 import suwayomi.tachidesk.manga.impl.*
 import suwayomi.tachidesk.manga.impl.CategoryManga
 import suwayomi.tachidesk.manga.impl.Chapter
@@ -28,12 +27,15 @@ import suwayomi.tachidesk.manga.impl.chapter.getChapterReadReady
 import suwayomi.tachidesk.manga.model.dataclass.CategoryDataClass
 import suwayomi.tachidesk.manga.model.dataclass.ChapterDataClass
 import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
+import suwayomi.tachidesk.manga.model.dataclass.PaginatedList
 import suwayomi.tachidesk.manga.model.dataclass.SMangaDataClass
 import suwayomi.tachidesk.server.JavalinSetup.future
+import suwayomi.tachidesk.server.util.Tracer
 import suwayomi.tachidesk.server.util.formParam
 import suwayomi.tachidesk.server.util.handler
 import suwayomi.tachidesk.server.util.pathParam
 import suwayomi.tachidesk.server.util.queryParam
+import suwayomi.tachidesk.server.util.sendImage
 import suwayomi.tachidesk.server.util.withOperation
 import kotlin.time.Duration.Companion.days
 
@@ -78,10 +80,9 @@ object MangaController {
         behaviorOf = { ctx, mangaId, onlineFetch ->
             ctx.future(
                 future {
-                    Profiler.start()
-                    val r = Manga.getManga(mangaId, onlineFetch)
-                    Profiler.all()
-                    r
+                    Tracer.trace("manga.get") {
+                        Manga.getManga(mangaId, onlineFetch)
+                    }
                 },
             )
         },
@@ -111,15 +112,14 @@ object MangaController {
                         throw e
                     }
                 }
-                    .thenApply {
-                        val httpCacheSeconds = 1.days.inWholeSeconds
-                        ctx.header("cache-control", "max-age=$httpCacheSeconds")
-                        it.first
+                    .thenApply { image ->
+                        ctx.sendImage(image, 1.days.inWholeSeconds)
                     },
             )
         },
         withResults = {
             image(HttpCode.OK)
+            httpCode(HttpCode.NOT_MODIFIED)
             httpCode(HttpCode.NOT_FOUND)
         },
     )
@@ -235,10 +235,9 @@ object MangaController {
         behaviorOf = { ctx, mangaId, onlineFetch ->
             ctx.future(
                 future {
-                    Profiler.start()
-                    val r = Chapter.getChapterList(mangaId, onlineFetch)
-                    Profiler.all()
-                    r
+                    Tracer.trace("manga.chapters") {
+                        Chapter.getChapterList(mangaId, onlineFetch)
+                    }
                 },
             )
         },
@@ -337,10 +336,9 @@ object MangaController {
         behaviorOf = { ctx, mangaId, chapterIndex ->
             ctx.future(
                 future {
-                    Profiler.start()
-                    val r = getChapterReadReady(chapterIndex, mangaId)
-                    Profiler.all()
-                    r
+                    Tracer.trace("chapter.get") {
+                        getChapterReadReady(chapterIndex, mangaId)
+                    }
                 },
             )
         },
@@ -419,25 +417,24 @@ object MangaController {
             ctx.contentType(ContentType.IMAGE_JPEG)
             ctx.future(
                 future {
-                    Profiler.start()
                     try {
-                        val r = Page.getPageImage(mangaId, chapterIndex, index)
-                        Profiler.all()
-                        r
+                        Tracer.trace("page.get") {
+                            Page.getPageImage(mangaId, chapterIndex, index, readAhead = true)
+                        }
                     } catch (e: Exception) {
                         ctx.contentType(ContentType.PLAIN)
                         throw e
                     }
                 }
-                    .thenApply {
-                        val httpCacheSeconds = 1.days.inWholeSeconds
-                        ctx.header("cache-control", "max-age=$httpCacheSeconds")
-                        it.first
+                    .thenApply { image ->
+                        ctx.sendImage(image, 1.days.inWholeSeconds)
                     },
             )
         },
         withResults = {
             image(HttpCode.OK)
+            httpCode(HttpCode.PARTIAL_CONTENT)
+            httpCode(HttpCode.NOT_MODIFIED)
             httpCode(HttpCode.NOT_FOUND)
         },
     )
@@ -509,6 +506,36 @@ object MangaController {
         },
     )
 
+    /** full text search of the library, see [LibrarySearch] */
+    val librarySearch = handler(
+        queryParam("q", ""),
+        queryParam("pageNum", 0),
+        queryParam<Int?>("categoryId"),
+        queryParam<Long?>("sourceId"),
+        queryParam("chapters", false),
+        documentWith = {
+            withOperation {
+                summary("Search the library")
+                description("Prefix match of every word of q against title, author, artist, genre and description, optionally chapter names too")
+            }
+        },
+        behaviorOf = { ctx, q, pageNum, categoryId, sourceId, chapters ->
+            ctx.future(
+                future {
+                    Tracer.trace("library.search") {
+                        LibrarySearch.search(q, pageNum, categoryId, sourceId, chapters)
+                    }
+                },
+            )
+        },
+        withResults = {
+            json<PagedLibraryMangaListDataClass>(HttpCode.OK)
+        },
+    )
+
+    /** documentation type of [librarySearch], OpenApi cannot handle runtime generics */
+    private class PagedLibraryMangaListDataClass : PaginatedList<MangaDataClass>(emptyList(), false)
+
     val networkToLocalManga = handler(
         behaviorOf = { ctx ->
             val input = json.decodeFromString<SMangaDataClass>(ctx.body())
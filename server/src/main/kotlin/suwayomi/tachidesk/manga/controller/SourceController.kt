@@ -9,16 +9,17 @@ package suwayomi.tachidesk.manga.controller
  * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 
 import io.javalin.http.HttpCode
+import io.javalin.plugin.json.JsonMapper
 import kotlinx.serialization.decodeFromString
 import kotlinx.serialization.json.Json
 import mu.KotlinLogging
 import org.kodein.di.DI
 import org.kodein.di.conf.global
 import org.kodein.di.instance
-import org.tachiyomi.Profiler
 import suwayomi.tachidesk.manga.impl.MangaList
 import suwayomi.tachidesk.manga.impl.Search
 import suwayomi.tachidesk.manga.impl.Search.FilterData
+import suwayomi.tachidesk.manga.impl.Search.GlobalSearchInput
 import suwayomi.tachidesk.manga.impl.Source
 import suwayomi.tachidesk.manga.impl.Source.SourcePreferenceChange
 import suwayomi.tachidesk.manga.impl.SourceMeta
@@ -27,6 +28,7 @@ import suwayomi.tachidesk.manga.model.dataclass.PagedMangaListDataClass
 import suwayomi.tachidesk.manga.model.dataclass.PagedSMangaListDataClass
 import suwayomi.tachidesk.manga.model.dataclass.SourceDataClass
 import suwayomi.tachidesk.server.JavalinSetup.future
+import suwayomi.tachidesk.server.util.Tracer
 import suwayomi.tachidesk.server.util.handler
 import suwayomi.tachidesk.server.util.pathParam
 import suwayomi.tachidesk.server.util.queryParam
@@ -89,10 +91,9 @@ object SourceController {
         behaviorOf = { ctx, sourceId, pageNum ->
             ctx.future(
                 future {
-                    Profiler.start()
-                    val r = MangaList.getMangaList(sourceId, pageNum, popular = true)
-                    Profiler.all()
-                    r
+                    Tracer.trace("source.popular") {
+                        MangaList.getMangaList(sourceId, pageNum, popular = true)
+                    }
                 },
             )
         },
@@ -178,6 +179,7 @@ object SourceController {
     )
 
     private val json by DI.global.instance<Json>()
+    private val jsonMapper by DI.global.instance<JsonMapper>()
 
     /** quick search single source filter */
     val quickSearchSingle = handler(
@@ -200,6 +202,35 @@ object SourceController {
         },
     )
 
+    /** searches many sources, every source's result is written as a json line as soon as it is ready */
+    val globalSearch = handler(
+        documentWith = {
+            withOperation {
+                summary("Global search")
+                description("Searches the posted sources concurrently and streams one GlobalSearchResult per source as newline delimited json")
+            }
+        },
+        behaviorOf = { ctx ->
+            val input = json.decodeFromString<GlobalSearchInput>(ctx.body())
+            logger.info { "globalSearch term=${input.searchTerm} sources=${input.sourceIds.size}" }
+            ctx.contentType("application/x-ndjson")
+            ctx.future(
+                future {
+                    // written to the servlet stream directly, javalin would buffer the whole result
+                    val out = ctx.res.outputStream
+                    Search.globalSearch(input) { result ->
+                        out.write(jsonMapper.toJsonString(result).toByteArray())
+                        out.write('\n'.code)
+                        out.flush()
+                    }
+                },
+            )
+        },
+        withResults = {
+            httpCode(HttpCode.OK)
+        },
+    )
+
     val simpleSearchSingle = handler(
         pathParam<Long>("sourceId"),
         queryParam("pageNum", 1),
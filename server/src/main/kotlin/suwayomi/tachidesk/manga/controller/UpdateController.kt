@@ -63,10 +63,10 @@ object UpdateController {
             val input = json.decodeFromString<FetchRequest>(ctx.body())
             logger.info("categoryUpdate input: $input")
             if (input.categoryIds?.isNotEmpty() == true) {
-                UpdateManager.updateByCategories(input.categoryIds)
+                UpdateManager.updateByCategories(input.categoryIds, input.force == true)
             } else {
                 logger.info { "Adding Library to Update Queue" }
-                UpdateManager.updateAll()
+                UpdateManager.updateAll(input.force == true)
             }
         },
         withResults = {
@@ -163,6 +163,8 @@ object UpdateController {
     @Serializable
     data class FetchRequest(
         val categoryIds: List<Int>? = null,
+        /** also update manga that aren't expected to have a new chapter yet */
+        val force: Boolean? = null,
     )
 
     @Serializable
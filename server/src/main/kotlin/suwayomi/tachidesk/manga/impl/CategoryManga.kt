@@ -22,6 +22,7 @@ import suwayomi.tachidesk.manga.impl.util.lang.isEmpty
 import suwayomi.tachidesk.manga.model.dataclass.CategoryDataClass
 import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
 import suwayomi.tachidesk.manga.model.table.*
+import suwayomi.tachidesk.server.database.readTransaction
 import java.time.Instant
 
 object CategoryManga {
@@ -157,20 +158,20 @@ object CategoryManga {
 
     fun getMangaListByCategory(categoryId: Int): List<MangaDataClass> {
         return if (categoryId == DEFAULT_CATEGORY_ID) {
-            transaction {
+            readTransaction {
                 MangaTable
                     .select { (MangaTable.inLibrary eq true) and (MangaTable.defaultCategory eq true) }
                     .map { MangaTable.toDataClass(it) }
             }
         } else {
-            val mangaIds = transaction {
+            val mangaIds = readTransaction {
                 CategoryMangaTable
                     .slice(CategoryMangaTable.manga)
                     .select { (CategoryMangaTable.category eq categoryId) }
                     .map { it[CategoryMangaTable.manga].value }
                     .toList()
             }
-            transaction {
+            readTransaction {
                 MangaTable
                     .select { (MangaTable.id inList mangaIds) and (MangaTable.inLibrary eq true) }
                     .map { MangaTable.toDataClass(it) }
@@ -181,49 +182,15 @@ object CategoryManga {
     fun fillChapterInfo(mangaList: List<MangaDataClass>) {
         val mangaIds = mangaList.map { it.id }
         val unreadCountMap = unreadCountMapWithScanlator(mangaIds)
-
-        val unreadCount = Expression.build {
-            val caseExpr = case()
-                .When(ChapterTable.isRead eq booleanLiteral(false), intLiteral(1))
-                .Else(intLiteral(0))
-            Sum(caseExpr, IntegerColumnType())
-        }
-        val downloadedCount = Expression.build {
-            val caseExpr = case()
-                .When(ChapterTable.isDownloaded eq booleanLiteral(true), intLiteral(1))
-                .Else(intLiteral(0))
-            Sum(caseExpr, IntegerColumnType())
-        }
-        val chapterCount = ChapterTable.id.count()
-        val lastReadAt = ChapterTable.lastReadAt.max()
-        val latestChapterFetchAt = ChapterTable.fetchedAt.max()
-        val latestChapterUploadAt = ChapterTable.date_upload.max()
-
-        val mangaMap = mangaList.associateBy { it.id }
-        transaction {
-            ChapterTable.slice(
-                ChapterTable.manga,
-                unreadCount,
-                downloadedCount,
-                chapterCount,
-                lastReadAt,
-                latestChapterFetchAt,
-                latestChapterUploadAt,
-            )
-                .select { ChapterTable.manga inList mangaIds }
-                .groupBy(ChapterTable.manga)
-                .forEach {
-                    val mangaId = it[ChapterTable.manga].value
-                    val dataClass = mangaMap[mangaId]
-                    if (dataClass != null) {
-                        dataClass.lastReadAt = it[lastReadAt]
-                        dataClass.unreadCount = unreadCountMap?.get(mangaId) ?: it[unreadCount]?.toLong()
-                        dataClass.downloadCount = it[downloadedCount]?.toLong()
-                        dataClass.chapterCount = it[chapterCount]
-                        dataClass.latestChapterFetchAt = it[latestChapterFetchAt]
-                        dataClass.latestChapterUploadAt = it[latestChapterUploadAt]
-                    }
-                }
+        val stats = MangaStats.byManga(mangaIds)
+        for (dataClass in mangaList) {
+            val row = stats[dataClass.id] ?: continue
+            dataClass.lastReadAt = row[MangaStatsTable.lastReadAt]
+            dataClass.unreadCount = unreadCountMap?.get(dataClass.id) ?: row[MangaStatsTable.unreadCount].toLong()
+            dataClass.downloadCount = row[MangaStatsTable.downloadCount].toLong()
+            dataClass.chapterCount = row[MangaStatsTable.chapterCount].toLong()
+            dataClass.latestChapterFetchAt = row[MangaStatsTable.latestFetchedAt]
+            dataClass.latestChapterUploadAt = row[MangaStatsTable.latestUploadAt]
         }
     }
 
@@ -28,8 +28,13 @@ import org.tachiyomi.Profiler
 import suwayomi.tachidesk.cloud.impl.Sync
 import suwayomi.tachidesk.cloud.model.table.ChapterSyncTable
 import suwayomi.tachidesk.cloud.model.table.toSChapter
+import suwayomi.tachidesk.manga.impl.chapter.ChapterPageContexts
+import suwayomi.tachidesk.manga.impl.chapter.ChapterUtil.deleteChapters
+import suwayomi.tachidesk.manga.impl.chapter.ChapterUtil.insertChaptersReturning
+import suwayomi.tachidesk.manga.impl.chapter.ChapterUtil.updateChaptersBatch
 import suwayomi.tachidesk.manga.impl.download.FolderProvider2
 import suwayomi.tachidesk.manga.impl.track.Track
+import suwayomi.tachidesk.manga.impl.update.FetchInterval
 import suwayomi.tachidesk.manga.impl.util.getMangaDownloadPath
 import suwayomi.tachidesk.manga.impl.util.source.GetCatalogueSource.getCatalogueSourceOrStub
 import suwayomi.tachidesk.manga.model.dataclass.*
@@ -37,6 +42,9 @@ import suwayomi.tachidesk.manga.model.table.*
 import suwayomi.tachidesk.manga.model.table.ChapterTable.scanlator
 import suwayomi.tachidesk.server.ApplicationDirs
 import suwayomi.tachidesk.server.database.MyBatchInsertStatement
+import suwayomi.tachidesk.server.database.readTransaction
+import suwayomi.tachidesk.server.util.SpanKind
+import suwayomi.tachidesk.server.util.Tracer
 import java.io.File
 import java.time.Instant
 import java.util.*
@@ -62,7 +70,7 @@ object Chapter {
             getSourceChapters(mangaId)
         } else {
             Profiler.split("local")
-            val chapterList = transaction {
+            val chapterList = readTransaction {
                 ChapterTable.select { ChapterTable.manga eq mangaId }
                     .orderBy(ChapterTable.sourceOrder to SortOrder.DESC)
                     .toList()
@@ -81,12 +89,12 @@ object Chapter {
 
     private suspend fun getSourceChapters(mangaId: Int): List<ChapterDataClass> {
         // val manga = getManga(mangaId)
-        val mangaEntry = transaction { MangaTable.select { MangaTable.id eq mangaId }.first() }
+        val mangaEntry = readTransaction { MangaTable.select { MangaTable.id eq mangaId }.first() }
         val source = getCatalogueSourceOrStub(mangaEntry[MangaTable.sourceReference])
         Profiler.split("getManga")
         // tachiyomi: state.source.getMangaDetails(state.manga.toSManga())
         val sManga = MangaTable.toSManga(mangaEntry)
-        val dbChapterList = transaction {
+        val dbChapterList = readTransaction {
             ChapterTable.select { ChapterTable.manga eq mangaId }.toList()
         }
         Profiler.split("after getDbChapterList")
@@ -95,17 +103,17 @@ object Chapter {
         val chapterList = rawChapterList
             .distinctBy { it.url }
         Profiler.split("after fetchChapterList")
-        // Remove manga title from chapter title
-        chapterList.forEach {
-            it.name = ChapterSanitizer.sanitize(it.name, sManga.title)
-        }
-        Profiler.split("after ChapterSanitizer")
-        // Recognize number for new chapters.
-        chapterList.forEach {
-            (source as? HttpSource)?.prepareNewChapter(it, sManga)
-            ChapterRecognition.parseChapterNumber(it, sManga)
+        Tracer.spanBlocking("recognize chapters", SpanKind.PARSE) {
+            // Remove manga title from chapter title
+            chapterList.forEach {
+                it.name = ChapterSanitizer.sanitize(it.name, sManga.title)
+            }
+            // Recognize number for new chapters.
+            chapterList.forEach {
+                (source as? HttpSource)?.prepareNewChapter(it, sManga)
+                ChapterRecognition.parseChapterNumber(it, sManga)
+            }
         }
-        Profiler.split("after prepareNewChapter")
 
         val chapterCount = chapterList.count()
         var now = Instant.now().epochSecond
@@ -141,8 +149,30 @@ object Chapter {
         val chapterSyncMapByName = chapterSyncMap.values.associateBy { it[ChapterSyncTable.name] }
         val chapterSyncMapByNumber = buildChapterSyncMapByNumber(chapterSyncMap.values, sManga)
 
-        transaction {
-            if (insertList.isNotEmpty()) {
+        val toUpdateList = updateList
+            .filter {
+                decideChapterNeedUpdate(dbChapterListUrlMap, it)
+            }
+            .map { (index, fetchedChapter) ->
+                Triple(dbChapterListUrlMap.getValue(fetchedChapter.url)[ChapterTable.id].value, index + 1, fetchedChapter)
+            }
+        logger.debug { "updateList.size=${updateList.size}, toUpdateList.size=${toUpdateList.size}" }
+
+        // rows sharing an url with the row we keep in dbChapterListUrlMap are duplicates
+        val keptIds = dbChapterListUrlMap.values.map { it[ChapterTable.id].value }.toSet()
+        val duplicateIds = dbChapterList.map { it[ChapterTable.id].value }.filter { it !in keptIds }
+        val toDeleteIds = if (chapterList.isNotEmpty()) {
+            toDeleteChapterList.map { it[ChapterTable.id].value } + duplicateIds
+        } else {
+            duplicateIds
+        }
+
+        val fetchedAts = dbChapterList.map { it[ChapterTable.fetchedAt] } + if (insertList.isNotEmpty()) listOf(now) else emptyList()
+        val prediction = FetchInterval.predict(chapterList.map { it.date_upload }, fetchedAts, Instant.now().epochSecond)
+
+        // insert, update and delete in one transaction, the inserted rows are returned instead of selected again
+        val insertedRows = transaction {
+            val insertedRows = if (insertList.isNotEmpty()) {
                 val myBatchInsertStatement = MyBatchInsertStatement(ChapterTable)
                 insertList.forEach { pair ->
                     val index = pair.first
@@ -199,79 +229,35 @@ object Chapter {
                     }
                 }
 
-                val sql = myBatchInsertStatement.prepareSQL(this)
-                val conn = (TransactionManager.current().connection as JdbcConnectionImpl).connection
-                val statement = conn.createStatement()
-                // println(sql)
-                statement.execute(sql)
+                insertChaptersReturning(myBatchInsertStatement)
+            } else {
+                emptyList()
             }
             if (chapterSyncMap.isNotEmpty()) {
                 ChapterSyncTable.deleteWhere { ChapterSyncTable.mangaId eq mangaId }
             }
-        }
-        Profiler.split("upsert chapterList")
+            Profiler.split("upsert chapterList")
 
-        val toUpdateList = updateList
-            .filter {
-                decideChapterNeedUpdate(dbChapterListUrlMap, it)
-            }
-            .toList()
-
-        Profiler.split("calc toUpdateList")
-        println("Profiler: updateList.size=${updateList.size}, toUpdateList.size=${toUpdateList.size}")
-        transaction {
-            if (toUpdateList.isNotEmpty()) {
-                toUpdateList.forEach { pair ->
-                    val index = pair.first
-                    val fetchedChapter = pair.second
-                    ChapterTable.update({ ChapterTable.manga eq mangaId and (ChapterTable.url eq fetchedChapter.url) }) {
-                        it[name] = fetchedChapter.name.take(512)
-                        it[date_upload] = fetchedChapter.date_upload
-                        it[chapter_number] = fetchedChapter.chapter_number
-                        it[scanlator] = fetchedChapter.scanlator?.take(128)
-                        it[ChapterTable.memo] = fetchedChapter.memo.toString()
-                        it[sourceOrder] = index + 1
-                        it[ChapterTable.manga] = mangaId
-                    }
-                }
-            }
+            updateChaptersBatch(toUpdateList)
             Profiler.split("update chapterList")
             MangaTable.update({ MangaTable.id eq mangaId }) {
                 it[MangaTable.chaptersLastFetchedAt] = Instant.now().epochSecond
+                it[MangaTable.fetchInterval] = prediction.interval
+                it[MangaTable.nextUpdate] = prediction.nextUpdate
             }
             Profiler.split("update MangaTable")
-        }
 
-        if (toDeleteChapterList.isNotEmpty() && chapterList.isNotEmpty()) {
-            transaction {
-                toDeleteChapterList.forEach { dbChapter ->
-                    PageTable.deleteWhere { PageTable.chapter eq dbChapter[ChapterTable.id] }
-                    ChapterTable.deleteWhere { ChapterTable.id eq dbChapter[ChapterTable.id] }
-                }
-            }
-        }
-        val dbChapterCount = transaction { ChapterTable.select { ChapterTable.manga eq mangaId }.count() }
-        if (dbChapterCount > chapterCount) { // we got some clean up due
-            val dbChapterList = transaction {
-                ChapterTable.select { ChapterTable.manga eq mangaId }.orderBy(ChapterTable.url to ASC).toList()
-            }
-            dbChapterList.forEachIndexed { index, dbChapter ->
-                if (
-                    (index < dbChapterList.lastIndex && dbChapter[ChapterTable.url] == dbChapterList[index + 1][ChapterTable.url]) // is duplicate
-                ) {
-                    transaction {
-                        PageTable.deleteWhere { PageTable.chapter eq dbChapter[ChapterTable.id] }
-                        ChapterTable.deleteWhere { ChapterTable.id eq dbChapter[ChapterTable.id] }
-                    }
-                }
+            if (toDeleteIds.isNotEmpty()) {
+                deleteChapters(toDeleteIds)
             }
+            insertedRows
         }
 
         Profiler.split("after clean old chapter")
-        val dbChapterMap = transaction {
-            ChapterTable.select { ChapterTable.manga eq mangaId }
-                .associateBy({ it[ChapterTable.url] }, { it })
-        }
+        ChapterPageContexts.invalidateManga(mangaId)
+        val toDeleteIdSet = toDeleteIds.toSet()
+        val dbChapterMap = dbChapterListUrlMap.filterValues { it[ChapterTable.id].value !in toDeleteIdSet } +
+            insertedRows.associateBy { it[ChapterTable.url] }
         fixDownloadFlag(dbChapterMap.values.toList(), mangaId)
         val chapterDataList = chapterList.mapIndexed { index, it ->
             val dbChapter = dbChapterMap.getValue(it.url)
@@ -441,7 +427,7 @@ object Chapter {
         if (input.chapterIds.isNullOrEmpty()) {
             return listOf()
         }
-        val chapterList = transaction {
+        val chapterList = readTransaction {
             ChapterTable
                 .select { (ChapterTable.id inList input.chapterIds) }
                 .map { ChapterTable.toDataClass(it) }
@@ -650,7 +636,7 @@ object Chapter {
         val mangaMap = mangaList.associateBy { it.id }
 
         val counter = mutableMapOf<Int, Int>()
-        val chapterRows = transaction {
+        val chapterRows = readTransaction {
             ChapterTable
                 .select { (ChapterTable.manga inList mangaMap.keys) and (ChapterTable.fetchedAt greater minFetchedAt) }
                 .orderBy(ChapterTable.fetchedAt to SortOrder.DESC)
@@ -682,7 +668,7 @@ object Chapter {
     }
 
     private fun getRecentMangaList(minFetchedAt: Long): List<MangaDataClass> {
-        val mangaList = transaction {
+        val mangaList = readTransaction {
             MangaTable
                 .select {
                     (MangaTable.inLibrary eq true) and
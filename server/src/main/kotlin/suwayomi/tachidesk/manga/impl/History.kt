@@ -17,6 +17,7 @@ import org.jetbrains.exposed.sql.transactions.transaction
 import suwayomi.tachidesk.cloud.impl.Sync
 import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
 import suwayomi.tachidesk.manga.model.table.*
+import suwayomi.tachidesk.server.database.readTransaction
 import kotlin.math.max
 
 object History {
@@ -88,7 +89,7 @@ object History {
     }
 
     fun getHistoryMangaListV2(): List<MangaDataClass> {
-        val historyList = transaction {
+        val historyList = readTransaction {
             HistoryTable.select { HistoryTable.isDelete eq false }
                 .orderBy(HistoryTable.lastReadAt to SortOrder.DESC)
                 .limit(200)
@@ -96,7 +97,7 @@ object History {
         }
 
         val mangaIds = historyList.map { it[HistoryTable.mangaId] }.toList()
-        val mangaList = transaction {
+        val mangaList = readTransaction {
             MangaTable
                 .select { (MangaTable.id inList mangaIds) }
                 .map {
@@ -108,7 +109,7 @@ object History {
         val chapterIds = historyList.map { it[HistoryTable.lastChapterId] }
             .filter { it != 0 }
             .toList()
-        val chapterList = transaction {
+        val chapterList = readTransaction {
             ChapterTable
                 .select { (ChapterTable.id inList chapterIds) }
                 .map { ChapterTable.toDataClass(it) }
@@ -132,7 +133,7 @@ object History {
     }
 
     fun queryMangaReadDuration(mangaId: Int): Int? {
-        return transaction {
+        return readTransaction {
             HistoryTable.slice(HistoryTable.readDuration)
                 .select { (HistoryTable.mangaId eq mangaId) and (HistoryTable.isDelete eq false) }
                 .firstOrNull()
@@ -0,0 +1,131 @@
+package suwayomi.tachidesk.manga.impl
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.jetbrains.exposed.sql.Transaction
+import org.jetbrains.exposed.sql.select
+import org.jetbrains.exposed.sql.statements.jdbc.JdbcConnectionImpl
+import suwayomi.tachidesk.manga.impl.Category.DEFAULT_CATEGORY_ID
+import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
+import suwayomi.tachidesk.manga.model.dataclass.PaginatedList
+import suwayomi.tachidesk.manga.model.dataclass.PaginationFactor
+import suwayomi.tachidesk.manga.model.table.CategoryMangaTable
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.manga.model.table.toDataClass
+import suwayomi.tachidesk.server.database.readTransaction
+
+/**
+ * Search of the library through the manga_fts and chapter_fts indexes of M0033.
+ *
+ * Every word of the query is matched as a prefix, all of them have to match. Title hits rank above author,
+ * artist, genre and description hits, manga that only match by a chapter name come after all of them.
+ */
+object LibrarySearch {
+    private const val CHAPTER_RANK_OFFSET = 1_000_000.0
+
+    fun search(
+        query: String,
+        pageNum: Int,
+        categoryId: Int? = null,
+        sourceId: Long? = null,
+        includeChapters: Boolean = false,
+    ): PaginatedList<MangaDataClass> {
+        val match = matchExpression(query) ?: return PaginatedList(emptyList(), false)
+        return readTransaction {
+            val ids = rankedMangaIds(match, categoryId, sourceId, includeChapters, pageNum.coerceAtLeast(0) * PaginationFactor, PaginationFactor + 1)
+            val page = ids.take(PaginationFactor)
+            val rows = MangaTable.select { MangaTable.id inList page }.associateBy { it[MangaTable.id].value }
+            PaginatedList(
+                page.mapNotNull { id -> rows[id]?.let { MangaTable.toDataClass(it) } },
+                ids.size > PaginationFactor,
+            )
+        }
+    }
+
+    /** `"word"*` per word of [query], quoted so FTS5 operators typed by the user are taken literally */
+    fun matchExpression(query: String): String? {
+        val words = query.split(Regex("\\s+"))
+            .map { it.replace("\"", "") }
+            .filter { it.isNotBlank() }
+        if (words.isEmpty()) {
+            return null
+        }
+        return words.joinToString(" ") { "\"$it\"*" }
+    }
+
+    private fun Transaction.rankedMangaIds(
+        match: String,
+        categoryId: Int?,
+        sourceId: Long?,
+        includeChapters: Boolean,
+        offset: Int,
+        limit: Int,
+    ): List<Int> {
+        val m = identity(MangaTable)
+        val chapterHits = if (includeChapters) {
+            """
+            UNION ALL
+            SELECT c.${identity(ChapterTable.manga)} AS id, bm25(chapter_fts) + $CHAPTER_RANK_OFFSET AS rank
+            FROM chapter_fts JOIN ${identity(ChapterTable)} c ON c.${identity(ChapterTable.id)} = chapter_fts.rowid
+            WHERE chapter_fts MATCH ?
+            """
+        } else {
+            ""
+        }
+        val filters = buildList {
+            add("m.${identity(MangaTable.inLibrary)} = 1")
+            if (sourceId != null) {
+                add("m.${identity(MangaTable.sourceReference)} = ?")
+            }
+            if (categoryId == DEFAULT_CATEGORY_ID) {
+                add("m.${identity(MangaTable.defaultCategory)} = 1")
+            } else if (categoryId != null) {
+                add(
+                    "m.${identity(MangaTable.id)} IN (SELECT ${identity(CategoryMangaTable.manga)} FROM ${identity(CategoryMangaTable)} " +
+                        "WHERE ${identity(CategoryMangaTable.category)} = ?)",
+                )
+            }
+        }
+        val sql = """
+            SELECT hits.id AS id, MIN(hits.rank) AS rank FROM (
+                SELECT manga_fts.rowid AS id, bm25(manga_fts, 10.0, 4.0, 4.0, 2.0, 1.0) AS rank
+                FROM manga_fts WHERE manga_fts MATCH ?
+                $chapterHits
+            ) hits JOIN $m m ON m.${identity(MangaTable.id)} = hits.id
+            WHERE ${filters.joinToString(" AND ")}
+            GROUP BY hits.id
+            ORDER BY rank, hits.id
+            LIMIT ? OFFSET ?
+        """.trimIndent()
+
+        val conn = (connection as JdbcConnectionImpl).connection
+        return conn.prepareStatement(sql).use { stmt ->
+            var i = 0
+            stmt.setString(++i, match)
+            if (includeChapters) {
+                stmt.setString(++i, match)
+            }
+            if (sourceId != null) {
+                stmt.setLong(++i, sourceId)
+            }
+            if (categoryId != null && categoryId != DEFAULT_CATEGORY_ID) {
+                stmt.setInt(++i, categoryId)
+            }
+            stmt.setInt(++i, limit)
+            stmt.setInt(++i, offset)
+            stmt.executeQuery().use { rs ->
+                buildList {
+                    while (rs.next()) {
+                        add(rs.getInt(1))
+                    }
+                }
+            }
+        }
+    }
+}
@@ -39,16 +39,18 @@ import suwayomi.tachidesk.manga.impl.util.source.GetCatalogueSource
 import suwayomi.tachidesk.manga.impl.util.source.GetCatalogueSource.getCatalogueSourceOrNull
 import suwayomi.tachidesk.manga.impl.util.source.GetCatalogueSource.getCatalogueSourceOrStub
 import suwayomi.tachidesk.manga.impl.util.source.StubSource
-import suwayomi.tachidesk.manga.impl.util.storage.ImageResponse.buildImageResponse
-import suwayomi.tachidesk.manga.impl.util.storage.ImageResponse.clearFastCachedImage
+import suwayomi.tachidesk.manga.impl.util.storage.ResponseImage
+import suwayomi.tachidesk.manga.impl.util.storage.DiskImageCache
 import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
 import suwayomi.tachidesk.manga.model.dataclass.SMangaDataClass
 import suwayomi.tachidesk.manga.model.dataclass.toGenreList
 import suwayomi.tachidesk.manga.model.dataclass.toSManga
 import suwayomi.tachidesk.manga.model.table.*
 import suwayomi.tachidesk.server.ApplicationDirs
+import suwayomi.tachidesk.server.database.readTransaction
+import suwayomi.tachidesk.server.serverConfig
 import uy.kohesive.injekt.injectLazy
-import java.io.InputStream
+import java.io.File
 import java.time.Instant
 
 object Manga {
@@ -63,7 +65,7 @@ object Manga {
     }
 
     suspend fun getManga(mangaId: Int, onlineFetch: Boolean = false): MangaDataClass {
-        var mangaEntry = transaction { MangaTable.select { MangaTable.id eq mangaId }.first() }
+        var mangaEntry = readTransaction { MangaTable.select { MangaTable.id eq mangaId }.first() }
         val source = getCatalogueSourceOrNull(mangaEntry[MangaTable.sourceReference])
         val meta = if (source != null) {
             GetCatalogueSource.getCatalogueSourceMeta(source)
@@ -130,7 +132,7 @@ object Manga {
                 clearMangaCoverCache(mangaId)
             }
 
-            mangaEntry = transaction { MangaTable.select { MangaTable.id eq mangaId }.first() }
+            mangaEntry = readTransaction { MangaTable.select { MangaTable.id eq mangaId }.first() }
 
             MangaDataClass(
                 id = mangaId,
@@ -168,7 +170,7 @@ object Manga {
     suspend fun getMangaFull(mangaId: Int, onlineFetch: Boolean = false): MangaDataClass {
         val mangaDaaClass = getManga(mangaId, onlineFetch)
 
-        return transaction {
+        return readTransaction {
             val unreadCount =
                 ChapterTable
                     .select { (ChapterTable.manga eq mangaId) and (ChapterTable.isRead eq false) }
@@ -230,20 +232,20 @@ object Manga {
     )
 
     fun getMangaMetaMap(mangaId: Int): Map<String, String> {
-        return transaction {
+        return readTransaction {
             MangaMetaTable.select { MangaMetaTable.ref eq mangaId }
                 .associate { it[MangaMetaTable.key] to it[MangaMetaTable.value] }
         }
     }
 
     private fun getExistChapterSyncData(mangaId: Int): Boolean {
-        return transaction {
+        return readTransaction {
             ChapterSyncTable.select { ChapterSyncTable.mangaId eq mangaId }.count() > 0
         }
     }
 
     fun batchGetMangaMetaMap(mangaIds: List<Int>): Map<Int, Map<String, String>> {
-        val list = transaction {
+        val list = readTransaction {
             MangaMetaTable.select { MangaMetaTable.ref inList mangaIds }
                 .toList()
         }
@@ -325,12 +327,16 @@ object Manga {
 
     private val applicationDirs by DI.global.instance<ApplicationDirs>()
     private val network: NetworkHelper by injectLazy()
-    suspend fun getMangaThumbnail(mangaId: Int): Pair<InputStream, String> {
-        val mangaEntry = transaction { MangaTable.select { MangaTable.id eq mangaId }.first() }
+    private val coverCache by lazy {
+        DiskImageCache(File(applicationDirs.coversRoot)) { serverConfig.coverCacheSizeMb * 1024L * 1024L }
+    }
+
+    suspend fun getMangaThumbnail(mangaId: Int): ResponseImage {
+        val mangaEntry = readTransaction { MangaTable.select { MangaTable.id eq mangaId }.first() }
         val sourceId = mangaEntry[MangaTable.sourceReference]
 
         return when (val source = getCatalogueSourceOrStub(sourceId)) {
-            is HttpSource -> buildImageResponse {
+            is HttpSource -> {
                 val thumbnailUrl = mangaEntry[MangaTable.thumbnail_url]
                     ?: if (!mangaEntry[MangaTable.initialized]) {
                         // initialize then try again
@@ -342,21 +348,26 @@ object Manga {
                         // source provides no thumbnail url for this manga
                         throw NullPointerException("No thumbnail found")
                     }
-                source.client.newCall(
-                    GET(thumbnailUrl, source.headers),
-                ).asObservableSuccess().awaitSingle()
+                coverCache.get(mangaId, thumbnailUrl) {
+                    source.client.newCall(
+                        GET(thumbnailUrl, source.headers),
+                    ).asObservableSuccess().awaitSingle()
+                }
             }
 
             is LocalSource -> {
-                LocalSource.getCoverImage(mangaEntry[MangaTable.url], mangaEntry[MangaTable.thumbnail_url])
+                val (stream, contentType) = LocalSource.getCoverImage(mangaEntry[MangaTable.url], mangaEntry[MangaTable.thumbnail_url])
+                ResponseImage(contentType, null) { stream }
             }
 
-            is StubSource -> buildImageResponse {
+            is StubSource -> {
                 val thumbnailUrl = mangaEntry[MangaTable.thumbnail_url]
                     ?: throw NullPointerException("No thumbnail found")
-                network.client.newCall(
-                    GET(thumbnailUrl),
-                ).awaitSuccess()
+                coverCache.get(mangaId, thumbnailUrl) {
+                    network.client.newCall(
+                        GET(thumbnailUrl),
+                    ).awaitSuccess()
+                }
             }
 
             else -> throw IllegalArgumentException("Unknown source")
@@ -364,9 +375,6 @@ object Manga {
     }
 
     private fun clearMangaCoverCache(mangaId: Int) {
-        val saveDir = applicationDirs.coversRoot
-        val fileName = mangaId.toString()
-
-        clearFastCachedImage(saveDir, fileName)
+        coverCache.invalidate(mangaId)
     }
 }
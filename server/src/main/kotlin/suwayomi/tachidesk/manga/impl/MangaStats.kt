@@ -0,0 +1,84 @@
+package suwayomi.tachidesk.manga.impl
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import mu.KotlinLogging
+import org.jetbrains.exposed.sql.ResultRow
+import org.jetbrains.exposed.sql.select
+import org.jetbrains.exposed.sql.statements.jdbc.JdbcConnectionImpl
+import org.jetbrains.exposed.sql.transactions.transaction
+import suwayomi.tachidesk.manga.model.table.MangaStatsTable
+import suwayomi.tachidesk.server.database.readTransaction
+
+/**
+ * Reads of [MangaStatsTable], the chapter counts and dates the library shows for each manga.
+ * The rows are kept current by triggers, [repair] fixes any that drifted from the chapters.
+ */
+object MangaStats {
+    private val logger = KotlinLogging.logger {}
+
+    private const val AGGREGATE_COLUMNS = """manga, COUNT(*) AS chapter_count, SUM("read" = 0) AS unread_count,
+        SUM(is_downloaded = 1) AS download_count, MAX(last_read_at) AS last_read_at, MAX(fetched_at) AS latest_fetched_at,
+        MAX(date_upload) AS latest_upload_at"""
+
+    /** the stats of every manga that has chapters, aggregated from the chapters */
+    internal val aggregateSql = "SELECT $AGGREGATE_COLUMNS FROM Chapter GROUP BY manga"
+
+    /** the manga whose row differs from a fresh aggregate of the chapters, or that have a row but no chapters */
+    private val driftedSql = """
+        SELECT r.manga FROM ($aggregateSql) r LEFT JOIN MangaStats s ON s.manga = r.manga
+        WHERE s.manga IS NULL OR s.chapter_count <> r.chapter_count OR s.unread_count <> r.unread_count
+            OR s.download_count <> r.download_count OR s.last_read_at <> r.last_read_at
+            OR s.latest_fetched_at <> r.latest_fetched_at OR s.latest_upload_at <> r.latest_upload_at
+        UNION
+        SELECT s.manga FROM MangaStats s WHERE NOT EXISTS (SELECT 1 FROM Chapter c WHERE c.manga = s.manga)
+        """.trimIndent()
+
+    /** rows of the manga that have chapters, keyed by manga id */
+    fun byManga(mangaIds: List<Int>): Map<Int, ResultRow> {
+        if (mangaIds.isEmpty()) {
+            return emptyMap()
+        }
+        return readTransaction {
+            MangaStatsTable.select { MangaStatsTable.manga inList mangaIds }
+                .filter { it[MangaStatsTable.chapterCount] > 0 }
+                .associateBy { it[MangaStatsTable.manga] }
+        }
+    }
+
+    /**
+     * Recomputes the rows that differ from the chapters and drops the rows of manga without chapters.
+     * The aggregate over all chapters runs on a read connection, the writer is only taken to rewrite the rows
+     * that drifted, which are aggregated again at that point so a change in between isn't overwritten.
+     */
+    fun repair() {
+        val t = System.currentTimeMillis()
+        val drifted = readTransaction {
+            val conn = (connection as JdbcConnectionImpl).connection
+            conn.createStatement().use { statement ->
+                statement.executeQuery(driftedSql).use { rs ->
+                    generateSequence { if (rs.next()) rs.getInt(1) else null }.toList()
+                }
+            }
+        }
+        drifted.chunked(500).forEach { ids ->
+            val inList = ids.joinToString(",")
+            transaction {
+                val conn = (connection as JdbcConnectionImpl).connection
+                conn.createStatement().use { statement ->
+                    statement.executeUpdate("DELETE FROM MangaStats WHERE manga IN ($inList)")
+                    statement.executeUpdate(
+                        "INSERT INTO MangaStats(manga, chapter_count, unread_count, download_count, last_read_at, latest_fetched_at, latest_upload_at) " +
+                            "SELECT $AGGREGATE_COLUMNS FROM Chapter WHERE manga IN ($inList) GROUP BY manga",
+                    )
+                }
+            }
+        }
+        logger.info { "repair drifted=${drifted.size} cost=${System.currentTimeMillis() - t}ms" }
+    }
+}
@@ -17,17 +17,21 @@ import okhttp3.Protocol
 import okhttp3.Request
 import okhttp3.Response
 import okhttp3.ResponseBody.Companion.toResponseBody
-import org.jetbrains.exposed.sql.and
-import org.jetbrains.exposed.sql.select
-import org.jetbrains.exposed.sql.transactions.transaction
-import org.jetbrains.exposed.sql.update
+import org.kodein.di.DI
+import org.kodein.di.conf.global
+import org.kodein.di.instance
+import suwayomi.tachidesk.manga.impl.chapter.ChapterPage
+import suwayomi.tachidesk.manga.impl.chapter.ChapterPageContext
+import suwayomi.tachidesk.manga.impl.chapter.ChapterPageContexts
 import suwayomi.tachidesk.manga.impl.download.FolderProvider2
 import suwayomi.tachidesk.manga.impl.util.source.GetCatalogueSource.getCatalogueSourceOrStub
 import suwayomi.tachidesk.manga.impl.util.storage.ImageResponse.buildImageResponse
-import suwayomi.tachidesk.manga.model.table.ChapterTable
-import suwayomi.tachidesk.manga.model.table.MangaTable
-import suwayomi.tachidesk.manga.model.table.PageTable
-import java.io.InputStream
+import suwayomi.tachidesk.manga.impl.util.storage.ImageResponse.streamImage
+import suwayomi.tachidesk.manga.impl.util.storage.PageCache
+import suwayomi.tachidesk.manga.impl.util.storage.ResponseImage
+import suwayomi.tachidesk.server.ApplicationDirs
+import suwayomi.tachidesk.server.serverConfig
+import java.io.File
 
 object Page {
     /**
@@ -41,61 +45,86 @@ object Page {
         return page.imageUrl!!
     }
 
-    suspend fun getPageImage(mangaId: Int, chapterIndex: Int, index: Int, progressFlow: ((StateFlow<Int>) -> Unit)? = null): Pair<InputStream, String> {
-        val mangaEntry = transaction { MangaTable.select { MangaTable.id eq mangaId }.first() }
-        val source = getCatalogueSourceOrStub(mangaEntry[MangaTable.sourceReference])
-        val chapterEntry = transaction {
-            ChapterTable.select {
-                (ChapterTable.sourceOrder eq chapterIndex) and (ChapterTable.manga eq mangaId)
-            }.first()
-        }
-        val chapterId = chapterEntry[ChapterTable.id].value
+    private val applicationDirs by DI.global.instance<ApplicationDirs>()
+    private val pageCache by lazy {
+        PageCache(
+            File(applicationDirs.pageCacheRoot),
+            { serverConfig.pageCacheSizeMb * 1024L * 1024L },
+            { serverConfig.pageCacheMemoryMb * 1024L * 1024L },
+        )
+    }
+
+    /**
+     * [readAhead] is set for pages requested by the reader, those of online chapters are served through the
+     * page cache and the following pages are prefetched into it.
+     */
+    suspend fun getPageImage(
+        mangaId: Int,
+        chapterIndex: Int,
+        index: Int,
+        progressFlow: ((StateFlow<Int>) -> Unit)? = null,
+        readAhead: Boolean = false,
+    ): ResponseImage {
+        val context = ChapterPageContexts.get(mangaId, chapterIndex)
+        val source = getCatalogueSourceOrStub(context.sourceId)
 
-        if (chapterEntry[ChapterTable.isDownloaded] && chapterEntry[ChapterTable.pageCount] > 0) {
-            val originalChapterId = chapterEntry[ChapterTable.originalChapterId]
-            val pair = FolderProvider2(mangaId, chapterId, originalChapterId).getImage(index)
-            if (pair != null) {
-                return pair
+        if (context.isDownloaded && context.pageCount > 0) {
+            val image = FolderProvider2(mangaId, context.chapterId, context.originalChapterId).getImage(index)
+            if (image != null) {
+                return image
             }
         }
 
-        val pageEntry = transaction {
-            PageTable.select { (PageTable.chapter eq chapterId) and (PageTable.index eq index) }.first()
-        }
-        val tachiyomiPage = Page(
-            pageEntry[PageTable.index],
-            pageEntry[PageTable.url],
-            pageEntry[PageTable.imageUrl],
-        )
+        val page = context.page(index) ?: throw NoSuchElementException("page $index of chapter ${context.chapterId} not found")
+        val tachiyomiPage = Page(page.index, page.url, page.imageUrl)
         progressFlow?.invoke(tachiyomiPage.progress)
 
         // we treat Local source differently
         if (source.id == LocalSource.ID) {
-            return LocalSource.getPageImage(chapterEntry[ChapterTable.url], tachiyomiPage.imageUrl, index)
+            return streamImage(LocalSource.getPageImage(context.chapterUrl, tachiyomiPage.imageUrl, index))
         }
 
         source as HttpSource
 
-        if (pageEntry[PageTable.imageUrl] == null) {
+        if (!readAhead) {
+            return streamImage(buildImageResponse { fetchPageImage(source, context, page, tachiyomiPage) })
+        }
+
+        ReadAhead.onPageRequested(mangaId, context.chapterId, index, context.pageCount) { next ->
+            prefetchPage(source, context, next)
+        }
+        return pageCache.get(context.chapterId, pageCacheKey(page)) {
+            fetchPageImage(source, context, page, tachiyomiPage)
+        }
+    }
+
+    private suspend fun prefetchPage(source: HttpSource, context: ChapterPageContext, index: Int) {
+        val page = context.page(index) ?: return
+        pageCache.get(context.chapterId, pageCacheKey(page)) {
+            fetchPageImage(source, context, page, Page(page.index, page.url, page.imageUrl))
+        }
+    }
+
+    /** the page url if the source has one, the image url otherwise, doesn't change once the image url is resolved */
+    private fun pageCacheKey(page: ChapterPage): String {
+        return if (page.url.isNotEmpty()) "${page.index}|${page.url}" else "${page.index}|${page.imageUrl.orEmpty()}"
+    }
+
+    private suspend fun fetchPageImage(source: HttpSource, context: ChapterPageContext, page: ChapterPage, tachiyomiPage: Page): Response {
+        if (tachiyomiPage.imageUrl == null) {
             val trueImageUrl = getTrueImageUrl(tachiyomiPage, source)
-            transaction {
-                PageTable.update({ (PageTable.chapter eq chapterId) and (PageTable.index eq index) }) {
-                    it[imageUrl] = trueImageUrl
-                }
-            }
+            ChapterPageContexts.imageUrlResolved(context, page, trueImageUrl)
         }
 
-        return buildImageResponse {
-            try {
-                source.getImage(tachiyomiPage)
-            } catch (e: IllegalArgumentException) {
-                // imageUrl = "" HttpUrl.kt:1366 throw IllegalArgumentException("Expected URL scheme 'http' or 'https' but no scheme was found for $truncated",)
-                if (e.message != "Expected URL scheme 'http' or 'https' but no scheme was found for ") {
-                    throw e
-                }
-                // return 1x1.png
-                createEmptyImageResponse(e)
+        return try {
+            source.getImage(tachiyomiPage)
+        } catch (e: IllegalArgumentException) {
+            // imageUrl = "" HttpUrl.kt:1366 throw IllegalArgumentException("Expected URL scheme 'http' or 'https' but no scheme was found for $truncated",)
+            if (e.message != "Expected URL scheme 'http' or 'https' but no scheme was found for ") {
+                throw e
             }
+            // return 1x1.png
+            createEmptyImageResponse(e)
         }
     }
 
@@ -0,0 +1,80 @@
+package suwayomi.tachidesk.manga.impl
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import mu.KotlinLogging
+import suwayomi.tachidesk.server.serverConfig
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Fetches the next pages of the chapter being read while the reader is still on the current one.
+ *
+ * There is one reader per manga, requesting a page of another chapter cancels the prefetch of the previous one.
+ * Pages are prefetched in order up to `server.readAheadPages` past the furthest page requested, the first
+ * failure stops it until the next request.
+ */
+object ReadAhead {
+    private val logger = KotlinLogging.logger {}
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    private class Reader(val chapterId: Int, val target: AtomicInteger) {
+        lateinit var job: Job
+    }
+
+    private val readers = ConcurrentHashMap<Int, Reader>()
+
+    fun onPageRequested(mangaId: Int, chapterId: Int, index: Int, pageCount: Int, prefetch: suspend (Int) -> Unit) {
+        val depth = serverConfig.readAheadPages
+        val last = (index + depth).coerceAtMost(pageCount - 1)
+        if (depth <= 0 || last <= index) {
+            return
+        }
+        readers.compute(mangaId) { _, reader ->
+            if (reader != null && reader.chapterId == chapterId && reader.job.isActive) {
+                reader.target.accumulateAndGet(last) { a, b -> maxOf(a, b) }
+                reader
+            } else {
+                if (reader != null && reader.chapterId != chapterId) {
+                    reader.job.cancel()
+                    logger.debug { "[READ_AHEAD]cancel mangaId=$mangaId chapterId=${reader.chapterId}" }
+                }
+                start(mangaId, chapterId, index + 1, last, prefetch)
+            }
+        }
+    }
+
+    private fun start(mangaId: Int, chapterId: Int, first: Int, last: Int, prefetch: suspend (Int) -> Unit): Reader {
+        val reader = Reader(chapterId, AtomicInteger(last))
+        reader.job = scope.launch(start = CoroutineStart.LAZY) {
+            var next = first
+            while (next <= reader.target.get()) {
+                try {
+                    prefetch(next)
+                } catch (e: CancellationException) {
+                    throw e
+                } catch (e: Exception) {
+                    logger.debug { "[READ_AHEAD]stop mangaId=$mangaId chapterId=$chapterId index=$next: $e" }
+                    break
+                }
+                next++
+            }
+        }
+        reader.job.invokeOnCompletion { readers.remove(mangaId, reader) }
+        reader.job.start()
+        return reader
+    }
+}
@@ -10,8 +10,19 @@ package suwayomi.tachidesk.manga.impl
 
 import eu.kanade.tachiyomi.source.model.Filter
 import eu.kanade.tachiyomi.source.model.FilterList
+import eu.kanade.tachiyomi.source.model.MangasPage
 import io.javalin.plugin.json.JsonMapper
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.TimeoutCancellationException
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withTimeout
 import kotlinx.serialization.Serializable
+import mu.KotlinLogging
+import org.jetbrains.exposed.sql.transactions.transaction
 import org.kodein.di.DI
 import org.kodein.di.conf.global
 import org.kodein.di.instance
@@ -28,9 +39,75 @@ import suwayomi.tachidesk.manga.model.dataclass.SeparatorFilterDataClass
 import suwayomi.tachidesk.manga.model.dataclass.SortFilterDataClass
 import suwayomi.tachidesk.manga.model.dataclass.TextFilterDataClass
 import suwayomi.tachidesk.manga.model.dataclass.TriStateFilterDataClass
+import suwayomi.tachidesk.manga.model.dataclass.search.GlobalSearchResultDataClass
 import suwayomi.tachidesk.manga.model.dataclass.toSMangaDataClass
+import suwayomi.tachidesk.server.serverConfig
+import kotlin.time.Duration.Companion.seconds
 
 object Search {
+    private val logger = KotlinLogging.logger {}
+
+    private const val GLOBAL_SEARCH_BATCH = 8
+
+    /**
+     * Searches [GlobalSearchInput.sourceIds] concurrently, at most `server.globalSearchConcurrency` at a time and
+     * each within `server.globalSearchTimeoutSeconds`, and passes every source's result to [emit] as it arrives.
+     * Results that arrive together are saved in one transaction.
+     */
+    suspend fun globalSearch(input: GlobalSearchInput, emit: (GlobalSearchResultDataClass) -> Unit) = coroutineScope {
+        val sourceIds = input.sourceIds.mapNotNull { it.toLongOrNull() }.distinct()
+        val permits = Semaphore(serverConfig.globalSearchConcurrency.coerceAtLeast(1))
+        val timeout = serverConfig.globalSearchTimeoutSeconds.coerceAtLeast(1).seconds
+        val pages = Channel<Pair<Long, Result<MangasPage>>>(Channel.UNLIMITED)
+
+        sourceIds.forEach { sourceId ->
+            launch {
+                val page = permits.withPermit {
+                    try {
+                        Result.success(
+                            withTimeout(timeout) {
+                                val source = getCatalogueSourceOrStub(sourceId)
+                                source.getSearchManga(input.pageNum, input.searchTerm, source.getFilterList())
+                            },
+                        )
+                    } catch (e: TimeoutCancellationException) {
+                        Result.failure(Exception("timed out after $timeout"))
+                    } catch (e: CancellationException) {
+                        throw e
+                    } catch (e: Exception) {
+                        Result.failure(e)
+                    }
+                }
+                pages.send(sourceId to page)
+            }
+        }
+
+        var remaining = sourceIds.size
+        while (remaining > 0) {
+            val batch = mutableListOf(pages.receive())
+            while (batch.size < GLOBAL_SEARCH_BATCH) {
+                batch += pages.tryReceive().getOrNull() ?: break
+            }
+            remaining -= batch.size
+            // processEntries joins this transaction, so the manga of the whole batch are written in one commit
+            val results = transaction {
+                batch.map { (sourceId, page) -> globalSearchResult(sourceId, page) }
+            }
+            results.forEach(emit)
+        }
+    }
+
+    private fun globalSearchResult(sourceId: Long, page: Result<MangasPage>): GlobalSearchResultDataClass {
+        val data = page.mapCatching { it.processEntries(sourceId) }
+        return data.fold(
+            onSuccess = { GlobalSearchResultDataClass(sourceId.toString(), it.mangaList, it.hasNextPage) },
+            onFailure = {
+                logger.warn { "globalSearch sourceId=$sourceId failed: $it" }
+                GlobalSearchResultDataClass(sourceId.toString(), emptyList(), false, it.message ?: it.javaClass.simpleName)
+            },
+        )
+    }
+
     suspend fun sourceFilter(sourceId: Long, pageNum: Int, filter: FilterData): PagedMangaListDataClass {
         val source = getCatalogueSourceOrStub(sourceId)
         val filterList0 = source.getFilterList()
@@ -136,6 +213,13 @@ object Search {
         val state: String,
     )
 
+    @Serializable
+    data class GlobalSearchInput(
+        val searchTerm: String,
+        val sourceIds: List<String>,
+        val pageNum: Int = 1,
+    )
+
     @Serializable
     data class FilterData(
         val searchTerm: String?,
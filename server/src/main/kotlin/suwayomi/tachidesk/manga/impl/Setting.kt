@@ -54,6 +54,7 @@ object Setting {
     data class SourceConfigInfo(
         val sourceId: Long? = null,
         val ua: String? = null,
+        val pageConcurrency: Int? = null,
     )
 
     @Serializable
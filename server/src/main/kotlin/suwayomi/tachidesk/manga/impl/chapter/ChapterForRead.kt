@@ -60,6 +60,8 @@ private class ChapterForRead(
                 markAsNotDownloaded()
             }
             updateDatabasePages(pageList)
+            // the page requests that follow find the chapter in memory
+            ChapterPageContexts.put(mangaEntry, chapterEntry, pageList)
             return asDataClass()
         }
 
@@ -0,0 +1,188 @@
+package suwayomi.tachidesk.manga.impl.chapter
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.source.model.Page
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import mu.KotlinLogging
+import org.jetbrains.exposed.sql.ResultRow
+import org.jetbrains.exposed.sql.and
+import org.jetbrains.exposed.sql.select
+import org.jetbrains.exposed.sql.statements.jdbc.JdbcConnectionImpl
+import org.jetbrains.exposed.sql.transactions.transaction
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.manga.model.table.PageTable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicBoolean
+
+class ChapterPage(val index: Int, val url: String, @Volatile var imageUrl: String?)
+
+/** what a page request needs to know about its chapter */
+class ChapterPageContext(
+    val mangaId: Int,
+    val chapterIndex: Int,
+    val chapterId: Int,
+    val sourceId: Long,
+    val chapterUrl: String,
+    val isDownloaded: Boolean,
+    val pageCount: Int,
+    val originalChapterId: Int?,
+    pages: List<ChapterPage>,
+) {
+    internal val loadedAt = System.currentTimeMillis()
+
+    private val pages = pages.associateBy { it.index }
+
+    fun page(index: Int): ChapterPage? = pages[index]
+}
+
+/**
+ * Recently read chapters with their manga source, chapter row and page list, so the page requests of a chapter
+ * don't each select the manga, the chapter and the page again.
+ *
+ * getChapterReadReady stores the context it has just built, other chapters are loaded in one transaction on
+ * their first page request. Contexts expire after [TTL_MS] and are dropped when the pages or the chapter list
+ * are written. Image urls resolved while reading are written back in batches.
+ */
+object ChapterPageContexts {
+    private val logger = KotlinLogging.logger {}
+
+    private const val MAX_CONTEXTS = 16
+    private const val TTL_MS = 5 * 60 * 1000L
+    private const val FLUSH_DELAY_MS = 2000L
+    private const val FLUSH_BATCH = 32
+
+    private val contexts = object : LinkedHashMap<String, ChapterPageContext>(MAX_CONTEXTS, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, ChapterPageContext>?): Boolean {
+            return size > MAX_CONTEXTS
+        }
+    }
+
+    /** (chapterId, index) to the resolved image url */
+    private val pendingImageUrls = ConcurrentHashMap<Pair<Int, Int>, String>()
+    private val flushScheduled = AtomicBoolean(false)
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    fun get(mangaId: Int, chapterIndex: Int): ChapterPageContext {
+        val key = keyOf(mangaId, chapterIndex)
+        synchronized(contexts) {
+            val context = contexts[key]
+            if (context != null && System.currentTimeMillis() - context.loadedAt < TTL_MS) {
+                return context
+            }
+        }
+        return load(mangaId, chapterIndex).also { put(it) }
+    }
+
+    fun put(mangaEntry: ResultRow, chapterEntry: ResultRow, pageList: List<Page>) {
+        put(
+            contextOf(
+                mangaEntry,
+                chapterEntry,
+                pageList.map { ChapterPage(it.index, it.url, it.imageUrl) },
+            ),
+        )
+    }
+
+    fun invalidateChapter(chapterId: Int) {
+        synchronized(contexts) {
+            contexts.values.removeIf { it.chapterId == chapterId }
+        }
+        pendingImageUrls.keys.removeIf { it.first == chapterId }
+    }
+
+    /** the chapter list changed, the chapter indexes may point to other chapters now */
+    fun invalidateManga(mangaId: Int) {
+        synchronized(contexts) {
+            contexts.values.removeIf { it.mangaId == mangaId }
+        }
+    }
+
+    /** remembers an image url resolved while reading, it is written to the database with the next batch */
+    fun imageUrlResolved(context: ChapterPageContext, page: ChapterPage, imageUrl: String) {
+        page.imageUrl = imageUrl
+        pendingImageUrls[context.chapterId to page.index] = imageUrl
+        if (pendingImageUrls.size >= FLUSH_BATCH) {
+            scope.launch { flush() }
+        } else if (flushScheduled.compareAndSet(false, true)) {
+            scope.launch {
+                delay(FLUSH_DELAY_MS)
+                flushScheduled.set(false)
+                flush()
+            }
+        }
+    }
+
+    fun flush() {
+        val batch = pendingImageUrls.keys.toList().mapNotNull { key -> pendingImageUrls.remove(key)?.let { key to it } }
+        if (batch.isEmpty()) {
+            return
+        }
+        try {
+            transaction {
+                val t = PageTable
+                val sql = "UPDATE ${identity(t)} SET ${identity(t.imageUrl)} = ? WHERE ${identity(t.chapter)} = ? AND ${identity(t.index)} = ?"
+                val conn = (connection as JdbcConnectionImpl).connection
+                conn.prepareStatement(sql).use { stmt ->
+                    batch.forEach { (key, imageUrl) ->
+                        stmt.setString(1, imageUrl)
+                        stmt.setInt(2, key.first)
+                        stmt.setInt(3, key.second)
+                        stmt.addBatch()
+                    }
+                    stmt.executeBatch()
+                }
+            }
+        } catch (e: Exception) {
+            // the urls are resolved again on the next read
+            logger.warn(e) { "[PAGE]failed to save ${batch.size} image urls" }
+        }
+    }
+
+    private fun put(context: ChapterPageContext) {
+        synchronized(contexts) {
+            contexts[keyOf(context.mangaId, context.chapterIndex)] = context
+        }
+    }
+
+    private fun load(mangaId: Int, chapterIndex: Int): ChapterPageContext {
+        return transaction {
+            val mangaEntry = MangaTable.select { MangaTable.id eq mangaId }.first()
+            val chapterEntry = ChapterTable.select {
+                (ChapterTable.sourceOrder eq chapterIndex) and (ChapterTable.manga eq mangaId)
+            }.first()
+            val pages = PageTable.select { PageTable.chapter eq chapterEntry[ChapterTable.id] }
+                .map { ChapterPage(it[PageTable.index], it[PageTable.url], it[PageTable.imageUrl]) }
+            contextOf(mangaEntry, chapterEntry, pages)
+        }
+    }
+
+    private fun contextOf(mangaEntry: ResultRow, chapterEntry: ResultRow, pages: List<ChapterPage>): ChapterPageContext {
+        val chapterId = chapterEntry[ChapterTable.id].value
+        // a pending url is newer than what was read from the database
+        pages.forEach { page -> pendingImageUrls[chapterId to page.index]?.let { page.imageUrl = it } }
+        return ChapterPageContext(
+            mangaId = mangaEntry[MangaTable.id].value,
+            chapterIndex = chapterEntry[ChapterTable.sourceOrder],
+            chapterId = chapterId,
+            sourceId = mangaEntry[MangaTable.sourceReference],
+            chapterUrl = chapterEntry[ChapterTable.url],
+            isDownloaded = chapterEntry[ChapterTable.isDownloaded],
+            pageCount = chapterEntry[ChapterTable.pageCount],
+            originalChapterId = chapterEntry[ChapterTable.originalChapterId],
+            pages = pages,
+        )
+    }
+
+    private fun keyOf(mangaId: Int, chapterIndex: Int) = "$mangaId:$chapterIndex"
+}
@@ -9,11 +9,14 @@ package suwayomi.tachidesk.manga.impl.chapter
 
 import eu.kanade.tachiyomi.source.CatalogueSource
 import eu.kanade.tachiyomi.source.model.Page
+import eu.kanade.tachiyomi.source.model.SChapter
 import eu.kanade.tachiyomi.source.online.HttpSource
 import mu.KotlinLogging
 import okhttp3.internal.trimSubstring
 import org.jetbrains.exposed.sql.ResultRow
 import org.jetbrains.exposed.sql.SqlExpressionBuilder.eq
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.inList
+import org.jetbrains.exposed.sql.Transaction
 import org.jetbrains.exposed.sql.deleteWhere
 import org.jetbrains.exposed.sql.statements.jdbc.JdbcConnectionImpl
 import org.jetbrains.exposed.sql.transactions.TransactionManager
@@ -52,6 +55,60 @@ object ChapterUtil {
             val statement = conn.createStatement()
             statement.execute(sql)
         }
+        ChapterPageContexts.invalidateChapter(chapterId)
+    }
+
+    /**
+     * Executes the insert built by [statement] and returns the inserted chapter rows,
+     * so callers don't need to select them again to learn the generated ids.
+     */
+    fun Transaction.insertChaptersReturning(statement: MyBatchInsertStatement): List<ResultRow> {
+        val columns = ChapterTable.columns
+        val sql = statement.prepareSQL(this) + " RETURNING " + columns.joinToString { identity(it) }
+        val conn = (connection as JdbcConnectionImpl).connection
+        val fieldsIndex = columns.withIndex().associate { it.value to it.index }
+        return conn.createStatement().use { stmt ->
+            stmt.executeQuery(sql).use { rs ->
+                val rows = mutableListOf<ResultRow>()
+                while (rs.next()) {
+                    rows.add(ResultRow.create(rs, fieldsIndex))
+                }
+                rows
+            }
+        }
+    }
+
+    /** updates the source fields of many chapters with one prepared statement, [chapters] are (chapterId, sourceOrder, chapter) */
+    fun Transaction.updateChaptersBatch(chapters: List<Triple<Int, Int, SChapter>>) {
+        if (chapters.isEmpty()) {
+            return
+        }
+        val t = ChapterTable
+        val sql = "UPDATE ${identity(t)} SET " +
+            listOf(t.name, t.date_upload, t.chapter_number, t.scanlator, t.memo, t.sourceOrder).joinToString { "${identity(it)} = ?" } +
+            " WHERE ${identity(t.id)} = ?"
+        val conn = (connection as JdbcConnectionImpl).connection
+        conn.prepareStatement(sql).use { stmt ->
+            chapters.forEach { (chapterId, sourceOrder, chapter) ->
+                stmt.setString(1, chapter.name.take(512))
+                stmt.setLong(2, chapter.date_upload)
+                stmt.setFloat(3, chapter.chapter_number)
+                stmt.setString(4, chapter.scanlator?.take(128))
+                stmt.setString(5, chapter.memo.toString())
+                stmt.setInt(6, sourceOrder)
+                stmt.setInt(7, chapterId)
+                stmt.addBatch()
+            }
+            stmt.executeBatch()
+        }
+    }
+
+    /** deletes chapters and their pages, [chapterIds] are chunked to stay below the sqlite variable limit */
+    fun Transaction.deleteChapters(chapterIds: List<Int>) {
+        chapterIds.chunked(500).forEach { ids ->
+            PageTable.deleteWhere { PageTable.chapter inList ids }
+            ChapterTable.deleteWhere { ChapterTable.id inList ids }
+        }
     }
 
     fun preprocessPageList(pageList: List<Page>): List<Page> {
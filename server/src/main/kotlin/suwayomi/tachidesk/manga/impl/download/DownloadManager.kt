@@ -26,9 +26,9 @@ import org.kodein.di.instance
 import org.tachiyomi.NativeChannel
 import suwayomi.tachidesk.manga.impl.download.model.DownloadChapter
 import suwayomi.tachidesk.manga.impl.download.model.DownloadState
-import suwayomi.tachidesk.manga.impl.download.model.DownloadState.Downloading
 import suwayomi.tachidesk.manga.impl.download.model.DownloadState.Finished
 import suwayomi.tachidesk.manga.impl.download.model.DownloadStatus
+import suwayomi.tachidesk.manga.impl.util.source.SourceRateLimits
 import suwayomi.tachidesk.manga.model.dataclass.ChapterDataClass
 import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
 import suwayomi.tachidesk.manga.model.dataclass.task.BgContinuedDownloadResultDataClass
@@ -36,7 +36,6 @@ import suwayomi.tachidesk.manga.model.table.ChapterTable
 import suwayomi.tachidesk.manga.model.table.MangaTable
 import suwayomi.tachidesk.manga.model.table.toDataClass
 import java.util.concurrent.ConcurrentHashMap
-import java.util.concurrent.CopyOnWriteArrayList
 import kotlin.time.Duration.Companion.seconds
 
 private val logger = KotlinLogging.logger {}
@@ -50,7 +49,11 @@ object DownloadManager {
     private val downloadScope = CoroutineScope(SupervisorJob() + backgroundDispatcher)
     private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
     private val clients = ConcurrentHashMap<String, WsContext>()
-    private val downloadQueue = CopyOnWriteArrayList<DownloadChapter>()
+
+    // clients that asked for DELTA messages instead of a full status every tick
+    private val deltaClients = ConcurrentHashMap.newKeySet<String>()
+    private val statusTracker = DownloadStatusTracker()
+    private val downloadQueue = DownloadQueue()
     private val downloaders = ConcurrentHashMap<Long, Downloader>()
     private val jsonMapper by DI.global.instance<JsonMapper>()
     private var finishCount: Int = 0
@@ -68,6 +71,7 @@ object DownloadManager {
     fun removeClient(ctx: WsContext) {
         logger.info { "DownloadManager onClose ${ctx.sessionId}" }
         clients.remove(ctx.sessionId)
+        deltaClients.remove(ctx.sessionId)
     }
 
     fun notifyClient(ctx: WsContext) {
@@ -81,12 +85,18 @@ object DownloadManager {
         logger.info { "DownloadManager onMessage ${ctx.message()} from ${ctx.sessionId}" }
         when (ctx.message()) {
             "STATUS" -> notifyClient(ctx)
+            "DELTA" -> {
+                deltaClients.add(ctx.sessionId)
+                notifyClient(ctx)
+            }
             else -> ctx.send(
                 """
                         |Invalid command.
                         |Supported commands are:
                         |    - STATUS
                         |       sends the current download status
+                        |    - DELTA
+                        |       sends the current download status, then only the changes since the previous message
                         |
                 """.trimMargin(),
             )
@@ -108,17 +118,27 @@ object DownloadManager {
     }
 
     private fun sendStatusToAllClients() {
-        val status = getStatus()
-        // logger.info { "DownloadManager sendStatusToAllClients, json:${jsonMapper.toJsonString(status)}" }
-        clients.forEach {
-            it.value.send(status)
+        // always drained, so changes don't pile up while no delta client is connected
+        val delta = statusTracker.drain(downloadQueue::toList, finishCount)
+        val legacyClients = clients.filterKeys { it !in deltaClients }
+        if (legacyClients.isNotEmpty()) {
+            val status = getStatus()
+            // logger.info { "DownloadManager sendStatusToAllClients, json:${jsonMapper.toJsonString(status)}" }
+            legacyClients.forEach {
+                it.value.send(status)
+            }
         }
-        notifyNativeIfNeeded(status)
+        if (delta != null) {
+            deltaClients.forEach {
+                clients[it]?.send(delta)
+            }
+        }
+        notifyNativeIfNeeded()
     }
 
-    private fun notifyNativeIfNeeded(status: DownloadStatus) {
+    private fun notifyNativeIfNeeded() {
         val prev = runningFlag
-        runningFlag = downloadQueue.any { i -> i.state == DownloadState.Downloading }
+        runningFlag = statusTracker.isRunning
         logger.info { "notifyNativeIfNeeded prev=$prev curr=$runningFlag" }
         if (!prev && runningFlag) {
             try {
@@ -140,15 +160,7 @@ object DownloadManager {
     }
 
     private fun getStatus(): DownloadStatus {
-        return DownloadStatus(
-            if (downloadQueue.none { it.state == Downloading }) {
-                "Stopped"
-            } else {
-                "Started"
-            },
-            downloadQueue.toList(),
-            finishCount,
-        )
+        return statusTracker.snapshot(downloadQueue::toList, finishCount)
     }
 
     private val downloaderWatch = MutableSharedFlow<Unit>(extraBufferCapacity = 1, onBufferOverflow = BufferOverflow.DROP_OLDEST)
@@ -168,13 +180,13 @@ object DownloadManager {
         val runningDownloaders = downloaders.values.filter { it.isActive }
         logger.info { "Running: ${runningDownloaders.size}" }
         if (runningDownloaders.size < MAX_SOURCES_IN_PARALLEL) {
-            downloadQueue.asSequence()
-                .filter { it.state == DownloadState.Queued || (it.state == DownloadState.Error && it.tries < 3) }
-                .map { it.manga.sourceId.toLong() }
-                .distinct()
+            downloadQueue
+                .sourceIds { it.state == DownloadState.Queued || (it.state == DownloadState.Error && it.tries < 3) }
                 .minus(
                     runningDownloaders.map { it.sourceId }.toSet(),
                 )
+                // sources that can send a request right away first, queue order otherwise
+                .sortedBy { SourceRateLimits.waitMillis(it) > 0 }
                 .take(MAX_SOURCES_IN_PARALLEL - runningDownloaders.size)
                 .map { getDownloader(it) }
                 .forEach {
@@ -212,12 +224,38 @@ object DownloadManager {
             downloadQueue = downloadQueue,
             notifier = ::notifyAllClients,
             onComplete = ::refreshDownloaders,
+            onDownloadChanged = ::onDownloadChanged,
             onDownloadFinish = ::onDownloadFinish,
         )
     }
 
-    private fun onDownloadFinish() {
+    private fun onDownloadChanged(download: DownloadChapter) {
+        DownloadQueueStore.update(download)
+        statusTracker.changed(download)
+    }
+
+    private fun onDownloadFinish(download: DownloadChapter) {
         finishCount++
+        DownloadQueueStore.remove(listOf(download.chapter.id))
+        statusTracker.removed(listOf(download))
+    }
+
+    /**
+     * Restores the queue persisted by [DownloadQueueStore] before the last restart,
+     * it only starts downloading if it wasn't stopped by the user
+     */
+    fun restoreQueue() {
+        pauseFlag = DownloadQueueStore.isPaused()
+        val downloads = DownloadQueueStore.restore()
+        if (downloads.isEmpty()) {
+            return
+        }
+        statusTracker.added(downloads.filter { downloadQueue.add(it) })
+        logger.info { "restoreQueue size=${downloads.size} paused=$pauseFlag" }
+        if (!pauseFlag) {
+            start()
+        }
+        notifyAllClients()
     }
 
     fun enqueueWithChapterIndex(mangaId: Int, chapterIndex: Int) {
@@ -269,7 +307,10 @@ object DownloadManager {
     fun unqueue(input: EnqueueInput) {
         if (input.chapterIds.isNullOrEmpty()) return
 
-        downloadQueue.removeIf { it.chapter.id in input.chapterIds }
+        val chapterIds = input.chapterIds.toSet()
+        val removed = downloadQueue.removeIf { it.chapter.id in chapterIds }
+        DownloadQueueStore.remove(chapterIds)
+        statusTracker.removed(removed)
 
         notifyAllClients()
     }
@@ -281,6 +322,8 @@ object DownloadManager {
     private fun addMultipleToQueue(inputs: List<Pair<MangaDataClass, ChapterDataClass>>) {
         val addedChapters = inputs.mapNotNull { addToQueue(it.first, it.second) }
         if (addedChapters.isNotEmpty()) {
+            DownloadQueueStore.add(addedChapters)
+            statusTracker.added(addedChapters)
             start()
             notifyAllClients(true)
         }
@@ -291,14 +334,13 @@ object DownloadManager {
      * If chapter is added, returns the created DownloadChapter, otherwise returns null
      */
     private fun addToQueue(manga: MangaDataClass, chapter: ChapterDataClass): DownloadChapter? {
-        if (downloadQueue.none { it.mangaId == manga.id && it.chapterIndex == chapter.index }) {
-            val downloadChapter = DownloadChapter(
-                chapter.index,
-                manga.id,
-                chapter,
-                manga,
-            )
-            downloadQueue.add(downloadChapter)
+        val downloadChapter = DownloadChapter(
+            chapter.index,
+            manga.id,
+            chapter,
+            manga,
+        )
+        if (downloadQueue.add(downloadChapter)) {
             logger.debug { "Added chapter ${chapter.id} to download queue (${manga.title} | ${chapter.name})" }
             return downloadChapter
         }
@@ -307,16 +349,21 @@ object DownloadManager {
     }
 
     fun unqueue(chapterIndex: Int, mangaId: Int) {
-        downloadQueue.removeIf { it.mangaId == mangaId && it.chapterIndex == chapterIndex }
+        val removed = downloadQueue.remove(mangaId, chapterIndex)
+        if (removed != null) {
+            DownloadQueueStore.remove(listOf(removed.chapter.id))
+            statusTracker.removed(listOf(removed))
+        }
         notifyAllClients()
     }
 
     fun reorder(chapterIndex: Int, mangaId: Int, to: Int) {
         require(to >= 0) { "'to' must be over or equal to 0" }
-        val download = downloadQueue.find { it.mangaId == mangaId && it.chapterIndex == chapterIndex }
-            ?: return
-        downloadQueue -= download
-        downloadQueue.add(to, download)
+        if (!downloadQueue.move(mangaId, chapterIndex, to)) {
+            return
+        }
+        DownloadQueueStore.reorder(downloadQueue.toList())
+        statusTracker.reordered()
     }
 
     fun start() {
@@ -324,6 +371,9 @@ object DownloadManager {
         scope.launch {
             downloaderWatch.emit(Unit)
         }
+        if (pauseFlag) {
+            DownloadQueueStore.setPaused(false)
+        }
         pauseFlag = false
     }
 
@@ -336,12 +386,16 @@ object DownloadManager {
             }.awaitAll()
         }
         pauseFlag = true
+        DownloadQueueStore.setPaused(true)
+        DownloadQueueStore.flush()
         notifyAllClients()
     }
 
     suspend fun clear() {
         stop()
+        statusTracker.removed(downloadQueue.toList())
         downloadQueue.clear()
+        DownloadQueueStore.clear()
         notifyAllClients()
     }
 
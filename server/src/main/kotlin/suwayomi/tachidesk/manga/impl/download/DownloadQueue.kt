@@ -0,0 +1,180 @@
+package suwayomi.tachidesk.manga.impl.download
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import suwayomi.tachidesk.manga.impl.download.model.DownloadChapter
+import java.util.TreeMap
+
+/**
+ * Download queue indexed by (mangaId, chapterIndex) and split into one sub-queue per source.
+ *
+ * Every entry gets a sort key, the global order and the per-source order are both [TreeMap]s over that key,
+ * so add/remove/contains don't scan or copy the whole queue. Moving an entry takes a key between its new
+ * neighbours; keys are only renumbered when two neighbours run out of room.
+ */
+class DownloadQueue {
+    private data class Key(val mangaId: Int, val chapterIndex: Int)
+
+    private class Entry(val download: DownloadChapter, val sourceId: Long, var order: Long)
+
+    private val index = HashMap<Key, Entry>()
+    private val global = TreeMap<Long, Entry>()
+    private val bySource = HashMap<Long, TreeMap<Long, Entry>>()
+
+    val size: Int
+        get() = synchronized(this) { index.size }
+
+    fun isEmpty() = size == 0
+
+    fun isNotEmpty() = !isEmpty()
+
+    fun contains(mangaId: Int, chapterIndex: Int): Boolean = synchronized(this) {
+        index.containsKey(Key(mangaId, chapterIndex))
+    }
+
+    operator fun contains(download: DownloadChapter): Boolean = synchronized(this) {
+        index[Key(download.mangaId, download.chapterIndex)]?.download === download
+    }
+
+    fun get(mangaId: Int, chapterIndex: Int): DownloadChapter? = synchronized(this) {
+        index[Key(mangaId, chapterIndex)]?.download
+    }
+
+    /** appends [download] to the end of the queue, returns false if the chapter is already queued */
+    fun add(download: DownloadChapter): Boolean = synchronized(this) {
+        val key = Key(download.mangaId, download.chapterIndex)
+        if (index.containsKey(key)) {
+            return false
+        }
+        val order = if (global.isEmpty()) 0L else global.lastKey() + ORDER_STEP
+        val entry = Entry(download, download.manga.sourceId.toLong(), order)
+        index[key] = entry
+        global[order] = entry
+        bySource.getOrPut(entry.sourceId) { TreeMap() }[order] = entry
+        true
+    }
+
+    fun remove(mangaId: Int, chapterIndex: Int): DownloadChapter? = synchronized(this) {
+        val entry = index.remove(Key(mangaId, chapterIndex)) ?: return null
+        unlink(entry)
+        entry.download
+    }
+
+    fun removeIf(predicate: (DownloadChapter) -> Boolean): List<DownloadChapter> = synchronized(this) {
+        val removed = global.values.filter { predicate(it.download) }
+        removed.forEach {
+            index.remove(Key(it.download.mangaId, it.download.chapterIndex))
+            unlink(it)
+        }
+        removed.map { it.download }
+    }
+
+    fun clear() = synchronized(this) {
+        index.clear()
+        global.clear()
+        bySource.clear()
+    }
+
+    /** moves the chapter to position [to] of the whole queue, returns false if it isn't queued */
+    fun move(mangaId: Int, chapterIndex: Int, to: Int): Boolean = synchronized(this) {
+        val entry = index[Key(mangaId, chapterIndex)] ?: return false
+        unlink(entry)
+        val target = to.coerceIn(0, global.size)
+        var order = orderAt(target)
+        if (order == null) {
+            renumber()
+            order = orderAt(target)!!
+        }
+        entry.order = order
+        global[order] = entry
+        bySource.getOrPut(entry.sourceId) { TreeMap() }[order] = entry
+        true
+    }
+
+    fun toList(): List<DownloadChapter> = synchronized(this) {
+        global.values.map { it.download }
+    }
+
+    fun forEach(action: (DownloadChapter) -> Unit) = toList().forEach(action)
+
+    fun count(predicate: (DownloadChapter) -> Boolean): Int = synchronized(this) {
+        global.values.count { predicate(it.download) }
+    }
+
+    fun any(predicate: (DownloadChapter) -> Boolean): Boolean = synchronized(this) {
+        global.values.any { predicate(it.download) }
+    }
+
+    fun none(predicate: (DownloadChapter) -> Boolean) = !any(predicate)
+
+    /** the sources that have at least one download matching [predicate], in queue order */
+    fun sourceIds(predicate: (DownloadChapter) -> Boolean): List<Long> = synchronized(this) {
+        bySource.entries
+            .mapNotNull { (sourceId, queue) ->
+                queue.values.firstOrNull { predicate(it.download) }?.let { sourceId to it.order }
+            }
+            .sortedBy { it.second }
+            .map { it.first }
+    }
+
+    fun firstOrNull(sourceId: Long, predicate: (DownloadChapter) -> Boolean): DownloadChapter? = synchronized(this) {
+        bySource[sourceId]?.values?.firstOrNull { predicate(it.download) }?.download
+    }
+
+    fun take(sourceId: Long, n: Int, predicate: (DownloadChapter) -> Boolean): List<DownloadChapter> = synchronized(this) {
+        val queue = bySource[sourceId] ?: return emptyList()
+        queue.values.asSequence().map { it.download }.filter(predicate).take(n).toList()
+    }
+
+    fun sourceQueue(sourceId: Long): List<DownloadChapter> = synchronized(this) {
+        bySource[sourceId]?.values?.map { it.download }.orEmpty()
+    }
+
+    private fun unlink(entry: Entry) {
+        global.remove(entry.order)
+        val queue = bySource[entry.sourceId] ?: return
+        queue.remove(entry.order)
+        if (queue.isEmpty()) {
+            bySource.remove(entry.sourceId)
+        }
+    }
+
+    /** a free key that sorts right before the entry currently at [position], or null if there is no room */
+    private fun orderAt(position: Int): Long? {
+        if (global.isEmpty()) {
+            return 0L
+        }
+        if (position >= global.size) {
+            return global.lastKey() + ORDER_STEP
+        }
+        if (position == 0) {
+            return global.firstKey() - ORDER_STEP
+        }
+        // walking the keys is still much cheaper than copying the whole array
+        val keys = global.keys.iterator()
+        var prev = keys.next()
+        repeat(position - 1) { prev = keys.next() }
+        val next = keys.next()
+        return if (next - prev > 1) prev + (next - prev) / 2 else null
+    }
+
+    private fun renumber() {
+        val entries = global.values.toList()
+        global.clear()
+        bySource.values.forEach { it.clear() }
+        entries.forEachIndexed { i, entry ->
+            entry.order = i * ORDER_STEP
+            global[entry.order] = entry
+            bySource.getValue(entry.sourceId)[entry.order] = entry
+        }
+    }
+
+    companion object {
+        private const val ORDER_STEP = 1L shl 20
+    }
+}
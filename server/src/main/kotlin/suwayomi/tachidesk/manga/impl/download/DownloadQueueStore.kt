@@ -0,0 +1,241 @@
+package suwayomi.tachidesk.manga.impl.download
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.BufferOverflow
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.sample
+import kotlinx.coroutines.launch
+import mu.KotlinLogging
+import org.jetbrains.exposed.sql.SortOrder
+import org.jetbrains.exposed.sql.SqlExpressionBuilder.inList
+import org.jetbrains.exposed.sql.deleteAll
+import org.jetbrains.exposed.sql.deleteWhere
+import org.jetbrains.exposed.sql.select
+import org.jetbrains.exposed.sql.selectAll
+import org.jetbrains.exposed.sql.statements.jdbc.JdbcConnectionImpl
+import org.jetbrains.exposed.sql.transactions.TransactionManager
+import org.jetbrains.exposed.sql.transactions.transaction
+import suwayomi.tachidesk.global.impl.GlobalMeta
+import suwayomi.tachidesk.manga.impl.download.model.DownloadChapter
+import suwayomi.tachidesk.manga.impl.download.model.DownloadState
+import suwayomi.tachidesk.manga.model.table.ChapterTable
+import suwayomi.tachidesk.manga.model.table.DownloadQueueTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
+import suwayomi.tachidesk.manga.model.table.SettingKey
+import suwayomi.tachidesk.manga.model.table.toDataClass
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.time.Duration.Companion.seconds
+
+/**
+ * Write-through persistence of the download queue.
+ * Changes are collected in memory and written to [DownloadQueueTable] in one batch at most once per second,
+ * so progress ticks of a running download don't turn into one statement each.
+ */
+object DownloadQueueStore {
+    private val logger = KotlinLogging.logger {}
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    private val positions = ConcurrentHashMap<Int, Long>()
+    private val nextPosition = AtomicLong(0)
+
+    private val dirty = ConcurrentHashMap<Int, DownloadChapter>()
+    private val removed = ConcurrentHashMap.newKeySet<Int>()
+    private val flushLock = Any()
+
+    private val flushFlow = MutableSharedFlow<Unit>(extraBufferCapacity = 1, onBufferOverflow = BufferOverflow.DROP_OLDEST)
+
+    init {
+        scope.launch {
+            flushFlow.sample(1.seconds).collect {
+                try {
+                    flush()
+                } catch (e: Exception) {
+                    logger.error(e) { "flush download queue error" }
+                }
+            }
+        }
+    }
+
+    fun add(downloads: List<DownloadChapter>) {
+        downloads.forEach {
+            positions[it.chapter.id] = nextPosition.getAndIncrement()
+            removed.remove(it.chapter.id)
+            dirty[it.chapter.id] = it
+        }
+        scheduleFlush()
+    }
+
+    fun update(download: DownloadChapter) {
+        if (!positions.containsKey(download.chapter.id)) {
+            return
+        }
+        dirty[download.chapter.id] = download
+        scheduleFlush()
+    }
+
+    fun remove(chapterIds: Collection<Int>) {
+        chapterIds.forEach {
+            positions.remove(it)
+            dirty.remove(it)
+            removed.add(it)
+        }
+        scheduleFlush()
+    }
+
+    /** persists the current order of the whole queue */
+    fun reorder(queue: List<DownloadChapter>) {
+        queue.forEach {
+            positions[it.chapter.id] = nextPosition.getAndIncrement()
+            dirty[it.chapter.id] = it
+        }
+        scheduleFlush()
+    }
+
+    fun clear() {
+        synchronized(flushLock) {
+            positions.clear()
+            dirty.clear()
+            removed.clear()
+            transaction {
+                DownloadQueueTable.deleteAll()
+            }
+        }
+    }
+
+    private fun scheduleFlush() {
+        flushFlow.tryEmit(Unit)
+    }
+
+    fun flush() {
+        synchronized(flushLock) {
+            if (dirty.isEmpty() && removed.isEmpty()) {
+                return
+            }
+            val toRemove = removed.toList()
+            removed.removeAll(toRemove.toSet())
+            val toUpsert = dirty.keys.toList().mapNotNull { dirty.remove(it) }
+
+            val now = System.currentTimeMillis()
+            transaction {
+                if (toRemove.isNotEmpty()) {
+                    toRemove.chunked(500).forEach { ids ->
+                        DownloadQueueTable.deleteWhere { DownloadQueueTable.chapter inList ids }
+                    }
+                }
+                if (toUpsert.isNotEmpty()) {
+                    val conn = (TransactionManager.current().connection as JdbcConnectionImpl).connection
+                    conn.prepareStatement(UPSERT_SQL).use { statement ->
+                        toUpsert.forEach { download ->
+                            val position = positions[download.chapter.id] ?: return@forEach
+                            statement.setInt(1, download.chapter.id)
+                            statement.setInt(2, download.mangaId)
+                            statement.setInt(3, download.chapterIndex)
+                            statement.setLong(4, position)
+                            statement.setInt(5, download.state.state)
+                            statement.setInt(6, download.tries)
+                            statement.setString(7, download.error?.take(256))
+                            statement.setFloat(8, download.progress)
+                            statement.setLong(9, now)
+                            statement.setLong(10, now)
+                            statement.addBatch()
+                        }
+                        statement.executeBatch()
+                    }
+                }
+            }
+            logger.debug { "flush download queue upsert=${toUpsert.size} remove=${toRemove.size}" }
+        }
+    }
+
+    /**
+     * Loads the queue persisted by the previous run.
+     * A download that was running when the process died is put back into [DownloadState.Queued],
+     * pages already written to disk are skipped by [FolderProvider2.download] when it resumes.
+     */
+    fun restore(): List<DownloadChapter> {
+        val rows = transaction {
+            DownloadQueueTable.selectAll()
+                .orderBy(DownloadQueueTable.position to SortOrder.ASC)
+                .toList()
+        }
+        if (rows.isEmpty()) {
+            return emptyList()
+        }
+
+        val chapterIds = rows.map { it[DownloadQueueTable.chapter] }
+        val chapterMap = transaction {
+            chapterIds.chunked(500).flatMap { ids ->
+                ChapterTable.select { ChapterTable.id inList ids }.toList()
+            }.associateBy { it[ChapterTable.id].value }
+        }
+        val mangaIds = chapterMap.values.map { it[ChapterTable.manga].value }.distinct()
+        val mangaMap = transaction {
+            mangaIds.chunked(500).flatMap { ids ->
+                MangaTable.select { MangaTable.id inList ids }.toList()
+            }.associate { it[MangaTable.id].value to MangaTable.toDataClass(it) }
+        }
+
+        val stale = mutableListOf<Int>()
+        val downloads = rows.mapNotNull { row ->
+            val chapterId = row[DownloadQueueTable.chapter]
+            val chapterEntry = chapterMap[chapterId]
+            val manga = chapterEntry?.let { mangaMap[it[ChapterTable.manga].value] }
+            val state = DownloadState.values().firstOrNull { it.state == row[DownloadQueueTable.state] }
+            if (chapterEntry == null || manga == null || state == DownloadState.Finished) {
+                stale.add(chapterId)
+                return@mapNotNull null
+            }
+            val chapter = ChapterTable.toDataClass(chapterEntry)
+            positions[chapterId] = row[DownloadQueueTable.position]
+            DownloadChapter(
+                chapterIndex = chapter.index,
+                mangaId = manga.id,
+                chapter = chapter,
+                manga = manga,
+                state = if (state == DownloadState.Error) DownloadState.Error else DownloadState.Queued,
+                error = row[DownloadQueueTable.error],
+                progress = row[DownloadQueueTable.progress],
+                tries = row[DownloadQueueTable.tries],
+            )
+        }
+        nextPosition.set((rows.maxOf { it[DownloadQueueTable.position] }) + 1)
+
+        if (stale.isNotEmpty()) {
+            remove(stale)
+        }
+        logger.info { "restore download queue size=${downloads.size} stale=${stale.size}" }
+        return downloads
+    }
+
+    /** whether the queue was stopped by the user, a paused queue is restored without starting it */
+    fun isPaused(): Boolean {
+        return GlobalMeta.getValue(SettingKey.DownloadQueuePaused.name) == "1"
+    }
+
+    fun setPaused(paused: Boolean) {
+        GlobalMeta.modifyMeta(SettingKey.DownloadQueuePaused.name, if (paused) "1" else "0")
+    }
+
+    private const val UPSERT_SQL = """
+        INSERT INTO DownloadQueue (chapter, manga, chapter_index, position, state, tries, error, progress, create_at, update_at)
+        VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)
+        ON CONFLICT(chapter) DO UPDATE SET
+            chapter_index = excluded.chapter_index,
+            position = excluded.position,
+            state = excluded.state,
+            tries = excluded.tries,
+            error = excluded.error,
+            progress = excluded.progress,
+            update_at = excluded.update_at
+    """
+}
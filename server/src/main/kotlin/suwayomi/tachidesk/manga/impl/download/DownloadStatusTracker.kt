@@ -0,0 +1,123 @@
+package suwayomi.tachidesk.manga.impl.download
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import suwayomi.tachidesk.manga.impl.download.model.DownloadChapter
+import suwayomi.tachidesk.manga.impl.download.model.DownloadChapterUpdate
+import suwayomi.tachidesk.manga.impl.download.model.DownloadState
+import suwayomi.tachidesk.manga.impl.download.model.DownloadStatus
+import suwayomi.tachidesk.manga.impl.download.model.DownloadStatusDelta
+
+/**
+ * Records what changed in the download queue since the last status message,
+ * so a tick only serializes the changed chapters instead of the whole queue.
+ */
+class DownloadStatusTracker {
+    private var version = 0L
+    private val added = LinkedHashMap<Int, DownloadChapter>()
+    private val removed = LinkedHashSet<Int>()
+    private val changed = LinkedHashMap<Int, DownloadChapter>()
+    private var reordered = false
+
+    // progress of running downloads changes without a state change, they are always part of a delta
+    private val running = LinkedHashMap<Int, DownloadChapter>()
+    private var lastStatus: String? = null
+    private var lastFinishCount = -1
+
+    val isRunning: Boolean
+        get() = synchronized(this) { running.isNotEmpty() }
+
+    private val status: String
+        get() = if (running.isEmpty()) "Stopped" else "Started"
+
+    fun added(downloads: List<DownloadChapter>) = synchronized(this) {
+        downloads.forEach {
+            removed.remove(it.chapter.id)
+            added[it.chapter.id] = it
+        }
+    }
+
+    fun removed(downloads: List<DownloadChapter>) = synchronized(this) {
+        downloads.forEach {
+            running.remove(it.chapter.id)
+            changed.remove(it.chapter.id)
+            if (added.remove(it.chapter.id) == null) {
+                removed.add(it.chapter.id)
+            }
+        }
+    }
+
+    fun changed(download: DownloadChapter) = synchronized(this) {
+        if (download.state == DownloadState.Downloading) {
+            running[download.chapter.id] = download
+        } else {
+            running.remove(download.chapter.id)
+        }
+        if (!added.containsKey(download.chapter.id)) {
+            changed[download.chapter.id] = download
+        }
+    }
+
+    fun reordered() = synchronized(this) {
+        reordered = true
+    }
+
+    /**
+     * A full snapshot at the current version. Pending changes are already part of it and are sent again
+     * in the next delta, so clients apply deltas idempotently (added = upsert, removed = delete if present).
+     */
+    fun snapshot(queue: () -> List<DownloadChapter>, finishCount: Int): DownloadStatus = synchronized(this) {
+        val list = queue()
+        val status = if (list.none { it.state == DownloadState.Downloading }) "Stopped" else "Started"
+        DownloadStatus(status, list, finishCount, version)
+    }
+
+    /** the changes since the previous delta or snapshot, null if nothing changed */
+    fun drain(queue: () -> List<DownloadChapter>, finishCount: Int): DownloadStatusDelta? = synchronized(this) {
+        if (added.isEmpty() && removed.isEmpty() && changed.isEmpty() && running.isEmpty() && !reordered &&
+            lastStatus == status && lastFinishCount == finishCount
+        ) {
+            return null
+        }
+        val updated = LinkedHashMap<Int, DownloadChapter>()
+        updated.putAll(changed)
+        updated.putAll(running)
+        val delta = DownloadStatusDelta(
+            version = version + 1,
+            baseVersion = version,
+            status = status,
+            finishCount = finishCount,
+            added = added.values.toList(),
+            removed = removed.toList(),
+            updated = updated.values.map {
+                DownloadChapterUpdate(
+                    chapterId = it.chapter.id,
+                    mangaId = it.mangaId,
+                    chapterIndex = it.chapterIndex,
+                    state = it.state,
+                    progress = it.progress,
+                    tries = it.tries,
+                    error = it.error,
+                )
+            },
+            order = if (reordered) queue().map { it.chapter.id } else null,
+        )
+        clearPending()
+        version++
+        lastStatus = status
+        lastFinishCount = finishCount
+        delta
+    }
+
+    private fun clearPending() {
+        added.clear()
+        removed.clear()
+        changed.clear()
+        reordered = false
+    }
+}
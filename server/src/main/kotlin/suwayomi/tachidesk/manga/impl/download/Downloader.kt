@@ -12,6 +12,7 @@ import kotlinx.coroutines.*
 import mu.KotlinLogging
 import org.jetbrains.exposed.sql.transactions.transaction
 import org.jetbrains.exposed.sql.update
+import suwayomi.tachidesk.manga.impl.chapter.ChapterPageContexts
 import suwayomi.tachidesk.manga.impl.chapter.getChapterDownloadReady
 import suwayomi.tachidesk.manga.impl.download.model.DownloadChapter
 import suwayomi.tachidesk.manga.impl.download.model.DownloadState.Downloading
@@ -19,7 +20,6 @@ import suwayomi.tachidesk.manga.impl.download.model.DownloadState.Error
 import suwayomi.tachidesk.manga.impl.download.model.DownloadState.Finished
 import suwayomi.tachidesk.manga.impl.download.model.DownloadState.Queued
 import suwayomi.tachidesk.manga.model.table.ChapterTable
-import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.locks.ReentrantLock
 
 private val logger = KotlinLogging.logger {}
@@ -27,10 +27,11 @@ private val logger = KotlinLogging.logger {}
 class Downloader(
     private val scope: CoroutineScope,
     val sourceId: Long,
-    private val downloadQueue: CopyOnWriteArrayList<DownloadChapter>,
+    private val downloadQueue: DownloadQueue,
     private val notifier: (immediate: Boolean) -> Unit,
     private val onComplete: () -> Unit,
-    private val onDownloadFinish: () -> Unit,
+    private val onDownloadChanged: (DownloadChapter) -> Unit,
+    private val onDownloadFinish: (DownloadChapter) -> Unit,
 ) {
     private val jobs = mutableListOf<Job>()
     private val lock = ReentrantLock()
@@ -50,7 +51,8 @@ class Downloader(
         currentCoroutineContext().ensureActive()
 
         if (download != null) {
-            val topDownloads = downloadQueue.filter { it.manga.sourceId.toLong() == sourceId && it.state != Error }.take(activeJobsCount)
+            onDownloadChanged(download)
+            val topDownloads = downloadQueue.take(sourceId, activeJobsCount) { it.state != Error }
             if (!topDownloads.contains(download)) {
                 if (download in downloadQueue) {
                     throw PauseDownloadException()
@@ -68,7 +70,7 @@ class Downloader(
     fun printDownloadAll() {
         logger.info("activeJobsCount=$activeJobsCount")
         logger.info("jobs.size=${jobs.size}")
-        downloadQueue.filter { it.manga.sourceId.toLong() == sourceId }
+        downloadQueue.sourceQueue(sourceId)
             .forEach {
                 printDownload(it)
             }
@@ -127,9 +129,8 @@ class Downloader(
         while (downloadQueue.isNotEmpty() && currentCoroutineContext().isActive) {
             lock.lock()
             val download = try {
-                val d = downloadQueue.firstOrNull {
-                    it.manga.sourceId.toLong() == sourceId &&
-                        (it.state == Queued || (it.state == Error && it.tries < 3)) // 3 re-tries per download
+                val d = downloadQueue.firstOrNull(sourceId) {
+                    it.state == Queued || (it.state == Error && it.tries < 3) // 3 re-tries per download
                 } ?: break
                 d.state = Downloading
                 d
@@ -155,22 +156,28 @@ class Downloader(
                         it[isDownloaded] = true
                     }
                 }
+                ChapterPageContexts.invalidateChapter(download.chapter.id)
                 step(download, true)
                 delay(300)
-                downloadQueue.removeIf { it.mangaId == download.mangaId && it.chapterIndex == download.chapterIndex }
-                onDownloadFinish()
+                downloadQueue.remove(download.mangaId, download.chapterIndex)
+                onDownloadFinish(download)
                 step(null, false)
             } catch (e: CancellationException) {
                 logger.debug("[Downloader] Downloader was stopped")
-                downloadQueue.filter { it.state == Downloading }.forEach { it.state = Queued }
+                downloadQueue.toList().filter { it.state == Downloading }.forEach {
+                    it.state = Queued
+                    onDownloadChanged(it)
+                }
             } catch (e: PauseDownloadException) {
                 logger.info("[Downloader] PauseDownloadException")
                 download.state = Queued
+                onDownloadChanged(download)
             } catch (e: Throwable) {
                 logger.info("[Downloader] Downloader faced an exception", e)
                 download.tries++
                 download.state = Error
                 download.error = e.message
+                onDownloadChanged(download)
             } finally {
                 notifier(false)
             }
@@ -67,7 +67,7 @@ class FolderProvider(mangaId: Int, chapterId: Int) : DownloadedFilesProvider(man
                             step(null, false) // don't throw on canceled download here since we can't do anything
                         }
                         .launchIn(scope)
-                }.first.use { image ->
+                }.open().use { image ->
                     val filePath = "$chapterDir/$fileName"
                     ImageResponse.saveImage(filePath, image)
                 }
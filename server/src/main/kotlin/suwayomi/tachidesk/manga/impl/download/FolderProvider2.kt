@@ -7,13 +7,17 @@ package suwayomi.tachidesk.manga.impl.download
  * License, v. 2.0. If a copy of the MPL was not distributed with this
  * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 
+import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.FlowPreview
 import kotlinx.coroutines.Job
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.distinctUntilChanged
 import kotlinx.coroutines.flow.launchIn
 import kotlinx.coroutines.flow.onEach
 import kotlinx.coroutines.flow.sample
+import kotlinx.coroutines.launch
 import kotlinx.serialization.json.Json
 import mu.KotlinLogging
 import org.kodein.di.DI
@@ -26,9 +30,17 @@ import suwayomi.tachidesk.manga.impl.util.getChapterDownloadPath
 import suwayomi.tachidesk.manga.impl.util.getChapterDownloadPath2
 import suwayomi.tachidesk.manga.impl.util.getMangaDownloadPath
 import suwayomi.tachidesk.manga.impl.util.getMangaDownloadPath2
+import suwayomi.tachidesk.manga.impl.util.source.SourceConfig
+import suwayomi.tachidesk.manga.impl.util.source.SourceRateLimits
+import suwayomi.tachidesk.manga.impl.util.storage.ImageResponse
+import suwayomi.tachidesk.manga.impl.util.storage.ImageUtil
+import suwayomi.tachidesk.manga.impl.util.storage.ResponseImage
 import java.io.File
-import java.io.FileInputStream
-import java.io.InputStream
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.time.Duration.Companion.seconds
+
+private val PAGE_RETRY_DELAYS = listOf(2.seconds, 4.seconds, 8.seconds)
 
 class FolderProvider2(val mangaId: Int, val chapterId: Int, private val originalChapterId: Int?) {
     private val realChapterId
@@ -37,12 +49,21 @@ class FolderProvider2(val mangaId: Int, val chapterId: Int, private val original
     private val logger = KotlinLogging.logger {}
     private val json by DI.global.instance<Json>()
 
-    fun getImage(index: Int): Pair<InputStream, String>? {
-        val file = getImageFile(index)
-        if (file != null) {
-            return Pair(FileInputStream(file).buffered(), "image/jpeg")
+    fun getImage(index: Int): ResponseImage? {
+        val v2 = getImageV2(index)
+        if (v2 != null) {
+            return ImageResponse.fileImage(v2, pageTypes().getOrNull(index))
         }
-        return null
+        return getImageV1(index)?.let { ImageResponse.fileImage(it) }
+    }
+
+    /** content types of the pages detected at download time, empty for chapters downloaded before they were kept */
+    private fun pageTypes(): List<String> {
+        val chapterDir = getChapterDownloadPath2(mangaId, realChapterId)
+        synchronized(pageTypeCache) { pageTypeCache[chapterDir] }?.let { return it }
+        val pageTypes = readMetadata()?.pageTypes.orEmpty()
+        synchronized(pageTypeCache) { pageTypeCache[chapterDir] = pageTypes }
+        return pageTypes
     }
 
     fun getImageFile(index: Int): File? {
@@ -83,7 +104,6 @@ class FolderProvider2(val mangaId: Int, val chapterId: Int, private val original
         return file
     }
 
-    @OptIn(FlowPreview::class)
     suspend fun download(
         download: DownloadChapter,
         scope: CoroutineScope,
@@ -95,35 +115,32 @@ class FolderProvider2(val mangaId: Int, val chapterId: Int, private val original
         val folder = File(chapterDir)
         folder.mkdirs()
 
-        for (pageNum in 0 until pageCount) {
-            var pageProgressJob: Job? = null
-            val filePath = "$chapterDir/$pageNum"
-            val file = File(filePath)
-            if (file.exists()) continue
-            try {
-                Page.getPageImage(
-                    mangaId = download.mangaId,
-                    chapterIndex = download.chapterIndex,
-                    index = pageNum,
-                ) { flow ->
-                    pageProgressJob = flow
-                        .sample(100)
-                        .distinctUntilChanged()
-                        .onEach {
-                            download.progress = (pageNum.toFloat() + (it.toFloat() * 0.01f)) / pageCount
-                            step(null, false) // don't throw on canceled download here since we can't do anything
-                        }
-                        .launchIn(scope)
-                }.first.use { image ->
-                    image.use { input -> file.outputStream().use { output -> input.copyTo(output) } }
+        // pages written by a previous (interrupted) attempt are kept
+        val pendingPages = (0 until pageCount).filter { !File("$chapterDir/$it").exists() }
+        val pageProgress = FloatArray(pageCount) { 1f }
+        pendingPages.forEach { pageProgress[it] = 0f }
+        updateProgress(download, pageProgress, null, 0f)
+
+        // pages are still fetched through source.client, so the rate limit interceptors of the source apply.
+        // waiting for capacity here first keeps the downloader threads from sleeping inside the interceptor
+        val sourceId = download.manga.sourceId.toLong()
+        val concurrency = SourceConfig.getPageConcurrency(sourceId)
+            .coerceAtMost(pendingPages.size)
+        logger.info { "[DOWNLOAD] pending pages ${pendingPages.size}/$pageCount concurrency=$concurrency" }
+
+        val nextPage = AtomicInteger(0)
+        coroutineScope {
+            repeat(concurrency) {
+                launch {
+                    while (true) {
+                        val pageNum = pendingPages.getOrNull(nextPage.getAndIncrement()) ?: break
+                        SourceRateLimits.awaitCapacity(sourceId)
+                        downloadPageWithRetry(download, scope, step, chapterDir, pageNum, pageProgress)
+                        updateProgress(download, pageProgress, pageNum, 1f)
+                        step(download, false)
+                    }
                 }
-            } finally {
-                // always cancel the page progress job even if it throws an exception to avoid memory leaks
-                pageProgressJob?.cancel()
             }
-            // TODO: retry on error with 2,4,8 seconds of wait
-            download.progress = ((pageNum + 1).toFloat()) / pageCount
-            step(download, false)
         }
         try {
             createMetadataFile(chapterDir, download)
@@ -133,16 +150,98 @@ class FolderProvider2(val mangaId: Int, val chapterId: Int, private val original
         return true
     }
 
+    private suspend fun downloadPageWithRetry(
+        download: DownloadChapter,
+        scope: CoroutineScope,
+        step: suspend (DownloadChapter?, Boolean) -> Unit,
+        chapterDir: String,
+        pageNum: Int,
+        pageProgress: FloatArray,
+    ) {
+        var attempt = 0
+        while (true) {
+            try {
+                downloadPage(download, scope, step, chapterDir, pageNum, pageProgress)
+                return
+            } catch (e: CancellationException) {
+                throw e
+            } catch (e: Exception) {
+                val wait = PAGE_RETRY_DELAYS.getOrNull(attempt++) ?: throw e
+                logger.warn { "[DOWNLOAD] page $pageNum failed (${e.message}), retry $attempt in $wait" }
+                delay(wait)
+            }
+        }
+    }
+
+    @OptIn(FlowPreview::class)
+    private suspend fun downloadPage(
+        download: DownloadChapter,
+        scope: CoroutineScope,
+        step: suspend (DownloadChapter?, Boolean) -> Unit,
+        chapterDir: String,
+        pageNum: Int,
+        pageProgress: FloatArray,
+    ) {
+        var pageProgressJob: Job? = null
+        val file = File("$chapterDir/$pageNum")
+        // write to a temporary file first, so an interrupted page is never taken for a downloaded one
+        val tmpFile = File("$chapterDir/$pageNum.tmp")
+        try {
+            Page.getPageImage(
+                mangaId = download.mangaId,
+                chapterIndex = download.chapterIndex,
+                index = pageNum,
+            ) { flow ->
+                pageProgressJob = flow
+                    .sample(100)
+                    .distinctUntilChanged()
+                    .onEach {
+                        updateProgress(download, pageProgress, pageNum, it.toFloat() * 0.01f)
+                        step(null, false) // don't throw on canceled download here since we can't do anything
+                    }
+                    .launchIn(scope)
+            }.open().use { image ->
+                image.use { input -> tmpFile.outputStream().use { output -> input.copyTo(output) } }
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw IOException("rename ${tmpFile.name} failed")
+            }
+        } finally {
+            // always cancel the page progress job even if it throws an exception to avoid memory leaks
+            pageProgressJob?.cancel()
+            tmpFile.delete()
+        }
+    }
+
+    /**
+     * Pages finish out of order when fetched concurrently, so the chapter progress is derived from
+     * the progress of every page and never goes backwards.
+     */
+    private fun updateProgress(download: DownloadChapter, pageProgress: FloatArray, pageNum: Int?, value: Float) {
+        synchronized(pageProgress) {
+            if (pageNum != null) {
+                pageProgress[pageNum] = maxOf(pageProgress[pageNum], value)
+            }
+            download.progress = if (pageProgress.isEmpty()) 0f else pageProgress.sum() / pageProgress.size
+        }
+    }
+
     private fun createMetadataFile(chapterDir: String, chapter: DownloadChapter) {
         val metadataFile = File("$chapterDir/.metadata")
+        val pageCount = chapter.chapter.pageCount
         val metadata = DownloadChapterMetadata(
             mangaId = mangaId,
             chapterId = chapterId,
             originalChapterId = originalChapterId,
-            pageCount = chapter.chapter.pageCount,
+            pageCount = pageCount,
+            pageTypes = (0 until pageCount).map { index ->
+                val file = File("$chapterDir/$index")
+                file.takeIf { it.exists() }?.let { ImageUtil.findImageType { it.inputStream() }?.mime } ?: "image/jpeg"
+            },
         )
         val jsonString = json.encodeToString(metadata)
         metadataFile.writeText(jsonString)
+        synchronized(pageTypeCache) { pageTypeCache.remove(chapterDir) }
     }
 
     fun readMetadata(): DownloadChapterMetadata? {
@@ -174,6 +273,7 @@ class FolderProvider2(val mangaId: Int, val chapterId: Int, private val original
         // v2
         val chapterDir = getChapterDownloadPath2(mangaId, realChapterId)
         logger.info { "[DOWNLOAD] download delete $chapterDir chapterId=$chapterId" }
+        synchronized(pageTypeCache) { pageTypeCache.remove(chapterDir) }
         return File(chapterDir).deleteRecursively()
     }
 
@@ -189,6 +289,18 @@ class FolderProvider2(val mangaId: Int, val chapterId: Int, private val original
         // v2
         val mangaDir = getMangaDownloadPath2(mangaId)
         logger.info { "[DOWNLOAD] download deleteAll $mangaDir" }
+        synchronized(pageTypeCache) { pageTypeCache.keys.removeIf { it.startsWith("$mangaDir/") } }
         return File(mangaDir).deleteRecursively()
     }
+
+    companion object {
+        private const val MAX_PAGE_TYPES = 32
+
+        /** page content types of the recently read chapters, by chapter dir */
+        private val pageTypeCache = object : LinkedHashMap<String, List<String>>(MAX_PAGE_TYPES, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, List<String>>?): Boolean {
+                return size > MAX_PAGE_TYPES
+            }
+        }
+    }
 }
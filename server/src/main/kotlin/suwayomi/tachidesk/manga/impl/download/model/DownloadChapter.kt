@@ -30,4 +30,6 @@ class DownloadChapterMetadata(
     val chapterId: Int,
     val originalChapterId: Int? = null,
     val pageCount: Int,
+    /** content type of every page, detected when the chapter was downloaded */
+    val pageTypes: List<String>? = null,
 )
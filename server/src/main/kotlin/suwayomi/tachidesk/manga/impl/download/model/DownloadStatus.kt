@@ -12,4 +12,7 @@ data class DownloadStatus(
     val status: String,
     val queue: List<DownloadChapter>,
     val finishCount: Int,
+    /** version of the queue this snapshot was taken at, deltas sent afterwards are based on it */
+    val version: Long = 0,
+    val type: String = "STATUS",
 )
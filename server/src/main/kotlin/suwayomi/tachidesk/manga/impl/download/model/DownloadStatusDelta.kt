@@ -0,0 +1,36 @@
+package suwayomi.tachidesk.manga.impl.download.model
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+/**
+ * Changes of the download queue between [baseVersion] and [version].
+ * A client whose last seen version is not [baseVersion] missed a message and should send STATUS to resync.
+ */
+data class DownloadStatusDelta(
+    val type: String = "DELTA",
+    val version: Long,
+    val baseVersion: Long,
+    val status: String,
+    val finishCount: Int,
+    val added: List<DownloadChapter>,
+    /** chapter ids */
+    val removed: List<Int>,
+    val updated: List<DownloadChapterUpdate>,
+    /** chapter ids of the whole queue, only sent when the queue was reordered */
+    val order: List<Int>? = null,
+)
+
+data class DownloadChapterUpdate(
+    val chapterId: Int,
+    val mangaId: Int,
+    val chapterIndex: Int,
+    val state: DownloadState,
+    val progress: Float,
+    val tries: Int,
+    val error: String?,
+)
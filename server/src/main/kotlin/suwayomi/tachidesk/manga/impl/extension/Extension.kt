@@ -285,6 +285,8 @@ object Extension {
             if (setNeedSync) {
                 Sync.setNeedsSync()
             }
+            // the installed version decides hasUpdate, so the repo indexes have to be applied again
+            ExtensionsList.invalidateAppliedIndexes()
             return 201 // we installed successfully
         } else {
             return 302 // extension was already installed
@@ -436,6 +438,7 @@ object Extension {
 
             File(jarPath).delete()
         }
+        ExtensionsList.invalidateAppliedIndexes()
 
         if (setNeedSync) {
             Sync.setNeedsSync()
@@ -9,6 +9,9 @@ package suwayomi.tachidesk.manga.impl.extension
  * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
 
 import eu.kanade.tachiyomi.source.local.LocalSource
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
 import mu.KotlinLogging
 import okhttp3.HttpUrl.Companion.toHttpUrl
 import org.jetbrains.exposed.sql.*
@@ -17,21 +20,28 @@ import org.jetbrains.exposed.sql.statements.jdbc.JdbcConnectionImpl
 import org.jetbrains.exposed.sql.transactions.TransactionManager
 import org.jetbrains.exposed.sql.transactions.transaction
 import org.jetbrains.exposed.sql.update
+import org.kodein.di.DI
+import org.kodein.di.conf.global
+import org.kodein.di.instance
 import org.tachiyomi.Profiler
 import suwayomi.tachidesk.manga.impl.extension.Extension.getExtensionIconUrl
 import suwayomi.tachidesk.manga.impl.extension.github.ExtensionGithubApi
 import suwayomi.tachidesk.manga.impl.extension.github.OnlineExtension
 import suwayomi.tachidesk.manga.model.dataclass.ExtensionDataClass
+import suwayomi.tachidesk.manga.model.dataclass.RepoDataClass
 import suwayomi.tachidesk.manga.model.table.ExtensionTable
 import suwayomi.tachidesk.manga.model.table.RepoTable
 import suwayomi.tachidesk.manga.model.table.toDataClass
+import suwayomi.tachidesk.server.ApplicationDirs
 import suwayomi.tachidesk.server.database.MyBatchInsertStatement
+import java.io.File
 import java.lang.Exception
 import java.util.concurrent.ConcurrentHashMap
 import kotlin.time.Duration.Companion.seconds
 
 object ExtensionsList {
     private val logger = KotlinLogging.logger {}
+    private val applicationDirs by DI.global.instance<ApplicationDirs>()
 
     private var lastUpdateCheck: Long = 0
     val updateMap = ConcurrentHashMap<Int, OnlineExtension>()
@@ -53,6 +63,7 @@ object ExtensionsList {
 
     fun resetLastUpdateCheck() {
         lastUpdateCheck = 0
+        invalidateAppliedIndexes()
     }
 
     private fun migrateExistRepoUrl(baseUrl: String) {
@@ -88,25 +99,25 @@ object ExtensionsList {
     suspend fun fetchAndUpdateAllExtensions(): List<OnlineExtension> {
         val repoList = transaction {
             RepoTable.select { RepoTable.deleted eq false }.map {
-                RepoTable.toDataClass(it)
+                RepoIndexState(RepoTable.toDataClass(it), it[RepoTable.etag], it[RepoTable.lastModified])
             }
         }
         if (repoList.isEmpty()) {
             return arrayListOf()
         }
-        val extensions =
-            repoList.map { repo ->
-                kotlin.runCatching {
-                    logger.info("fetching ${repo.name}")
-                    val list = ExtensionGithubApi.findExtensions(repo)
-                    updateExtensionDatabase(list, repo.id)
-                    list
-                }.onFailure {
-                    logger.warn(it) {
-                        "Failed to fetch extensions for repo: $repo"
+        val extensions = coroutineScope {
+            repoList.map { state ->
+                async {
+                    kotlin.runCatching {
+                        refreshRepo(state)
+                    }.onFailure {
+                        logger.warn(it) {
+                            "Failed to fetch extensions for repo: ${state.repo}"
+                        }
                     }
                 }
-            }
+            }.awaitAll()
+        }
         if (extensions.all { it.isFailure }) {
             logger.error("all fail")
             extensions[0].getOrThrow()
@@ -117,6 +128,67 @@ object ExtensionsList {
         return list
     }
 
+    private class RepoIndexState(val repo: RepoDataClass, val etag: String?, val lastModified: String?)
+
+    /** a parsed index that was already written to the extension table */
+    private class AppliedIndex(val metaUrl: String, val extensions: List<OnlineExtension>)
+
+    private val appliedIndexes = ConcurrentHashMap<Int, AppliedIndex>()
+
+    /** the next refresh writes every repo to the extension table again, even if its index is unchanged */
+    fun invalidateAppliedIndexes() {
+        appliedIndexes.clear()
+    }
+
+    private suspend fun refreshRepo(state: RepoIndexState): List<OnlineExtension> {
+        val repo = state.repo
+        val indexFile = File(applicationDirs.repoIndexRoot, "${repo.id}.json")
+        // the validators are only worth sending while the index they belong to is still on disk
+        val hasCopy = indexFile.exists()
+        val response = ExtensionGithubApi.fetchIndex(
+            repo,
+            state.etag.takeIf { hasCopy },
+            state.lastModified.takeIf { hasCopy },
+        )
+        val list = if (response == null) {
+            val applied = appliedIndexes[repo.id]
+            if (applied != null && applied.metaUrl == repo.metaUrl) {
+                logger.info("repo ${repo.name} unchanged")
+                return applied.extensions
+            }
+            try {
+                ExtensionGithubApi.parseExtensions(repo, indexFile.readBytes())
+            } catch (e: Exception) {
+                // a broken copy, the next refresh fetches the whole index again
+                indexFile.delete()
+                throw e
+            }
+        } else {
+            logger.info("repo ${repo.name} fetched ${response.body.size} bytes")
+            val list = ExtensionGithubApi.parseExtensions(repo, response.body)
+            saveIndex(indexFile, response.body)
+            transaction {
+                RepoTable.update({ RepoTable.id eq repo.id }) {
+                    it[RepoTable.etag] = response.etag?.take(512)
+                    it[RepoTable.lastModified] = response.lastModified?.take(128)
+                }
+            }
+            list
+        }
+        updateExtensionDatabase(list, repo.id)
+        appliedIndexes[repo.id] = AppliedIndex(repo.metaUrl, list)
+        return list
+    }
+
+    private fun saveIndex(file: File, body: ByteArray) {
+        file.parentFile.mkdirs()
+        val tmp = File(file.path + ".tmp")
+        tmp.writeBytes(body)
+        if (!tmp.renameTo(file)) {
+            tmp.delete()
+        }
+    }
+
     suspend fun getExtensionListForImport(defaultRepoUrl: String): Pair<List<ExtensionDataClass>, List<OnlineExtension>> {
         logger.debug("Getting extensions list from the internet")
         migrateExistRepoUrl(defaultRepoUrl)
@@ -165,6 +237,9 @@ object ExtensionsList {
             val (insertList, updateList) = foundExtensions
                 .partition { dbExtensionMap[it.pkgName] == null }
             Profiler.split("ExtensionTable selectAll")
+            val installedChanges = mutableListOf<Pair<Int, OnlineExtension>>()
+            val installedHasUpdate = mutableSetOf<Int>()
+            val availableChanges = mutableListOf<Pair<Int, OnlineExtension>>()
             updateList.forEach { foundExtension ->
                 val extensionRecord = dbExtensionMap[foundExtension.pkgName]
                 val iconUrl = foundExtension.iconUrl.take(2048)
@@ -172,6 +247,7 @@ object ExtensionsList {
                 val extensionName = foundExtension.name.take(128)
                 val alternateName = buildAlternateName(foundExtension)
                 if (extensionRecord != null) {
+                    val id = extensionRecord[ExtensionTable.id].value
                     if (extensionRecord[ExtensionTable.isInstalled]) {
                         var updateFlag = false
                         val hasUpdatedVer = foundExtension.versionCode > extensionRecord[ExtensionTable.versionCode]
@@ -180,7 +256,7 @@ object ExtensionsList {
                         val hasUpdatedLib = currentLibVersion != null && newLibVersion != null && newLibVersion > currentLibVersion
                         if (hasUpdatedVer || hasUpdatedLib) {
                             updateFlag = true
-                            updateMap.putIfAbsent(extensionRecord[ExtensionTable.id].value, foundExtension)
+                            updateMap.putIfAbsent(id, foundExtension)
                         }
                         val same = extensionRecord[ExtensionTable.name] == extensionName &&
                             extensionRecord[ExtensionTable.hasReadme] == foundExtension.hasReadme &&
@@ -191,15 +267,9 @@ object ExtensionsList {
                             extensionRecord[ExtensionTable.baseUrl] == baseUrl &&
                             extensionRecord[ExtensionTable.alternateName] == alternateName
                         if (!same) {
-                            ExtensionTable.update({ ExtensionTable.id eq extensionRecord[ExtensionTable.id] }) {
-                                it[ExtensionTable.name] = extensionName
-                                it[hasReadme] = foundExtension.hasReadme
-                                it[hasChangelog] = foundExtension.hasChangelog
-                                it[ExtensionTable.iconUrl] = iconUrl
-                                it[hasUpdate] = updateFlag
-                                it[isObsolete] = false
-                                it[ExtensionTable.baseUrl] = baseUrl
-                                it[ExtensionTable.alternateName] = alternateName
+                            installedChanges += id to foundExtension
+                            if (updateFlag) {
+                                installedHasUpdate += id
                             }
                         }
                     } else {
@@ -216,23 +286,13 @@ object ExtensionsList {
                             extensionRecord[ExtensionTable.alternateName] == alternateName
                         if (!same) {
                             // extension is not installed, so we can overwrite the data without a care
-                            ExtensionTable.update({ ExtensionTable.id eq extensionRecord[ExtensionTable.id] }) {
-                                it[name] = extensionName
-                                it[versionName] = foundExtension.versionName
-                                it[versionCode] = foundExtension.versionCode
-                                it[lang] = foundExtension.lang
-                                it[isNsfw] = foundExtension.isNsfw
-                                it[apkName] = foundExtension.apkName
-                                it[hasReadme] = foundExtension.hasReadme
-                                it[hasChangelog] = foundExtension.hasChangelog
-                                it[ExtensionTable.iconUrl] = iconUrl
-                                it[ExtensionTable.baseUrl] = baseUrl
-                                it[ExtensionTable.alternateName] = alternateName
-                            }
+                            availableChanges += id to foundExtension
                         }
                     }
                 }
             }
+            updateInstalledBatch(installedChanges, installedHasUpdate)
+            updateAvailableBatch(availableChanges)
             Profiler.split("ExtensionTable upsert")
             if (insertList.isNotEmpty()) {
                 val myBatchInsertStatement = MyBatchInsertStatement(ExtensionTable)
@@ -271,26 +331,86 @@ object ExtensionsList {
                 .filter { foundExtensionsMap[it[ExtensionTable.pkgName]] == null }
                 .toList()
 
-            if (toDeleteExtensionList.isNotEmpty()) {
-                toDeleteExtensionList.forEach { extensionRecord ->
-                    // not in the repo, so these extensions are obsolete
-                    if (extensionRecord[ExtensionTable.isInstalled]) {
-                        // is installed so we should mark it as obsolete
-                        if (!extensionRecord[ExtensionTable.isObsolete]) {
-                            ExtensionTable.update({ ExtensionTable.id eq extensionRecord[ExtensionTable.id] }) {
-                                it[isObsolete] = true
-                            }
-                        }
-                    } else {
-                        // is not installed, so we can remove the record without a care
-                        ExtensionTable.deleteWhere { ExtensionTable.id eq extensionRecord[ExtensionTable.id] }
+            // not in the repo, so these extensions are obsolete
+            val (installed, notInstalled) = toDeleteExtensionList.partition { it[ExtensionTable.isInstalled] }
+            // is installed so we should mark it as obsolete
+            installed.filter { !it[ExtensionTable.isObsolete] }
+                .map { it[ExtensionTable.id].value }
+                .chunked(500)
+                .forEach { ids ->
+                    ExtensionTable.update({ ExtensionTable.id inList ids }) {
+                        it[isObsolete] = true
                     }
                 }
-            }
+            // is not installed, so we can remove the record without a care
+            notInstalled.map { it[ExtensionTable.id].value }
+                .chunked(500)
+                .forEach { ids ->
+                    ExtensionTable.deleteWhere { ExtensionTable.id inList ids }
+                }
             Profiler.split("ExtensionTable clear")
         }
     }
 
+    /** the repo fields of installed extensions, their version stays the installed one */
+    private fun Transaction.updateInstalledBatch(changes: List<Pair<Int, OnlineExtension>>, hasUpdate: Set<Int>) {
+        if (changes.isEmpty()) {
+            return
+        }
+        val t = ExtensionTable
+        val sql = "UPDATE ${identity(t)} SET " +
+            listOf(t.name, t.hasReadme, t.hasChangelog, t.iconUrl, t.hasUpdate, t.isObsolete, t.baseUrl, t.alternateName)
+                .joinToString { "${identity(it)} = ?" } +
+            " WHERE ${identity(t.id)} = ?"
+        val conn = (connection as JdbcConnectionImpl).connection
+        conn.prepareStatement(sql).use { stmt ->
+            changes.forEach { (id, ext) ->
+                stmt.setString(1, ext.name.take(128))
+                stmt.setBoolean(2, ext.hasReadme)
+                stmt.setBoolean(3, ext.hasChangelog)
+                stmt.setString(4, ext.iconUrl.take(2048))
+                stmt.setBoolean(5, id in hasUpdate)
+                stmt.setBoolean(6, false)
+                stmt.setString(7, ext.sources.firstOrNull()?.baseUrl?.take(2048))
+                stmt.setString(8, buildAlternateName(ext))
+                stmt.setInt(9, id)
+                stmt.addBatch()
+            }
+            stmt.executeBatch()
+        }
+    }
+
+    /** every field of extensions that aren't installed */
+    private fun Transaction.updateAvailableBatch(changes: List<Pair<Int, OnlineExtension>>) {
+        if (changes.isEmpty()) {
+            return
+        }
+        val t = ExtensionTable
+        val sql = "UPDATE ${identity(t)} SET " +
+            listOf(t.name, t.versionName, t.versionCode, t.lang, t.isNsfw, t.apkName, t.hasReadme, t.hasChangelog, t.iconUrl, t.baseUrl, t.alternateName)
+                .joinToString { "${identity(it)} = ?" } +
+            " WHERE ${identity(t.id)} = ?"
+        val conn = (connection as JdbcConnectionImpl).connection
+        conn.prepareStatement(sql).use { stmt ->
+            changes.forEach { (id, ext) ->
+                stmt.setString(1, ext.name.take(128))
+                stmt.setString(2, ext.versionName)
+                stmt.setInt(3, ext.versionCode)
+                stmt.setString(4, ext.lang)
+                stmt.setBoolean(5, ext.isNsfw)
+                stmt.setString(6, ext.apkName)
+                stmt.setBoolean(7, ext.hasReadme)
+                stmt.setBoolean(8, ext.hasChangelog)
+                stmt.setString(9, ext.iconUrl.take(2048))
+                stmt.setString(10, ext.sources.firstOrNull()?.baseUrl?.take(2048))
+                stmt.setString(11, buildAlternateName(ext))
+                stmt.setInt(12, id)
+                stmt.addBatch()
+            }
+            stmt.executeBatch()
+        }
+    }
+
     private fun buildAlternateName(foundExtension: OnlineExtension): String? {
         val alternateName = foundExtension.sources.map { it.name }
             .filter {
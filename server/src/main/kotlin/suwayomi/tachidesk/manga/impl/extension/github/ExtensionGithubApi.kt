@@ -10,8 +10,11 @@ package suwayomi.tachidesk.manga.impl.extension.github
 
 import eu.kanade.tachiyomi.network.*
 import kotlinx.serialization.Serializable
+import kotlinx.serialization.decodeFromString
 import kotlinx.serialization.json.Json
 import mu.KotlinLogging
+import okhttp3.Headers
+import okhttp3.Response
 import suwayomi.tachidesk.manga.impl.util.PackageTools.LIB_VERSION_MAX
 import suwayomi.tachidesk.manga.impl.util.PackageTools.LIB_VERSION_MIN
 import suwayomi.tachidesk.manga.model.dataclass.RepoDataClass
@@ -46,13 +49,21 @@ object ExtensionGithubApi {
         val baseUrl: String,
     )
 
+    /** the raw index of a repo with the validators to send when asking for it the next time */
+    class RepoIndexResponse(val body: ByteArray, val etag: String?, val lastModified: String?)
+
     suspend fun findExtensions(repo: RepoDataClass): List<OnlineExtension> {
+        return parseExtensions(repo, fetchIndex(repo, null, null)!!.body)
+    }
+
+    /** returns null if the index is unchanged since the response that had [etag] and [lastModified] */
+    suspend fun fetchIndex(repo: RepoDataClass, etag: String?, lastModified: String?): RepoIndexResponse? {
         val fallback = requiresFallbackSourceMap[repo.id]
         val githubResponse = if (fallback == true) {
             null
         } else {
             try {
-                client.newCall(GET(repo.metaUrl)).awaitSuccess()
+                fetchConditionally(repo.metaUrl, etag, lastModified)
             } catch (e: Throwable) {
                 logger.error(e) { "Failed to get extensions from GitHub, repo:$repo" }
                 requiresFallbackSourceMap[repo.id] = true
@@ -60,13 +71,33 @@ object ExtensionGithubApi {
             }
         }
         val response = githubResponse ?: run {
-            client.newCall(GET(toJsDeliverUrl(repo.metaUrl))).awaitSuccess()
+            fetchConditionally(toJsDeliverUrl(repo.metaUrl), etag, lastModified)
+        }
+        return response.use {
+            if (it.code == 304) {
+                null
+            } else {
+                RepoIndexResponse(it.body.bytes(), it.header("ETag"), it.header("Last-Modified"))
+            }
         }
-        return with(json) {
-            response
-                .parseAs<List<ExtensionJsonObject>>()
-                .toExtensions(repo)
+    }
+
+    fun parseExtensions(repo: RepoDataClass, body: ByteArray): List<OnlineExtension> {
+        return json.decodeFromString<List<ExtensionJsonObject>>(body.decodeToString())
+            .toExtensions(repo)
+    }
+
+    private suspend fun fetchConditionally(url: String, etag: String?, lastModified: String?): Response {
+        val headers = Headers.Builder().apply {
+            etag?.let { add("If-None-Match", it) }
+            lastModified?.let { add("If-Modified-Since", it) }
+        }.build()
+        val response = client.newCall(GET(url, headers)).await()
+        if (!response.isSuccessful && response.code != 304) {
+            response.close()
+            throw HttpException(response.code)
         }
+        return response
     }
 
     fun getApkUrl(repo: RepoDataClass, apkName: String): String {
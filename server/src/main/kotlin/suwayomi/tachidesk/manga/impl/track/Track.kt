@@ -26,6 +26,7 @@ import suwayomi.tachidesk.manga.model.dataclass.TrackSearchDataClass
 import suwayomi.tachidesk.manga.model.dataclass.TrackerDataClass
 import suwayomi.tachidesk.manga.model.table.ChapterTable
 import suwayomi.tachidesk.manga.model.table.TrackRecordTable
+import suwayomi.tachidesk.server.database.readTransaction
 
 object Track {
     private val trackerManager = TrackerManager()
@@ -66,7 +67,7 @@ object Track {
         if (!trackerManager.hasLoggedTracker()) {
             return emptyList()
         }
-        val recordMap = transaction {
+        val recordMap = readTransaction {
             TrackRecordTable.select { (TrackRecordTable.mangaId eq mangaId) and (TrackRecordTable.isDelete eq false) }
                 .map { it.toTrackRecordDataClass() }
         }.associateBy { it.syncId.toLong() }
@@ -0,0 +1,74 @@
+package suwayomi.tachidesk.manga.impl.update
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+/**
+ * Predicts when a manga gets its next chapter from the release history of its chapters.
+ *
+ * The interval is the median gap between the last distinct release days, using the upload dates
+ * when the source provides them and the fetch times otherwise. With less than [MIN_SAMPLES] days
+ * there is nothing to predict and the interval stays 0, which means "always update".
+ */
+object FetchInterval {
+    const val MIN_DAYS = 1
+    const val MAX_DAYS = 28
+
+    /** a manga is updated this long before its predicted release, so a slightly early chapter isn't missed */
+    const val GRACE_SECONDS = 24 * 3600L
+
+    private const val DAY_SECONDS = 24 * 3600L
+    private const val MIN_SAMPLES = 3
+    private const val MAX_SAMPLES = 10
+
+    data class Prediction(val interval: Int, val nextUpdate: Long)
+
+    /**
+     * [uploadDates] are epoch millis as reported by the source, [fetchedAts] are epoch seconds,
+     * [now] is epoch seconds.
+     */
+    fun predict(uploadDates: List<Long>, fetchedAts: List<Long>, now: Long): Prediction {
+        val uploads = uploadDates.filter { it > 0 }.map { it / 1000 }
+        val releases = if (releaseDays(uploads).size >= MIN_SAMPLES) uploads else fetchedAts.filter { it > 0 }
+        val interval = calculateInterval(releases)
+        if (interval == 0) {
+            return Prediction(0, 0)
+        }
+        return Prediction(interval, nextUpdate(releases.max(), interval, now))
+    }
+
+    /** [releases] are epoch seconds */
+    fun calculateInterval(releases: List<Long>): Int {
+        val days = releaseDays(releases).take(MAX_SAMPLES)
+        if (days.size < MIN_SAMPLES) {
+            return 0
+        }
+        val gaps = days.zipWithNext { a, b -> a - b }.sorted()
+        val median = gaps[gaps.size / 2]
+        return median.toInt().coerceIn(MIN_DAYS, MAX_DAYS)
+    }
+
+    /**
+     * The first release time after [now] on the [interval] grid starting at [lastRelease],
+     * so an overdue series is still checked once per interval instead of on every update.
+     */
+    fun nextUpdate(lastRelease: Long, interval: Int, now: Long): Long {
+        val step = interval * DAY_SECONDS
+        if (lastRelease + step >= now) {
+            return lastRelease + step
+        }
+        return lastRelease + ((now - lastRelease) / step + 1) * step
+    }
+
+    fun shouldUpdate(interval: Int, nextUpdate: Long, now: Long): Boolean {
+        return interval <= 0 || nextUpdate - GRACE_SECONDS <= now
+    }
+
+    private fun releaseDays(releases: List<Long>): List<Long> {
+        return releases.map { it / DAY_SECONDS }.distinct().sortedDescending()
+    }
+}
@@ -0,0 +1,135 @@
+package suwayomi.tachidesk.manga.impl.update
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.network.HttpException
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.flow.update
+import mu.KotlinLogging
+import kotlin.math.max
+
+/**
+ * Concurrency limit of the library update for a single source.
+ *
+ * The limit grows by one after [GROW_AFTER] fast successes in a row and is halved on 429/5xx,
+ * a 429 also pauses the source for [BACKOFF_MS] (doubled for every 429 in a row).
+ */
+class SourceUpdateLimiter(val sourceId: String, private val maxLimit: Int = MAX_LIMIT) {
+    private val logger = KotlinLogging.logger {}
+
+    private var limit = INITIAL_LIMIT
+    private var inFlight = 0
+    private var streak = 0
+    private var throttledInRow = 0
+    private var pausedUntil = 0L
+
+    private var completed = 0
+    private var failed = 0
+    private var throttled = 0
+    private var latencyMs = 0.0
+    private val startAt = System.currentTimeMillis()
+
+    /** bumped on every release so waiters re-check the limit */
+    private val version = MutableStateFlow(0L)
+
+    suspend fun acquire() {
+        while (true) {
+            val seen = version.value
+            val wait = synchronized(this) {
+                val now = System.currentTimeMillis()
+                if (pausedUntil > now) {
+                    pausedUntil - now
+                } else if (inFlight < limit) {
+                    inFlight++
+                    return
+                } else {
+                    -1L
+                }
+            }
+            if (wait > 0) {
+                delay(wait)
+            } else {
+                version.first { it != seen }
+            }
+        }
+    }
+
+    /** releases a slot taken by [acquire], [error] is what the update failed with, if it failed */
+    fun release(elapsedMs: Long, error: Throwable?) {
+        synchronized(this) {
+            inFlight--
+            latencyMs = if (completed + failed == 0) elapsedMs.toDouble() else latencyMs * 0.8 + elapsedMs * 0.2
+            val code = (error as? HttpException)?.code
+            when {
+                code == 429 -> {
+                    failed++
+                    throttled++
+                    throttledInRow++
+                    streak = 0
+                    limit = max(1, limit / 2)
+                    pausedUntil = System.currentTimeMillis() + (BACKOFF_MS shl (throttledInRow - 1).coerceAtMost(4))
+                }
+                code != null && code >= 500 -> {
+                    failed++
+                    streak = 0
+                    limit = max(1, limit / 2)
+                }
+                error != null -> {
+                    // not the source telling us to slow down, keep the limit
+                    failed++
+                    streak = 0
+                }
+                else -> {
+                    completed++
+                    throttledInRow = 0
+                    if (elapsedMs < SLOW_MS && ++streak >= GROW_AFTER && limit < maxLimit) {
+                        limit++
+                        streak = 0
+                    }
+                }
+            }
+            if (code != null) {
+                logger.info { "[UPDATE]source=$sourceId http=$code limit=$limit pausedUntil=$pausedUntil" }
+            }
+        }
+        version.update { it + 1 }
+    }
+
+    fun stats(): SourceUpdateStats = synchronized(this) {
+        val minutes = (System.currentTimeMillis() - startAt) / 60000.0
+        SourceUpdateStats(
+            limit = limit,
+            running = inFlight,
+            completed = completed,
+            failed = failed,
+            throttled = throttled,
+            avgLatencyMs = latencyMs.toLong(),
+            perMinute = if (minutes > 0) (completed + failed) / minutes else 0.0,
+        )
+    }
+
+    companion object {
+        const val INITIAL_LIMIT = 1
+        const val MAX_LIMIT = 4
+        private const val GROW_AFTER = 3
+        private const val SLOW_MS = 10_000L
+        private const val BACKOFF_MS = 5_000L
+    }
+}
+
+data class SourceUpdateStats(
+    val limit: Int,
+    val running: Int,
+    val completed: Int,
+    val failed: Int,
+    val throttled: Int,
+    val avgLatencyMs: Long,
+    val perMinute: Double,
+)
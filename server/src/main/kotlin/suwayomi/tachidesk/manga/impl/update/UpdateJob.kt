@@ -49,6 +49,7 @@ enum class JobErrorCode {
     FILTERED_BY_MANGA_STATUS,
     FILTERED_BY_UNREAD,
     FILTERED_BY_NOT_STARTED,
+    FILTERED_BY_FETCH_INTERVAL,
 }
 
 data class UpdateTask(
@@ -19,6 +19,7 @@ import org.kodein.di.instance
 import suwayomi.tachidesk.global.impl.GlobalMeta
 import suwayomi.tachidesk.manga.impl.Category
 import suwayomi.tachidesk.manga.impl.CategoryManga
+import suwayomi.tachidesk.manga.impl.MangaStats
 import suwayomi.tachidesk.manga.impl.util.lang.isNotEmpty
 import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
 import suwayomi.tachidesk.manga.model.table.*
@@ -28,8 +29,9 @@ object UpdateManager {
     private val logger = KotlinLogging.logger {}
     private val updater by DI.global.instance<IUpdater>()
 
-    fun updateAll() {
-        logger.info { "[UPDATE]updateAll" }
+    /** [force] also updates manga that aren't expected to have a new chapter yet */
+    fun updateAll(force: Boolean = false) {
+        logger.info { "[UPDATE]updateAll force=$force" }
         val task = UpdateTask(startAt = System.currentTimeMillis(), type = TaskType.MANUAL)
         addMangaToUpdater(task = task) {
             var mangaList = transaction {
@@ -42,14 +44,14 @@ object UpdateManager {
 
             logger.info { "[UPDATE]updateAll mangaList before size=${mangaList.size}" }
             mangaList = filteredByCategories(mangaList)
-            mangaList = filteredByConditions(mangaList)
+            mangaList = filteredByConditions(mangaList, force)
             logger.info { "[UPDATE]updateAll mangaList after size=${mangaList.size}" }
             mangaList
         }
     }
 
-    fun updateByCategories(categories: List<Int>) {
-        logger.info { "[UPDATE]updateByCategories ids=$categories" }
+    fun updateByCategories(categories: List<Int>, force: Boolean = false) {
+        logger.info { "[UPDATE]updateByCategories ids=$categories force=$force" }
         val task = UpdateTask(startAt = System.currentTimeMillis(), type = TaskType.MANUAL)
         addMangaToUpdater(task = task) {
             var mangaList = categories
@@ -59,7 +61,7 @@ object UpdateManager {
             fillChapterInfo(mangaList)
 
             logger.info { "[UPDATE]updateAll mangaList before size=${mangaList.size}" }
-            mangaList = filteredByConditions(mangaList)
+            mangaList = filteredByConditions(mangaList, force)
             logger.info { "[UPDATE]updateAll mangaList after size=${mangaList.size}" }
             mangaList
         }
@@ -191,7 +193,7 @@ object UpdateManager {
         return dest
     }
 
-    private fun filteredByConditions(list: List<MangaDataClass>): List<MangaDataClass> {
+    private fun filteredByConditions(list: List<MangaDataClass>, force: Boolean = false): List<MangaDataClass> {
         val settings = fetchUpdateConditionSetting()
         logger.info { "[UPDATE]settings $settings" }
         var mangaList = list
@@ -207,6 +209,9 @@ object UpdateManager {
         if (settings.filteredByMangaNotStart != false) {
             mangaList = filteredByMangaNotStart(mangaList)
         }
+        if (settings.filteredByFetchInterval != false && !force) {
+            mangaList = filteredByFetchInterval(mangaList)
+        }
         return mangaList
     }
 
@@ -288,6 +293,37 @@ object UpdateManager {
         return dest
     }
 
+    private fun filteredByFetchInterval(mangaList: List<MangaDataClass>): List<MangaDataClass> {
+        val now = System.currentTimeMillis() / 1000
+        val dest = mutableListOf<MangaDataClass>()
+        for (subList in mangaList.chunked(500)) {
+            val mangaIds = subList.map { it.id }
+            val notDueIds = transaction {
+                MangaTable
+                    .slice(MangaTable.id, MangaTable.fetchInterval, MangaTable.nextUpdate)
+                    .select { MangaTable.id inList mangaIds }
+                    .filter { !FetchInterval.shouldUpdate(it[MangaTable.fetchInterval], it[MangaTable.nextUpdate], now) }
+                    .map { it[MangaTable.id].value }
+                    .toSet()
+            }
+            for (manga in subList) {
+                if (!notDueIds.contains(manga.id)) {
+                    dest.add(manga)
+                } else {
+                    updater.addMangaToTracker(
+                        UpdateJob(
+                            manga,
+                            status = JobStatus.FAILED,
+                            failedInfo = FailedInfo(errorCode = JobErrorCode.FILTERED_BY_FETCH_INTERVAL),
+                        ),
+                    )
+                }
+            }
+        }
+        logger.info { "[UPDATE]filteredByFetchInterval skip=${mangaList.size - dest.size}" }
+        return dest
+    }
+
     private fun fillChapterInfo(mangaList: List<MangaDataClass>) {
         val chunkedLists = mangaList.chunked(100)
         chunkedLists.forEach {
@@ -299,34 +335,13 @@ object UpdateManager {
         val mangaIds = mangaList.map { it.id }
 
         val unreadCountMap = CategoryManga.unreadCountMapWithScanlator(mangaIds)
-
-        val unreadCount = Expression.build {
-            val caseExpr = case()
-                .When(ChapterTable.isRead eq booleanLiteral(false), intLiteral(1))
-                .Else(intLiteral(0))
-            Sum(caseExpr, IntegerColumnType())
-        }
-
-        val chapterCount = ChapterTable.id.count()
-
-        val mangaMap = mangaList.associateBy { it.id }
-        transaction {
-            ChapterTable.slice(
-                ChapterTable.manga,
-                unreadCount,
-                chapterCount,
-            )
-                .select { ChapterTable.manga inList mangaIds }
-                .groupBy(ChapterTable.manga)
-                .forEach {
-                    val mangaId = it[ChapterTable.manga].value
-                    val dataClass = mangaMap[mangaId]
-                    if (dataClass != null) {
-                        dataClass.unreadCount = unreadCountMap?.get(mangaId) ?: it[unreadCount]?.toLong()
-                        dataClass.unreadCountRaw = it[unreadCount]?.toLong()
-                        dataClass.chapterCount = it[chapterCount]
-                    }
-                }
+        val stats = MangaStats.byManga(mangaIds)
+        for (dataClass in mangaList) {
+            val row = stats[dataClass.id] ?: continue
+            val unreadCount = row[MangaStatsTable.unreadCount].toLong()
+            dataClass.unreadCount = unreadCountMap?.get(dataClass.id) ?: unreadCount
+            dataClass.unreadCountRaw = unreadCount
+            dataClass.chapterCount = row[MangaStatsTable.chapterCount].toLong()
         }
     }
 
@@ -385,5 +400,6 @@ object UpdateManager {
         val filteredByMangaStatus: Boolean? = null,
         val filteredByMangaUnread: Boolean? = null,
         val filteredByMangaNotStart: Boolean? = null,
+        val filteredByFetchInterval: Boolean? = null,
     )
 }
@@ -16,8 +16,10 @@ data class UpdateStatus(
     val running: Boolean = false,
     val numberOfJobs: Int = 0,
     val completeTimestamp: Int = 0,
+    /** per-source limit and throughput of the current update, keyed by source id */
+    val sourceStats: Map<String, SourceUpdateStats> = emptyMap(),
 ) {
-    constructor(jobs: Collection<UpdateJob>, running: Boolean) : this(
+    constructor(jobs: Collection<UpdateJob>, running: Boolean, sourceStats: Map<String, SourceUpdateStats> = emptyMap()) : this(
         statusMap = jobs.groupBy { it.status }
             .mapValues { entry ->
                 entry.value.map { it.manga }
@@ -27,5 +29,6 @@ data class UpdateStatus(
         running = running,
         numberOfJobs = jobs.size,
         completeTimestamp = if (running) 0 else (System.currentTimeMillis() / 1000).toInt(),
+        sourceStats = sourceStats,
     )
 }
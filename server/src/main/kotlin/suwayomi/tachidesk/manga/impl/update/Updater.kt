@@ -22,15 +22,17 @@ import kotlinx.coroutines.sync.withPermit
 import mu.KotlinLogging
 import org.jetbrains.exposed.sql.update
 import org.tachiyomi.NativeChannel
-import org.tachiyomi.Profiler
 import suwayomi.tachidesk.manga.impl.Chapter
 import suwayomi.tachidesk.manga.impl.Manga
+import suwayomi.tachidesk.manga.impl.util.source.SourceRateLimits
 import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
 import suwayomi.tachidesk.manga.model.dataclass.update.BgUpdateResultDataClass
 import suwayomi.tachidesk.manga.model.dataclass.update.UpdateMangaChapterDataClass
+import suwayomi.tachidesk.server.util.Tracer
 import java.util.concurrent.ConcurrentHashMap
 
-private const val MAX_UPDATER_IN_PARAllEL = 2
+// total across all sources, each source is further limited by its SourceUpdateLimiter
+private const val MAX_UPDATER_IN_PARAllEL = 8
 
 class Updater : IUpdater {
     private val logger = KotlinLogging.logger {}
@@ -44,6 +46,7 @@ class Updater : IUpdater {
 
     private val tracker = ConcurrentHashMap<Int, UpdateJob>()
     private val updateChannels = ConcurrentHashMap<String, Channel<UpdateJob>>()
+    private val limiters = ConcurrentHashMap<String, SourceUpdateLimiter>()
 
     private val semaphore = Semaphore(MAX_UPDATER_IN_PARAllEL)
 
@@ -52,16 +55,29 @@ class Updater : IUpdater {
     private fun getOrCreateUpdateChannelFor(source: String): Channel<UpdateJob> {
         return updateChannels.getOrPut(source) {
             logger.debug { "getOrCreateUpdateChannelFor: created channel for $source - channels: ${updateChannels.size + 1}" }
-            createUpdateChannel()
+            createUpdateChannel(source)
         }
     }
 
-    private fun createUpdateChannel(): Channel<UpdateJob> {
+    private fun createUpdateChannel(source: String): Channel<UpdateJob> {
         val channel = Channel<UpdateJob>(Channel.UNLIMITED)
+        val limiter = limiters.getOrPut(source) { SourceUpdateLimiter(source) }
         channel.consumeAsFlow()
             .onEach { job ->
-                semaphore.withPermit {
-                    process(job)
+                // wait for a slot of this source first, so a throttled source doesn't hold global permits
+                limiter.acquire()
+                // and for its rate limit, a thread sleeping in the interceptor would hold a global permit
+                source.toLongOrNull()?.let { SourceRateLimits.awaitCapacity(it) }
+                scope.launch {
+                    val start = System.currentTimeMillis()
+                    var error: Throwable? = null
+                    try {
+                        semaphore.withPermit {
+                            error = process(job)
+                        }
+                    } finally {
+                        limiter.release(System.currentTimeMillis() - start, error)
+                    }
                     updateStatus(null)
                 }
             }
@@ -76,7 +92,7 @@ class Updater : IUpdater {
             ?: tracker.any { (_, job) ->
                 job.status == JobStatus.PENDING || job.status == JobStatus.RUNNING
             }
-        _status.value = UpdateStatus(tracker.values, flag)
+        _status.value = UpdateStatus(tracker.values, flag, limiters.mapValues { it.value.stats() })
 
         if (prev != flag) {
             notifyNative(prev, flag)
@@ -95,16 +111,19 @@ class Updater : IUpdater {
         }
     }
 
-    private suspend fun process(job: UpdateJob) {
+    /** returns the error the update failed with, if any */
+    private suspend fun process(job: UpdateJob): Throwable? {
         tracker[job.manga.id] = job.copy(status = JobStatus.RUNNING)
         updateStatus(true)
+        var error: Throwable? = null
         tracker[job.manga.id] = try {
             logger.info { "Updating \"${job.manga.title}\" (source: ${job.manga.sourceId})" }
-            Profiler.start()
-            if (!job.manga.initialized) {
-                Manga.getManga(job.manga.id)
+            val chapterList = Tracer.trace("update.manga") {
+                if (!job.manga.initialized) {
+                    Manga.getManga(job.manga.id)
+                }
+                Chapter.getChapterList(job.manga.id, true)
             }
-            val chapterList = Chapter.getChapterList(job.manga.id, true)
             val newChapterCount = chapterList.count { it.newChapter == true }
             val latestChapterInfo = if (newChapterCount > 0) {
                 val chapter = chapterList.lastOrNull { it.newChapter == true }
@@ -112,13 +131,14 @@ class Updater : IUpdater {
             } else {
                 null
             }
-            Profiler.all()
             job.copy(status = JobStatus.COMPLETE, latestChapterInfo = latestChapterInfo)
         } catch (e: Throwable) {
             if (e is CancellationException) throw e
             logger.error(e) { "Error while updating ${job.manga.title}" }
+            error = e
             job.copy(status = JobStatus.FAILED, failedInfo = FailedInfo(errorCode = JobErrorCode.UPDATE_FAILED, errorMessage = e.message))
         }
+        return error
     }
 
     override fun addMangaToQueue(manga: MangaDataClass) {
@@ -164,6 +184,7 @@ class Updater : IUpdater {
         _status.update { UpdateStatus() }
         updateChannels.forEach { (_, channel) -> channel.cancel() }
         updateChannels.clear()
+        limiters.clear()
 
         this.currentTask = task
         UpdateRecord.createTaskRecord(task)
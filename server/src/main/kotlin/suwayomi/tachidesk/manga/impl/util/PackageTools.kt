@@ -33,6 +33,7 @@ import java.net.URL
 import java.net.URLClassLoader
 import java.nio.file.Files
 import java.nio.file.Path
+import java.util.concurrent.ConcurrentHashMap
 import javax.xml.parsers.DocumentBuilderFactory
 
 object PackageTools {
@@ -139,7 +140,8 @@ object PackageTools {
         }
     }
 
-    val jarLoaderMap = mutableMapOf<String, URLClassLoader>()
+    /** class loader per extension jar, shared by every source of the jar */
+    val jarLoaderMap = ConcurrentHashMap<String, URLClassLoader>()
 
     /**
      * loads the extension main class called [className] from the jar located at [jarPath]
@@ -156,7 +158,7 @@ object PackageTools {
     fun loadExtensionSources0(jarPath: String, className: String): Any {
         val v = System.getProperty("app.tachimanga.childfirst")
         logger.debug { "loading jar with path: $jarPath, childfirst=$v" }
-        val classLoader = jarLoaderMap[jarPath] ?: (
+        val classLoader = jarLoaderMap.computeIfAbsent(jarPath) {
             if (v == "1") {
                 ChildFirstClassLoader(arrayOf(URL("file:$jarPath")))
             } else if (v == "2") {
@@ -164,11 +166,9 @@ object PackageTools {
             } else {
                 URLClassLoader(arrayOf(URL("file:$jarPath")))
             }
-        )
+        }
         val classToLoad = Class.forName(className, false, classLoader)
 
-        jarLoaderMap[jarPath] = classLoader
-
         return classToLoad.getDeclaredConstructor().newInstance()
     }
 }
@@ -20,11 +20,15 @@ import eu.kanade.tachiyomi.source.online.ParsedHttpSource
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.joinAll
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
 import mu.KotlinLogging
 import okhttp3.Authenticator
 import okhttp3.Headers
 import okhttp3.OkHttpClient
+import org.jetbrains.exposed.sql.and
 import org.jetbrains.exposed.sql.select
 import org.jetbrains.exposed.sql.transactions.transaction
 import org.jetbrains.exposed.sql.update
@@ -33,8 +37,10 @@ import org.kodein.di.conf.global
 import org.kodein.di.instance
 import suwayomi.tachidesk.manga.impl.util.PackageTools.loadExtensionSources
 import suwayomi.tachidesk.manga.model.table.ExtensionTable
+import suwayomi.tachidesk.manga.model.table.MangaTable
 import suwayomi.tachidesk.manga.model.table.SourceTable
 import suwayomi.tachidesk.server.ApplicationDirs
+import suwayomi.tachidesk.server.serverConfig
 import uy.kohesive.injekt.injectLazy
 import java.util.*
 import java.util.concurrent.ConcurrentHashMap
@@ -60,6 +66,7 @@ object GetCatalogueSource {
         "BrotliInterceptor",
     )
     private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val jarLocks = ConcurrentHashMap<String, Any>()
 
     private fun getCatalogueSource(sourceId: Long): CatalogueSource? {
         val cachedResult: CatalogueSource? = sourceCache[sourceId]
@@ -81,26 +88,60 @@ object GetCatalogueSource {
         val jarName = apkName.substringBefore(".apk") + ".jar"
         val jarPath = "${applicationDirs.extensionsRoot}/$jarName"
 
-        try {
-            when (val instance = loadExtensionSources(jarPath, className)) {
-                is Source -> listOf(instance)
-                is SourceFactory -> instance.createSources()
-                else -> throw Exception("Unknown source class type! ${instance.javaClass}")
-            }.forEach {
-                if (it is HttpSource) {
-                    scope.launch {
-                        clientToSourceMap[it.client] = it.id
+        // one load per jar, a caller that waited finds the sources the first one created
+        synchronized(jarLocks.computeIfAbsent(jarPath) { Any() }) {
+            sourceCache[sourceId]?.let { return it }
+            try {
+                when (val instance = loadExtensionSources(jarPath, className)) {
+                    is Source -> listOf(instance)
+                    is SourceFactory -> instance.createSources()
+                    else -> throw Exception("Unknown source class type! ${instance.javaClass}")
+                }.forEach {
+                    if (it is HttpSource) {
+                        scope.launch {
+                            clientToSourceMap[it.client] = it.id
+                        }
                     }
+                    sourceCache[it.id] = it as HttpSource
                 }
-                sourceCache[it.id] = it as HttpSource
+            } catch (e: Throwable) {
+                e.printStackTrace()
+                throw e
             }
-        } catch (e: Throwable) {
-            e.printStackTrace()
-            throw e
         }
         return sourceCache[sourceId]!!
     }
 
+    /**
+     * Loads the sources of the manga in the library in the background, so the first update or chapter
+     * opened doesn't wait for the extension classes to load one source after another.
+     */
+    fun prewarmLibrarySources() {
+        val concurrency = serverConfig.sourcePrewarmConcurrency
+        if (concurrency <= 0) {
+            return
+        }
+        scope.launch {
+            val t = System.currentTimeMillis()
+            val sourceIds = transaction {
+                MangaTable.slice(MangaTable.sourceReference)
+                    .select { (MangaTable.inLibrary eq true) and (MangaTable.sourceReference neq LocalSource.ID) }
+                    .withDistinct()
+                    .map { it[MangaTable.sourceReference] }
+            }.filter { !sourceCache.containsKey(it) }
+            val permits = Semaphore(concurrency)
+            sourceIds.map { sourceId ->
+                launch { permits.withPermit { getCatalogueSourceOrNull(sourceId) } }
+            }.joinAll()
+            logger.info { "prewarmLibrarySources sources=${sourceIds.size} cost=${System.currentTimeMillis() - t}ms" }
+        }
+    }
+
+    /** the source if it's already loaded, never loads an extension */
+    fun getLoadedSource(sourceId: Long): CatalogueSource? = sourceCache[sourceId]
+
+    fun loadedSources(): Collection<CatalogueSource> = sourceCache.values
+
     fun getCatalogueSourceOrNull(sourceId: Long): CatalogueSource? {
         return runCatching { getCatalogueSource(sourceId) }.getOrNull()
     }
@@ -17,6 +17,11 @@ object SourceConfig {
 
     private var FORCE_EXT_UA = setOf<Long>()
 
+    private var PAGE_CONCURRENCY_MAP = mapOf<Long, Int>()
+
+    const val DEFAULT_PAGE_CONCURRENCY = 4
+    const val MAX_PAGE_CONCURRENCY = 8
+
     fun getForceUaBySourceId(sourceId: Long): String? {
         return FORCE_UA_MAP[sourceId]
     }
@@ -25,10 +30,19 @@ object SourceConfig {
         return FORCE_EXT_UA.contains(sourceId)
     }
 
+    /** how many pages of a single chapter can be downloaded at the same time from this source */
+    fun getPageConcurrency(sourceId: Long): Int {
+        return PAGE_CONCURRENCY_MAP[sourceId] ?: DEFAULT_PAGE_CONCURRENCY
+    }
+
     fun updateSourceConfig(sourceConfigList: List<Setting.SourceConfigInfo>) {
         val sourceUaMap = mutableMapOf<Long, String>()
         val forceUaSet = mutableSetOf<Long>()
+        val pageConcurrencyMap = mutableMapOf<Long, Int>()
         for (sourceConfig in sourceConfigList) {
+            if (sourceConfig.sourceId != null && sourceConfig.pageConcurrency != null) {
+                pageConcurrencyMap[sourceConfig.sourceId] = sourceConfig.pageConcurrency.coerceIn(1, MAX_PAGE_CONCURRENCY)
+            }
             if (sourceConfig.sourceId != null && sourceConfig.ua?.isNotEmpty() == true) {
                 if (sourceConfig.ua == "0") {
                     forceUaSet.add(sourceConfig.sourceId)
@@ -39,6 +53,7 @@ object SourceConfig {
         }
         FORCE_UA_MAP = sourceUaMap
         FORCE_EXT_UA = forceUaSet
-        logger.info { "[Config]updateSourceConfig config:$sourceConfigList -> FORCE_UA_MAP:$FORCE_UA_MAP, FORCE_EXT_UA:$FORCE_EXT_UA" }
+        PAGE_CONCURRENCY_MAP = pageConcurrencyMap
+        logger.info { "[Config]updateSourceConfig config:$sourceConfigList -> FORCE_UA_MAP:$FORCE_UA_MAP, FORCE_EXT_UA:$FORCE_EXT_UA, PAGE_CONCURRENCY_MAP:$PAGE_CONCURRENCY_MAP" }
     }
 }
@@ -0,0 +1,56 @@
+package suwayomi.tachidesk.manga.impl.util.source
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.network.interceptor.RateLimitInterceptor
+import eu.kanade.tachiyomi.network.interceptor.RateLimiter
+import eu.kanade.tachiyomi.network.interceptor.RateLimiterStats
+import eu.kanade.tachiyomi.network.interceptor.SpecificHostRateLimitInterceptor
+import eu.kanade.tachiyomi.source.online.HttpSource
+import kotlinx.coroutines.delay
+
+/**
+ * The [RateLimiter]s in the client of a loaded source, so the schedulers can prefer sources that can send
+ * a request right away and wait for the others in a coroutine instead of in the interceptor.
+ */
+object SourceRateLimits {
+    fun limiters(sourceId: Long): List<RateLimiter> {
+        val source = GetCatalogueSource.getLoadedSource(sourceId) as? HttpSource ?: return emptyList()
+        return source.client.interceptors.mapNotNull {
+            when (it) {
+                is RateLimitInterceptor -> it.limiter
+                is SpecificHostRateLimitInterceptor -> it.limiter
+                else -> null
+            }
+        }
+    }
+
+    /** how long a request of [sourceId] made now would wait, 0 for a source that isn't loaded or limited */
+    fun waitMillis(sourceId: Long): Long = limiters(sourceId).maxOfOrNull { it.waitMillis() } ?: 0
+
+    /** suspends until [sourceId] has capacity, doesn't take it, the interceptor still does */
+    suspend fun awaitCapacity(sourceId: Long) {
+        while (true) {
+            val wait = waitMillis(sourceId)
+            if (wait <= 0) {
+                return
+            }
+            delay(wait)
+        }
+    }
+
+    fun stats(): List<SourceRateLimitStats> = GetCatalogueSource.loadedSources().flatMap { source ->
+        limiters(source.id).map { SourceRateLimitStats(source.id.toString(), source.name, it.stats()) }
+    }
+}
+
+data class SourceRateLimitStats(
+    val sourceId: String,
+    val sourceName: String,
+    val limiter: RateLimiterStats,
+)
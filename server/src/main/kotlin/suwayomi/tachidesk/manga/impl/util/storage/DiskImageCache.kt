@@ -0,0 +1,221 @@
+package suwayomi.tachidesk.manga.impl.util.storage
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import mu.KotlinLogging
+import okhttp3.Response
+import suwayomi.tachidesk.server.util.TraceElement
+import suwayomi.tachidesk.server.util.Tracer
+import java.io.File
+import java.security.DigestInputStream
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * A size bounded cache of images on disk, e.g. manga covers.
+ *
+ * An entry is stored as `<owner>_<url hash>_<content hash>.<ext>`, so a new url of the same owner is a miss
+ * and the content hash doubles as a strong etag. Reads refresh the mtime (at most once an hour), when the
+ * total size grows over [maxBytes] the least recently read entries are deleted until it is at 90%.
+ * Concurrent misses of the same entry share one download, which keeps running when its callers go away.
+ * The content type found when an entry is written is kept next to it in `<entry>.type`.
+ */
+class DiskImageCache(private val dir: File, private val maxBytes: () -> Long) {
+    private val logger = KotlinLogging.logger {}
+
+    private val index = ConcurrentHashMap<String, File>()
+    private val contentTypes = ConcurrentHashMap<String, String>()
+    private val totalBytes = AtomicLong()
+    private val inFlight = ConcurrentHashMap<String, Deferred<File>>()
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
+    @Volatile
+    private var loaded = false
+
+    suspend fun get(owner: Int, url: String, fetch: suspend () -> Response): ResponseImage {
+        load()
+        val key = "${owner}_${hashOf(url.toByteArray())}"
+        val cached = index[key]
+        if (cached != null) {
+            if (cached.exists()) {
+                touch(cached)
+                return imageOf(cached)
+            }
+            forget(key, cached)
+        }
+
+        val download = inFlight.computeIfAbsent(key) {
+            scope.async(TraceElement(Tracer.current()), start = CoroutineStart.LAZY) {
+                try {
+                    save(key, Tracer.span("get img") { fetch() })
+                } finally {
+                    inFlight.remove(key)
+                }
+            }
+        }
+        download.start()
+        return imageOf(download.await())
+    }
+
+    /** drops every entry of [owner], e.g. after its cover url changed */
+    fun invalidate(owner: Int) {
+        load()
+        val prefix = "${owner}_"
+        index.entries.filter { it.key.startsWith(prefix) }.forEach { forget(it.key, it.value) }
+    }
+
+    fun sizeBytes(): Long = totalBytes.get()
+
+    private fun save(key: String, response: Response): File {
+        response.use {
+            if (response.code != 200) {
+                throw Exception("request error! ${response.code}")
+            }
+            val tmp = File(dir, "$key.tmp")
+            val digest = MessageDigest.getInstance("SHA-1")
+            DigestInputStream(response.body.byteStream(), digest).use { input ->
+                tmp.outputStream().use { output -> input.copyTo(output) }
+            }
+            val imageType = ImageUtil.findImageType { tmp.inputStream() }?.mime
+                ?: response.headers["content-type"]
+                ?: "image/jpeg"
+            val extension = imageType.substringAfter("/").substringBefore(";").filter { it.isLetterOrDigit() }.ifEmpty { "jpeg" }
+            val file = File(dir, "${key}_${hexOf(digest.digest())}.$extension")
+            // the type goes first, an entry without its file is dropped on load
+            typeFileOf(file).writeText(imageType)
+            if (!tmp.renameTo(file)) {
+                tmp.delete()
+                typeFileOf(file).delete()
+                throw Exception("failed to save ${file.name}")
+            }
+            contentTypes[file.name] = imageType
+
+            val old = index.put(key, file)
+            if (old != null && old != file) {
+                totalBytes.addAndGet(-old.length())
+                delete(old)
+            }
+            totalBytes.addAndGet(file.length())
+            trim()
+            return file
+        }
+    }
+
+    private fun load() {
+        if (loaded) {
+            return
+        }
+        synchronized(this) {
+            if (loaded) {
+                return
+            }
+            dir.mkdirs()
+            dir.listFiles().orEmpty().forEach { file ->
+                if (file.name.endsWith(".tmp")) {
+                    file.delete()
+                    return@forEach
+                }
+                if (file.name.endsWith(TYPE_SUFFIX)) {
+                    if (!File(dir, file.name.removeSuffix(TYPE_SUFFIX)).exists()) {
+                        file.delete()
+                    }
+                    return@forEach
+                }
+                val key = keyOf(file) ?: return@forEach
+                index[key] = file
+                totalBytes.addAndGet(file.length())
+            }
+            logger.info { "[CACHE]${dir.name} entries=${index.size} size=${totalBytes.get() / 1024}KiB" }
+            loaded = true
+        }
+        trim()
+    }
+
+    private fun trim() {
+        val maxBytes = maxBytes()
+        if (maxBytes <= 0 || totalBytes.get() <= maxBytes) {
+            return
+        }
+        synchronized(this) {
+            val target = maxBytes / 10 * 9
+            val oldestFirst = index.entries.map { it.toPair() }.sortedBy { it.second.lastModified() }
+            var evicted = 0
+            for ((key, file) in oldestFirst) {
+                if (totalBytes.get() <= target) {
+                    break
+                }
+                forget(key, file)
+                evicted++
+            }
+            logger.debug { "[CACHE]${dir.name} evicted=$evicted size=${totalBytes.get() / 1024}KiB" }
+        }
+    }
+
+    private fun forget(key: String, file: File) {
+        if (index.remove(key, file)) {
+            totalBytes.addAndGet(-file.length())
+            delete(file)
+        }
+    }
+
+    private fun delete(file: File) {
+        file.delete()
+        typeFileOf(file).delete()
+        contentTypes.remove(file.name)
+    }
+
+    private fun touch(file: File) {
+        val now = System.currentTimeMillis()
+        if (now - file.lastModified() > TOUCH_INTERVAL_MS) {
+            file.setLastModified(now)
+        }
+    }
+
+    private fun imageOf(file: File): ResponseImage {
+        val contentHash = file.nameWithoutExtension.substringAfterLast('_')
+        val contentType = contentTypes.getOrPut(file.name) { readContentType(file) }
+        return ResponseImage(contentType, "\"$contentHash\"", file) { file.inputStream().buffered() }
+    }
+
+    /** the type stored with the entry, entries written before types were stored are sniffed again */
+    private fun readContentType(file: File): String {
+        val typeFile = typeFileOf(file)
+        if (typeFile.exists()) {
+            typeFile.readText().trim().takeIf { it.isNotEmpty() }?.let { return it }
+        }
+        return ImageUtil.findImageType { file.inputStream() }?.mime ?: "application/octet-stream"
+    }
+
+    private fun typeFileOf(file: File) = File(dir, file.name + TYPE_SUFFIX)
+
+    private fun keyOf(file: File): String? {
+        val parts = file.nameWithoutExtension.split('_')
+        if (parts.size != 3 || parts[0].toIntOrNull() == null) {
+            return null
+        }
+        return "${parts[0]}_${parts[1]}"
+    }
+
+    companion object {
+        private const val TOUCH_INTERVAL_MS = 60 * 60 * 1000L
+        private const val HASH_LENGTH = 16
+        private const val TYPE_SUFFIX = ".type"
+
+        private fun hashOf(bytes: ByteArray): String = hexOf(MessageDigest.getInstance("SHA-1").digest(bytes))
+
+        private fun hexOf(digest: ByteArray): String =
+            digest.joinToString("") { "%02x".format(it) }.take(HASH_LENGTH)
+    }
+}
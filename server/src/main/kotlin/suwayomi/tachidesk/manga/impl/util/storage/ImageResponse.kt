@@ -11,11 +11,42 @@ package suwayomi.tachidesk.manga.impl.util.storage
 import okhttp3.Response
 import okhttp3.internal.closeQuietly
 import org.tachiyomi.Profiler
+import suwayomi.tachidesk.server.util.Tracer
 import java.io.File
 import java.io.FileInputStream
 import java.io.InputStream
 
+/**
+ * An image to send, [open] isn't called when the client already has it.
+ * An image with a [file] is sent straight from the file, byte ranges included.
+ */
+class ResponseImage(
+    val contentType: String,
+    val etag: String?,
+    val file: File? = null,
+    val lastModified: Long? = null,
+    val open: () -> InputStream,
+)
+
 object ImageResponse {
+    /** [contentType] is detected from the file when not known */
+    fun fileImage(file: File, contentType: String? = null): ResponseImage {
+        val length = file.length()
+        val lastModified = file.lastModified()
+        val type = contentType ?: ImageUtil.findImageType { file.inputStream() }?.mime ?: "image/jpeg"
+        return ResponseImage(
+            contentType = type,
+            // size and mtime, a downloaded file is only ever replaced as a whole
+            etag = "\"${length.toString(16)}-${lastModified.toString(16)}\"",
+            file = file,
+            lastModified = lastModified,
+        ) { file.inputStream().buffered() }
+    }
+
+    fun streamImage(image: Pair<InputStream, String>): ResponseImage {
+        return ResponseImage(image.second, null) { image.first }
+    }
+
     fun pathToInputStream(path: String): InputStream {
         return FileInputStream(path).buffered()
     }
@@ -50,9 +81,7 @@ object ImageResponse {
     }
 
     suspend fun buildImageResponse(fetcher: suspend () -> Response): Pair<InputStream, String> {
-        Profiler.split("before get img")
-        val response = fetcher()
-        Profiler.split("get img")
+        val response = Tracer.span("get img") { fetcher() }
         if (response.code == 200) {
             return response.body.byteStream() to (response.headers["content-type"] ?: "image/jpeg")
         } else {
@@ -0,0 +1,56 @@
+package suwayomi.tachidesk.manga.impl.util.storage
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import okhttp3.Response
+import java.io.File
+
+/**
+ * Pages of online chapters, a [DiskImageCache] per chapter with the most recently used pages also kept in memory.
+ *
+ * The memory part holds up to [memoryBytes], pages larger than an eighth of it are served from disk only.
+ */
+class PageCache(dir: File, diskBytes: () -> Long, private val memoryBytes: () -> Long) {
+    private val disk = DiskImageCache(dir, diskBytes)
+
+    private class Entry(val bytes: ByteArray, val contentType: String, val etag: String?)
+
+    private val memory = LinkedHashMap<String, Entry>(64, 0.75f, true)
+    private var memoryUsed = 0L
+
+    /** [key] identifies the page within the chapter, [fetch] is only called on a miss */
+    suspend fun get(chapterId: Int, key: String, fetch: suspend () -> Response): ResponseImage {
+        val memoryKey = "$chapterId|$key"
+        synchronized(memory) { memory[memoryKey] }?.let { return imageOf(it) }
+
+        val image = disk.get(chapterId, key, fetch)
+        val budget = memoryBytes()
+        // a page that won't be kept in memory isn't read here at all
+        val length = image.file?.length()
+        if (length != null && length > budget / 8) {
+            return image
+        }
+        val bytes = image.open().use { it.readBytes() }
+        if (bytes.size > budget / 8) {
+            return image
+        }
+        val entry = Entry(bytes, image.contentType, image.etag)
+        synchronized(memory) {
+            memory.put(memoryKey, entry)?.let { memoryUsed -= it.bytes.size }
+            memoryUsed += bytes.size
+            val iterator = memory.values.iterator()
+            while (memoryUsed > budget && iterator.hasNext()) {
+                memoryUsed -= iterator.next().bytes.size
+                iterator.remove()
+            }
+        }
+        return imageOf(entry)
+    }
+
+    private fun imageOf(entry: Entry) = ResponseImage(entry.contentType, entry.etag) { entry.bytes.inputStream() }
+}
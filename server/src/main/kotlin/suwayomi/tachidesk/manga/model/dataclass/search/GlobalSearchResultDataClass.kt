@@ -0,0 +1,19 @@
+package suwayomi.tachidesk.manga.model.dataclass.search
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
+
+/** one line of the global search response, the result of a single source */
+data class GlobalSearchResultDataClass(
+    val sourceId: String,
+    val mangaList: List<MangaDataClass>,
+    val hasNextPage: Boolean,
+    /** set when the source failed or timed out */
+    val error: String? = null,
+)
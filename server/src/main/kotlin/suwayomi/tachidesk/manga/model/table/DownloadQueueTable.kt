@@ -0,0 +1,29 @@
+package suwayomi.tachidesk.manga.model.table
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.jetbrains.exposed.dao.id.IntIdTable
+
+/** persisted copy of the in-memory download queue, restored on startup */
+object DownloadQueueTable : IntIdTable() {
+    val chapter = integer("chapter")
+    val manga = integer("manga")
+    val chapterIndex = integer("chapter_index")
+
+    // relative order in the queue, not necessarily contiguous
+    val position = long("position").default(0)
+
+    // DownloadState.state
+    val state = integer("state").default(0)
+    val tries = integer("tries").default(0)
+    val error = varchar("error", 256).nullable()
+    val progress = float("progress").default(0f)
+
+    val createAt = long("create_at").default(0)
+    val updateAt = long("update_at").default(0)
+}
@@ -0,0 +1,19 @@
+package suwayomi.tachidesk.manga.model.table
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.jetbrains.exposed.sql.Table
+
+/** a directory of the local source with what was found in it as json, see LocalLibraryIndex */
+object LocalMangaIndexTable : Table("LocalMangaIndex") {
+    val dir = varchar("dir", 1024)
+    val modified = long("modified")
+    val data = text("data")
+
+    override val primaryKey = PrimaryKey(dir)
+}
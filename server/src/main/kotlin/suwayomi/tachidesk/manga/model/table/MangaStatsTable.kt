@@ -0,0 +1,23 @@
+package suwayomi.tachidesk.manga.model.table
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.jetbrains.exposed.sql.Table
+
+/** per manga aggregate of its chapters, written by the triggers of M0034 only */
+object MangaStatsTable : Table("MangaStats") {
+    val manga = integer("manga")
+    val chapterCount = integer("chapter_count").default(0)
+    val unreadCount = integer("unread_count").default(0)
+    val downloadCount = integer("download_count").default(0)
+    val lastReadAt = long("last_read_at").default(0)
+    val latestFetchedAt = long("latest_fetched_at").default(0)
+    val latestUploadAt = long("latest_upload_at").default(0)
+
+    override val primaryKey = PrimaryKey(manga)
+}
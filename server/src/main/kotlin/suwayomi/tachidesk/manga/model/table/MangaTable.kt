@@ -48,6 +48,10 @@ object MangaTable : IntIdTable() {
 
     val lastFetchedAt = long("last_fetched_at").default(0)
     val chaptersLastFetchedAt = long("chapters_last_fetched_at").default(0)
+    /** predicted days between two chapter releases, 0 if unknown, see [suwayomi.tachidesk.manga.impl.update.FetchInterval] */
+    val fetchInterval = integer("fetch_interval").default(0)
+    /** epoch seconds of the earliest time a new chapter is expected */
+    val nextUpdate = long("next_update").default(0)
     val lastDownloadAt = long("last_download_at").default(0)
 
     val updateStrategy = varchar("update_strategy", 256).default(UpdateStrategy.ALWAYS_UPDATE.name)
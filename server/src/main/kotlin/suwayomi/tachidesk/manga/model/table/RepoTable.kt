@@ -22,6 +22,10 @@ object RepoTable : IntIdTable() {
     val homepage = varchar("homepage", 2048).nullable()
     val deleted = bool("deleted").default(false)
 
+    // validators of the last index fetched, the index itself is kept in ApplicationDirs.repoIndexRoot
+    val etag = varchar("etag", 512).nullable()
+    val lastModified = varchar("last_modified", 128).nullable()
+
     // seconds
     val createAt = long("create_at").default(0)
 
@@ -23,4 +23,5 @@ enum class SettingKey {
     UserCredentials,
     MigrateSelectedCategories,
     UpdateRestrictions,
+    DownloadQueuePaused,
 }
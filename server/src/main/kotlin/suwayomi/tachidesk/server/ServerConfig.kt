@@ -33,9 +33,35 @@ class ServerConfig(config: Config, moduleName: String = MODULE_NAME) : SystemPro
     val downloadAsCbz: Boolean by overridableConfig
     val downloadsPath: String by overridableConfig
 
+    // cache
+    val coverCacheSizeMb: Int by overridableConfig
+    val pageCacheSizeMb: Int by overridableConfig
+    val pageCacheMemoryMb: Int by overridableConfig
+    val readAheadPages: Int by overridableConfig
+    val localArchiveMaxOpen: Int by overridableConfig
+    val localArchiveMemoryMb: Int by overridableConfig
+
     // updater
     val maxParallelUpdateRequests: Int by overridableConfig
 
+    // extensions
+    val sourcePrewarmConcurrency: Int by overridableConfig
+
+    // search
+    val globalSearchConcurrency: Int by overridableConfig
+    val globalSearchTimeoutSeconds: Int by overridableConfig
+
+    // database
+    val dbReadConnections: Int by overridableConfig
+    val dbSynchronous: String by overridableConfig
+    val dbCacheSizeKb: Int by overridableConfig
+    val dbMmapSize: Long by overridableConfig
+    val dbTempStore: String by overridableConfig
+    val sqlStatsEnabled: Boolean by overridableConfig
+    val sqlStatsSampleEvery: Int by overridableConfig
+    val sqlSlowQueryMs: Long by overridableConfig
+    val traceEnabled: Boolean by overridableConfig
+
     // Authentication
     val basicAuthEnabled: Boolean by overridableConfig
     val basicAuthUsername: String by overridableConfig
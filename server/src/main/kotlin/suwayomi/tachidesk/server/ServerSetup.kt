@@ -20,12 +20,16 @@ import org.kodein.di.bind
 import org.kodein.di.conf.global
 import org.kodein.di.singleton
 import suwayomi.tachidesk.cloud.impl.Sync
+import suwayomi.tachidesk.manga.impl.MangaStats
 import suwayomi.tachidesk.manga.impl.UserData
+import suwayomi.tachidesk.manga.impl.download.DownloadManager
 import suwayomi.tachidesk.manga.impl.extension.Extension
 import suwayomi.tachidesk.manga.impl.update.IUpdater
 import suwayomi.tachidesk.manga.impl.update.Updater
+import suwayomi.tachidesk.manga.impl.util.source.GetCatalogueSource
 import suwayomi.tachidesk.server.database.databaseUp
 import suwayomi.tachidesk.server.database.databaseUpFast
+import suwayomi.tachidesk.server.util.Tracer
 import tachiyomi.core.util.lang.launchIO
 import xyz.nulldev.androidcompat.AndroidCompat
 import xyz.nulldev.androidcompat.AndroidCompatInitializer
@@ -49,10 +53,12 @@ class ApplicationDirs(
     val mangaDownloadsRoot = serverConfig.downloadsPath.ifBlank { "$dataRoot/downloads" }
     val mangaDownloadsRoot2 = "$dataRoot/downloads2"
     val jarsRoot = "$dataRoot/jars"
+    val repoIndexRoot = "$dataRoot/repo_index"
     val localMangaRoot = "${System.getProperty("user.home")}/Documents/local"
     val prefsRoot = "${System.getProperty("user.home")}/Library/Preferences"
     val webUIRoot = "$dataRoot/webUI"
     val tempProtoBackups = "$tempRoot/proto_backups"
+    val pageCacheRoot = "$tempRoot/page_cache"
 }
 
 val serverConfig: ServerConfig by lazy { GlobalConfigManager.module() }
@@ -156,6 +162,26 @@ fun applicationSetup() {
         UserData.vacuum()
     }
 
+    Tracer.enabled = serverConfig.traceEnabled
+
+    // resume the downloads queued before the last restart
+    try {
+        DownloadManager.restoreQueue()
+    } catch (e: Exception) {
+        logger.error("Exception while restoring download queue", e)
+    }
+
+    // the triggers keep the stats current, this is a safety net for rows that drifted anyway
+    launchIO {
+        try {
+            MangaStats.repair()
+        } catch (e: Exception) {
+            logger.error("Exception while repairing manga stats", e)
+        }
+    }
+
+    GetCatalogueSource.prewarmLibrarySources()
+
     // Disable jetty's logging
     System.setProperty("org.eclipse.jetty.util.log.announce", "false")
     System.setProperty("org.eclipse.jetty.util.log.class", "org.eclipse.jetty.util.log.StdErrLog")
@@ -13,12 +13,15 @@ import de.neonew.exposed.migrations.runMigrations
 import mu.KotlinLogging
 import org.jetbrains.exposed.sql.Database
 import org.jetbrains.exposed.sql.DatabaseConfig
-import org.jetbrains.exposed.sql.StdOutSqlLogger
+import org.jetbrains.exposed.sql.Transaction
+import org.jetbrains.exposed.sql.transactions.TransactionManager
+import org.jetbrains.exposed.sql.transactions.transaction
 import org.kodein.di.DI
 import org.kodein.di.conf.global
 import org.kodein.di.instance
 import suwayomi.tachidesk.server.ApplicationDirs
 import suwayomi.tachidesk.server.ServerConfig
+import suwayomi.tachidesk.server.serverConfig
 
 object DBManager {
 
@@ -32,16 +35,58 @@ object DBManager {
 //                sqlLogger = StdOutSqlLogger
 //            }
 //        )
-        Database.connect(
-            "jdbc:sqlite:${applicationDirs.dataRoot}/sqlite8.db?transaction_mode=IMMEDIATE",
-            "org.sqlite.JDBC",
+        // statements are no longer printed one by one, see SqlStats for timing and slow query logging
+        SqlStats.configure(serverConfig.sqlStatsEnabled, serverConfig.sqlSlowQueryMs, serverConfig.sqlStatsSampleEvery)
+        // a single writer, IMMEDIATE transactions so writers queue on the busy timeout instead of failing on upgrade
+        val db = Database.connect(
+            SqliteDataSource(dbUrl(applicationDirs), 1, false, pragmas()),
             databaseConfig = DatabaseConfig {
                 useNestedTransactions = false
-                sqlLogger = StdOutSqlLogger
-                // warnLongQueriesDuration = 1 //<logger name="Exposed" level="INFO"/>
             },
         )
+        TransactionManager.defaultDatabase = db
+        db
     }
+
+    /**
+     * Read only connections with DEFERRED transactions, in WAL mode they read the last commit
+     * while the writer is busy. Use [readTransaction] to run on them.
+     */
+    val readDb by lazy {
+        val applicationDirs by DI.global.instance<ApplicationDirs>()
+        // the writer switches the file to WAL before any reader opens it
+        db.version
+        val readDb = Database.connect(
+            SqliteDataSource(dbUrl(applicationDirs), serverConfig.dbReadConnections.coerceAtLeast(1), true, pragmas()),
+            databaseConfig = DatabaseConfig {
+                useNestedTransactions = false
+            },
+        )
+        // connecting registers the reader as default, the writer stays the default of transaction {}
+        TransactionManager.defaultDatabase = db
+        readDb
+    }
+
+    private fun dbUrl(applicationDirs: ApplicationDirs) = "jdbc:sqlite:${applicationDirs.dataRoot}/sqlite8.db"
+
+    private fun pragmas() = SqlitePragmas(
+        synchronous = serverConfig.dbSynchronous,
+        cacheSizeKb = serverConfig.dbCacheSizeKb,
+        mmapSize = serverConfig.dbMmapSize,
+        tempStore = serverConfig.dbTempStore,
+    )
+}
+
+/**
+ * Runs [statement] on a read only connection, or in the current transaction if there is one
+ * so it still sees the uncommitted writes of that transaction.
+ */
+fun <T> readTransaction(statement: Transaction.() -> T): T {
+    val current = TransactionManager.currentOrNull()
+    if (current != null) {
+        return current.statement()
+    }
+    return transaction(DBManager.readDb, statement)
 }
 
 private val logger = KotlinLogging.logger {}
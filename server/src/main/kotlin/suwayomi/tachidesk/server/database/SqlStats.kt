@@ -0,0 +1,161 @@
+package suwayomi.tachidesk.server.database
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import mu.KotlinLogging
+import org.jetbrains.exposed.sql.Transaction
+import org.jetbrains.exposed.sql.statements.GlobalStatementInterceptor
+import org.jetbrains.exposed.sql.statements.StatementContext
+import org.jetbrains.exposed.sql.statements.api.PreparedStatementApi
+import org.jetbrains.exposed.sql.statements.expandArgs
+import org.jetbrains.exposed.sql.statements.jdbc.JdbcPreparedStatementImpl
+import suwayomi.tachidesk.server.util.LatencyStats
+import suwayomi.tachidesk.server.util.SpanKind
+import suwayomi.tachidesk.server.util.Tracer
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Timing of the statements executed through Exposed, off unless enabled in the server config.
+ * Inside a [Tracer] trace every statement is also recorded as a DB span.
+ *
+ * Slow statements are logged with their arguments, every [sampleEvery]-th statement is also added to the
+ * latency stats of its shape (the sql with literals and IN lists folded). Statements run on the raw
+ * jdbc connection, like [MyBatchInsertStatement], are not seen here.
+ */
+object SqlStats {
+    private val logger = KotlinLogging.logger {}
+
+    private const val MAX_SHAPES = 1000
+    private const val MAX_SHAPE_LENGTH = 512
+    private const val SAMPLES_PER_SHAPE = 256
+
+    @Volatile
+    var statsEnabled = false
+        private set
+
+    @Volatile
+    var slowQueryMs = 0L
+        private set
+
+    @Volatile
+    var sampleEvery = 1
+        private set
+
+    private val counter = AtomicLong()
+    private val startNanos = ThreadLocal<Long>()
+    private val shapes = ConcurrentHashMap<String, LatencyStats>()
+
+    private val inListRegex = Regex("""\?(\s*,\s*\?)+""")
+    private val numberRegex = Regex("""\b\d+(\.\d+)?\b""")
+    private val stringRegex = Regex("""'(?:[^']|'')*'""")
+
+    private val active: Boolean
+        get() = statsEnabled || slowQueryMs > 0
+
+    fun configure(statsEnabled: Boolean, slowQueryMs: Long, sampleEvery: Int) {
+        this.statsEnabled = statsEnabled
+        this.slowQueryMs = slowQueryMs.coerceAtLeast(0)
+        this.sampleEvery = sampleEvery.coerceAtLeast(1)
+        logger.info { "[SQL]configure statsEnabled=$statsEnabled slowQueryMs=$slowQueryMs sampleEvery=$sampleEvery" }
+    }
+
+    fun reset() {
+        shapes.clear()
+    }
+
+    /** stats of every statement shape seen so far, slowest total time first */
+    fun snapshot(): List<SqlShapeStats> {
+        return shapes.entries
+            .map { (shape, stats) ->
+                val snapshot = stats.snapshot()
+                SqlShapeStats(
+                    sql = shape,
+                    count = snapshot.count,
+                    totalMs = snapshot.totalMs,
+                    p50Ms = snapshot.p50Ms,
+                    p99Ms = snapshot.p99Ms,
+                    maxMs = snapshot.maxMs,
+                    rows = snapshot.amount,
+                )
+            }
+            .sortedByDescending { it.totalMs }
+    }
+
+    internal fun beforeExecution() {
+        if (!active && Tracer.current() == null) {
+            return
+        }
+        startNanos.set(System.nanoTime())
+    }
+
+    internal fun afterExecution(transaction: Transaction, contexts: List<StatementContext>, executedStatement: PreparedStatementApi) {
+        val start = startNanos.get() ?: return
+        startNanos.remove()
+        val elapsed = System.nanoTime() - start
+        val context = contexts.firstOrNull() ?: return
+
+        val trace = Tracer.current()
+        if (trace != null) {
+            val tables = context.statement.targets.joinToString(",") { it.tableName }
+            Tracer.record(trace, "${context.statement.type}:$tables", SpanKind.DB, elapsed)
+        }
+
+        val slowQueryMs = slowQueryMs
+        if (slowQueryMs > 0 && elapsed >= slowQueryMs * 1_000_000) {
+            logger.warn { "[SQL]slow ${elapsed / 1_000_000}ms batch=${contexts.size}: ${context.expandArgs(transaction)}" }
+        }
+
+        if (!statsEnabled || counter.incrementAndGet() % sampleEvery != 0L) {
+            return
+        }
+        val shape = shapeOf(context.sql(transaction))
+        val stats = shapes[shape] ?: if (shapes.size < MAX_SHAPES) shapes.computeIfAbsent(shape) { LatencyStats(SAMPLES_PER_SHAPE) } else return
+        stats.record(elapsed, affectedRows(contexts, executedStatement))
+    }
+
+    private fun shapeOf(sql: String): String {
+        return sql
+            .replace(stringRegex, "'?'")
+            .replace(inListRegex, "?+")
+            .replace(numberRegex, "N")
+            .take(MAX_SHAPE_LENGTH)
+    }
+
+    /** rows written by the statement, 0 for queries as their rows aren't read yet */
+    private fun affectedRows(contexts: List<StatementContext>, executedStatement: PreparedStatementApi): Long {
+        if (contexts.size > 1) {
+            return contexts.size.toLong()
+        }
+        val updateCount = (executedStatement as? JdbcPreparedStatementImpl)?.statement?.updateCount ?: -1
+        return updateCount.toLong().coerceAtLeast(0)
+    }
+}
+
+/** registered through META-INF/services, Exposed creates it once and calls it for every statement */
+class SqlStatsInterceptor : GlobalStatementInterceptor {
+    override fun beforeExecution(transaction: Transaction, context: StatementContext) {
+        SqlStats.beforeExecution()
+    }
+
+    override fun afterExecution(transaction: Transaction, contexts: List<StatementContext>, executedStatement: PreparedStatementApi) {
+        SqlStats.afterExecution(transaction, contexts, executedStatement)
+    }
+}
+
+data class SqlShapeStats(
+    val sql: String,
+    val count: Long,
+    val totalMs: Double,
+    /** p50 and p99 of the last samples of this shape */
+    val p50Ms: Double,
+    val p99Ms: Double,
+    val maxMs: Double,
+    /** rows written, 0 for queries */
+    val rows: Long,
+)
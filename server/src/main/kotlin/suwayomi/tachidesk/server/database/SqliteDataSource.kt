@@ -0,0 +1,178 @@
+package suwayomi.tachidesk.server.database
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import mu.KotlinLogging
+import org.sqlite.SQLiteConfig
+import org.sqlite.SQLiteErrorCode
+import org.sqlite.SQLiteException
+import java.io.PrintWriter
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Proxy
+import java.sql.Connection
+import java.sql.DriverManager
+import java.sql.SQLFeatureNotSupportedException
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.logging.Logger
+import javax.sql.DataSource
+
+data class SqlitePragmas(
+    val synchronous: String = "NORMAL",
+    /** in KiB, passed to sqlite as a negative cache_size */
+    val cacheSizeKb: Int = 8192,
+    val mmapSize: Long = 64L * 1024 * 1024,
+    val tempStore: String = "MEMORY",
+    val busyTimeoutMs: Int = 5000,
+)
+
+/**
+ * A fixed size pool of sqlite connections.
+ *
+ * Connections are opened lazily up to [size] and handed out as proxies whose close() puts them back,
+ * an idle connection is reused as is, a broken one is dropped. Exposed opens one connection per
+ * transaction, so the writer pool has a single connection and readers never wait behind it in WAL mode.
+ * When all connections are taken the caller waits for one, see [waitIdle].
+ */
+class SqliteDataSource(
+    private val url: String,
+    private val size: Int,
+    private val readOnly: Boolean,
+    private val pragmas: SqlitePragmas,
+) : DataSource {
+    private val logger = KotlinLogging.logger {}
+
+    private val idle = LinkedBlockingQueue<Connection>()
+    private val opened = AtomicInteger(0)
+
+    override fun getConnection(): Connection {
+        val conn = idle.poll() ?: openOrWait()
+        return pooled(conn)
+    }
+
+    override fun getConnection(username: String?, password: String?): Connection = connection
+
+    fun close() {
+        while (true) {
+            val conn = idle.poll() ?: break
+            runCatching { conn.close() }
+            opened.decrementAndGet()
+        }
+    }
+
+    private fun openOrWait(): Connection {
+        if (opened.incrementAndGet() <= size) {
+            try {
+                return open()
+            } catch (e: Exception) {
+                opened.decrementAndGet()
+                throw e
+            }
+        }
+        opened.decrementAndGet()
+        return waitIdle()
+    }
+
+    /**
+     * Waits for a connection to come back, like sqlite's busy handler waits for a lock. Only a wait long
+     * enough to be a stuck transaction fails, with SQLITE_BUSY so exposed retries the transaction.
+     */
+    private fun waitIdle(): Connection {
+        val startedAt = System.currentTimeMillis()
+        while (true) {
+            idle.poll(pragmas.busyTimeoutMs.toLong(), TimeUnit.MILLISECONDS)?.let { return it }
+            val waited = System.currentTimeMillis() - startedAt
+            if (waited >= MAX_WAIT_MS) {
+                throw SQLiteException("no sqlite connection available after ${waited}ms, readOnly=$readOnly size=$size", SQLiteErrorCode.SQLITE_BUSY)
+            }
+            logger.warn { "[DB]waiting ${waited}ms for a connection, readOnly=$readOnly size=$size" }
+        }
+    }
+
+    private fun open(): Connection {
+        val config = SQLiteConfig()
+        config.setReadOnly(readOnly)
+        config.setTransactionMode(if (readOnly) SQLiteConfig.TransactionMode.DEFERRED else SQLiteConfig.TransactionMode.IMMEDIATE)
+        config.setBusyTimeout(pragmas.busyTimeoutMs)
+        val conn = DriverManager.getConnection(url, config.toProperties())
+        conn.createStatement().use { statement ->
+            if (!readOnly) {
+                // persistent in the database file, the readers pick it up from there
+                statement.execute("PRAGMA journal_mode=WAL")
+            }
+            statement.execute("PRAGMA synchronous=${pragmas.synchronous}")
+            statement.execute("PRAGMA cache_size=-${pragmas.cacheSizeKb}")
+            statement.execute("PRAGMA mmap_size=${pragmas.mmapSize}")
+            statement.execute("PRAGMA temp_store=${pragmas.tempStore}")
+        }
+        logger.info { "[DB]open connection readOnly=$readOnly opened=${opened.get()}" }
+        return conn
+    }
+
+    private fun release(conn: Connection) {
+        val reusable = try {
+            if (!conn.isClosed && !conn.autoCommit) {
+                // exposed already committed or rolled back, this ends the transaction the driver begins right after
+                conn.rollback()
+                conn.autoCommit = true
+            }
+            !conn.isClosed
+        } catch (e: Exception) {
+            logger.warn(e) { "[DB]drop broken connection" }
+            false
+        }
+        if (reusable) {
+            idle.offer(conn)
+        } else {
+            runCatching { conn.close() }
+            opened.decrementAndGet()
+        }
+    }
+
+    private fun pooled(conn: Connection): Connection {
+        var released = false
+        return Proxy.newProxyInstance(SqliteDataSource::class.java.classLoader, arrayOf(Connection::class.java)) { _, method, args ->
+            when (method.name) {
+                "close" -> {
+                    if (!released) {
+                        released = true
+                        release(conn)
+                    }
+                    null
+                }
+                "isClosed" -> released || conn.isClosed
+                // the driver only accepts the read-only flag the connection was opened with
+                "setReadOnly" -> null
+                else -> try {
+                    method.invoke(conn, *(args ?: emptyArray()))
+                } catch (e: InvocationTargetException) {
+                    throw e.targetException
+                }
+            }
+        } as Connection
+    }
+
+    override fun getLogWriter(): PrintWriter? = null
+
+    override fun setLogWriter(out: PrintWriter?) {}
+
+    override fun setLoginTimeout(seconds: Int) {}
+
+    override fun getLoginTimeout(): Int = 0
+
+    override fun getParentLogger(): Logger = throw SQLFeatureNotSupportedException()
+
+    override fun <T : Any?> unwrap(iface: Class<T>?): T = throw SQLFeatureNotSupportedException()
+
+    override fun isWrapperFor(iface: Class<*>?): Boolean = false
+
+    companion object {
+        private const val MAX_WAIT_MS = 60_000L
+    }
+}
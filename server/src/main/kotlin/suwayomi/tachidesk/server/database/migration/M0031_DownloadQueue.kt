@@ -0,0 +1,32 @@
+package suwayomi.tachidesk.server.database.migration
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import de.neonew.exposed.migrations.helpers.SQLsMigration
+
+@Suppress("ClassName", "unused")
+class M0031_DownloadQueue : SQLsMigration() {
+    override val sqls = listOf(
+        """
+        CREATE TABLE "DownloadQueue" (
+            "id" INTEGER PRIMARY KEY AUTOINCREMENT,
+            "chapter"	INT NOT NULL,
+            "manga"	INT NOT NULL,
+            "chapter_index"	INT NOT NULL,
+            "position"	BIGINT NOT NULL DEFAULT 0,
+            "state"	INT NOT NULL DEFAULT 0,
+            "tries"	INT NOT NULL DEFAULT 0,
+            "error"	VARCHAR(256),
+            "progress"	REAL NOT NULL DEFAULT 0,
+            "create_at"	BIGINT NOT NULL DEFAULT 0,
+            "update_at"	BIGINT NOT NULL DEFAULT 0
+        )
+        """.trimIndent(),
+        """CREATE UNIQUE INDEX DownloadQueue_idx_chapter ON DownloadQueue(chapter);""",
+    )
+}
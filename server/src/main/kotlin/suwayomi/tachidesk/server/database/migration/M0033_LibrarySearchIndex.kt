@@ -0,0 +1,44 @@
+package suwayomi.tachidesk.server.database.migration
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import de.neonew.exposed.migrations.helpers.SQLsMigration
+
+/**
+ * External content FTS5 indexes over manga and chapter names, kept in sync by triggers so every write path,
+ * including the raw batch inserts, is covered. The update triggers only fire for the indexed columns.
+ */
+@Suppress("ClassName", "unused")
+class M0033_LibrarySearchIndex : SQLsMigration() {
+    override val sqls = listOf(
+        """CREATE VIRTUAL TABLE manga_fts USING fts5(title, author, artist, genre, description, content='Manga', content_rowid='id', tokenize='unicode61 remove_diacritics 2', prefix='2 3');""",
+        """CREATE TRIGGER manga_fts_ai AFTER INSERT ON Manga BEGIN
+            INSERT INTO manga_fts(rowid, title, author, artist, genre, description) VALUES (new.id, new.title, new.author, new.artist, new.genre, new.description);
+        END;""",
+        """CREATE TRIGGER manga_fts_ad AFTER DELETE ON Manga BEGIN
+            INSERT INTO manga_fts(manga_fts, rowid, title, author, artist, genre, description) VALUES ('delete', old.id, old.title, old.author, old.artist, old.genre, old.description);
+        END;""",
+        """CREATE TRIGGER manga_fts_au AFTER UPDATE OF title, author, artist, genre, description ON Manga BEGIN
+            INSERT INTO manga_fts(manga_fts, rowid, title, author, artist, genre, description) VALUES ('delete', old.id, old.title, old.author, old.artist, old.genre, old.description);
+            INSERT INTO manga_fts(rowid, title, author, artist, genre, description) VALUES (new.id, new.title, new.author, new.artist, new.genre, new.description);
+        END;""",
+        """INSERT INTO manga_fts(manga_fts) VALUES ('rebuild');""",
+        """CREATE VIRTUAL TABLE chapter_fts USING fts5(name, content='Chapter', content_rowid='id', tokenize='unicode61 remove_diacritics 2');""",
+        """CREATE TRIGGER chapter_fts_ai AFTER INSERT ON Chapter BEGIN
+            INSERT INTO chapter_fts(rowid, name) VALUES (new.id, new.name);
+        END;""",
+        """CREATE TRIGGER chapter_fts_ad AFTER DELETE ON Chapter BEGIN
+            INSERT INTO chapter_fts(chapter_fts, rowid, name) VALUES ('delete', old.id, old.name);
+        END;""",
+        """CREATE TRIGGER chapter_fts_au AFTER UPDATE OF name ON Chapter BEGIN
+            INSERT INTO chapter_fts(chapter_fts, rowid, name) VALUES ('delete', old.id, old.name);
+            INSERT INTO chapter_fts(rowid, name) VALUES (new.id, new.name);
+        END;""",
+        """INSERT INTO chapter_fts(chapter_fts) VALUES ('rebuild');""",
+    )
+}
@@ -0,0 +1,85 @@
+package suwayomi.tachidesk.server.database.migration
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import de.neonew.exposed.migrations.helpers.SQLsMigration
+
+/**
+ * Chapter counts and latest dates per manga, maintained by triggers on Chapter so every write path keeps them
+ * current. A maximum is only recomputed from the chapters when the row holding it goes down or away.
+ */
+@Suppress("ClassName", "unused")
+class M0034_MangaStats : SQLsMigration() {
+    override val sqls = listOf(
+        """
+        CREATE TABLE "MangaStats" (
+            "manga"	INTEGER NOT NULL PRIMARY KEY,
+            "chapter_count"	INT NOT NULL DEFAULT 0,
+            "unread_count"	INT NOT NULL DEFAULT 0,
+            "download_count"	INT NOT NULL DEFAULT 0,
+            "last_read_at"	BIGINT NOT NULL DEFAULT 0,
+            "latest_fetched_at"	BIGINT NOT NULL DEFAULT 0,
+            "latest_upload_at"	BIGINT NOT NULL DEFAULT 0
+        )
+        """.trimIndent(),
+        """
+        INSERT INTO MangaStats(manga, chapter_count, unread_count, download_count, last_read_at, latest_fetched_at, latest_upload_at)
+        SELECT manga, COUNT(*), SUM("read" = 0), SUM(is_downloaded = 1), MAX(last_read_at), MAX(fetched_at), MAX(date_upload)
+        FROM Chapter GROUP BY manga;
+        """.trimIndent(),
+        """CREATE TRIGGER manga_stats_chapter_ai AFTER INSERT ON Chapter BEGIN
+            INSERT OR IGNORE INTO MangaStats(manga) VALUES (new.manga);
+            UPDATE MangaStats SET
+                chapter_count = chapter_count + 1,
+                unread_count = unread_count + (new."read" = 0),
+                download_count = download_count + (new.is_downloaded = 1),
+                last_read_at = max(last_read_at, new.last_read_at),
+                latest_fetched_at = max(latest_fetched_at, new.fetched_at),
+                latest_upload_at = max(latest_upload_at, new.date_upload)
+            WHERE manga = new.manga;
+        END;""",
+        """CREATE TRIGGER manga_stats_chapter_ad AFTER DELETE ON Chapter BEGIN
+            UPDATE MangaStats SET
+                chapter_count = chapter_count - 1,
+                unread_count = unread_count - (old."read" = 0),
+                download_count = download_count - (old.is_downloaded = 1),
+                last_read_at = CASE WHEN old.last_read_at < last_read_at THEN last_read_at
+                    ELSE (SELECT IFNULL(MAX(c.last_read_at), 0) FROM Chapter c WHERE c.manga = old.manga) END,
+                latest_fetched_at = CASE WHEN old.fetched_at < latest_fetched_at THEN latest_fetched_at
+                    ELSE (SELECT IFNULL(MAX(c.fetched_at), 0) FROM Chapter c WHERE c.manga = old.manga) END,
+                latest_upload_at = CASE WHEN old.date_upload < latest_upload_at THEN latest_upload_at
+                    ELSE (SELECT IFNULL(MAX(c.date_upload), 0) FROM Chapter c WHERE c.manga = old.manga) END
+            WHERE manga = old.manga;
+        END;""",
+        """CREATE TRIGGER manga_stats_chapter_au AFTER UPDATE OF "read", is_downloaded, last_read_at, fetched_at, date_upload ON Chapter
+        WHEN old.manga = new.manga BEGIN
+            UPDATE MangaStats SET
+                unread_count = unread_count + (new."read" = 0) - (old."read" = 0),
+                download_count = download_count + (new.is_downloaded = 1) - (old.is_downloaded = 1),
+                last_read_at = CASE WHEN new.last_read_at >= old.last_read_at THEN max(last_read_at, new.last_read_at)
+                    WHEN old.last_read_at < last_read_at THEN last_read_at
+                    ELSE (SELECT IFNULL(MAX(c.last_read_at), 0) FROM Chapter c WHERE c.manga = new.manga) END,
+                latest_fetched_at = CASE WHEN new.fetched_at >= old.fetched_at THEN max(latest_fetched_at, new.fetched_at)
+                    WHEN old.fetched_at < latest_fetched_at THEN latest_fetched_at
+                    ELSE (SELECT IFNULL(MAX(c.fetched_at), 0) FROM Chapter c WHERE c.manga = new.manga) END,
+                latest_upload_at = CASE WHEN new.date_upload >= old.date_upload THEN max(latest_upload_at, new.date_upload)
+                    WHEN old.date_upload < latest_upload_at THEN latest_upload_at
+                    ELSE (SELECT IFNULL(MAX(c.date_upload), 0) FROM Chapter c WHERE c.manga = new.manga) END
+            WHERE manga = new.manga;
+        END;""",
+        """CREATE TRIGGER manga_stats_chapter_move AFTER UPDATE OF manga ON Chapter WHEN old.manga <> new.manga BEGIN
+            DELETE FROM MangaStats WHERE manga IN (old.manga, new.manga);
+            INSERT INTO MangaStats(manga, chapter_count, unread_count, download_count, last_read_at, latest_fetched_at, latest_upload_at)
+            SELECT manga, COUNT(*), SUM("read" = 0), SUM(is_downloaded = 1), MAX(last_read_at), MAX(fetched_at), MAX(date_upload)
+            FROM Chapter WHERE manga IN (old.manga, new.manga) GROUP BY manga;
+        END;""",
+        """CREATE TRIGGER manga_stats_manga_ad AFTER DELETE ON Manga BEGIN
+            DELETE FROM MangaStats WHERE manga = old.id;
+        END;""",
+    )
+}
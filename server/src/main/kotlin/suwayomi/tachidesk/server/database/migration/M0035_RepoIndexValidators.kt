@@ -0,0 +1,18 @@
+package suwayomi.tachidesk.server.database.migration
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import de.neonew.exposed.migrations.helpers.SQLsMigration
+
+@Suppress("ClassName", "unused")
+class M0035_RepoIndexValidators : SQLsMigration() {
+    override val sqls = listOf(
+        """ALTER TABLE Repo ADD COLUMN "etag" VARCHAR(512);""",
+        """ALTER TABLE Repo ADD COLUMN "last_modified" VARCHAR(128);""",
+    )
+}
@@ -0,0 +1,27 @@
+package suwayomi.tachidesk.server.database.migration
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import de.neonew.exposed.migrations.helpers.SQLsMigration
+
+/**
+ * What the local source found in each manga directory, so browsing the local library doesn't walk and probe
+ * every directory again.
+ */
+@Suppress("ClassName", "unused")
+class M0036_LocalMangaIndex : SQLsMigration() {
+    override val sqls = listOf(
+        """
+        CREATE TABLE "LocalMangaIndex" (
+            "dir"	VARCHAR(1024) NOT NULL PRIMARY KEY,
+            "modified"	BIGINT NOT NULL,
+            "data"	TEXT NOT NULL
+        )
+        """.trimIndent(),
+    )
+}
@@ -0,0 +1,32 @@
+package suwayomi.tachidesk.server.database.migration
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import de.neonew.exposed.migrations.helpers.SQLsMigration
+
+/**
+ * The update triggers of M0033 only reindex a row whose indexed text actually changed. A chapter sync and a
+ * manga refresh write these columns for every row, mostly with the same values.
+ */
+@Suppress("ClassName", "unused")
+class M0037_LibrarySearchTriggers : SQLsMigration() {
+    override val sqls = listOf(
+        """DROP TRIGGER IF EXISTS manga_fts_au;""",
+        """CREATE TRIGGER manga_fts_au AFTER UPDATE OF title, author, artist, genre, description ON Manga
+        WHEN old.title IS NOT new.title OR old.author IS NOT new.author OR old.artist IS NOT new.artist
+            OR old.genre IS NOT new.genre OR old.description IS NOT new.description BEGIN
+            INSERT INTO manga_fts(manga_fts, rowid, title, author, artist, genre, description) VALUES ('delete', old.id, old.title, old.author, old.artist, old.genre, old.description);
+            INSERT INTO manga_fts(rowid, title, author, artist, genre, description) VALUES (new.id, new.title, new.author, new.artist, new.genre, new.description);
+        END;""",
+        """DROP TRIGGER IF EXISTS chapter_fts_au;""",
+        """CREATE TRIGGER chapter_fts_au AFTER UPDATE OF name ON Chapter WHEN old.name IS NOT new.name BEGIN
+            INSERT INTO chapter_fts(chapter_fts, rowid, name) VALUES ('delete', old.id, old.name);
+            INSERT INTO chapter_fts(rowid, name) VALUES (new.id, new.name);
+        END;""",
+    )
+}
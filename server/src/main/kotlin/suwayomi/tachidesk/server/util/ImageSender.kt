@@ -0,0 +1,118 @@
+package suwayomi.tachidesk.server.util
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import io.javalin.http.Context
+import io.javalin.http.HttpCode
+import suwayomi.tachidesk.manga.impl.util.storage.ResponseImage
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.file.NoSuchFileException
+import java.nio.file.StandardOpenOption
+import java.time.Instant
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+import java.time.format.DateTimeFormatter
+
+/**
+ * Sends [image] with its ETag and Last-Modified, a request that already has it is answered with a 304.
+ *
+ * An image backed by a file honors a single byte range and is copied from the file to the response in chunks.
+ * The file is opened before any header is set, a cache entry evicted in the meantime is answered with a 404
+ * instead of an empty 200. Other images are streamed as before.
+ */
+fun Context.sendImage(image: ResponseImage, maxAgeSeconds: Long) {
+    val channel = image.file?.let { file ->
+        try {
+            FileChannel.open(file.toPath(), StandardOpenOption.READ)
+        } catch (e: NoSuchFileException) {
+            status(HttpCode.NOT_FOUND)
+            return
+        }
+    }
+    channel.use { sendOpenedImage(image, it, maxAgeSeconds) }
+}
+
+private fun Context.sendOpenedImage(image: ResponseImage, channel: FileChannel?, maxAgeSeconds: Long) {
+    header("cache-control", "max-age=$maxAgeSeconds")
+    contentType(image.contentType)
+    image.etag?.let { header("ETag", it) }
+    image.lastModified?.let { header("Last-Modified", httpDate(it)) }
+
+    if (isNotModified(image)) {
+        status(HttpCode.NOT_MODIFIED)
+        return
+    }
+
+    if (channel == null) {
+        result(image.open())
+        return
+    }
+
+    header("Accept-Ranges", "bytes")
+    val length = channel.size()
+    val ifRange = header("If-Range")
+    val range = if (ifRange == null || ifRange == image.etag) header("Range") else null
+    if (range == null) {
+        sendFile(channel, 0, length)
+        return
+    }
+    val (start, end) = parseByteRange(range, length) ?: run {
+        status(416)
+        header("Content-Range", "bytes */$length")
+        return
+    }
+    status(206)
+    header("Content-Range", "bytes $start-$end/$length")
+    sendFile(channel, start, end - start + 1)
+}
+
+/** first and last byte of a single `bytes=` range, null if it can't be satisfied */
+internal fun parseByteRange(header: String, length: Long): Pair<Long, Long>? {
+    val spec = header.trim()
+    if (!spec.startsWith("bytes=") || spec.contains(',') || length == 0L) {
+        return null
+    }
+    val first = spec.removePrefix("bytes=").substringBefore('-').trim()
+    val last = spec.substringAfter('-').trim()
+    return if (first.isEmpty()) {
+        // suffix range, the last n bytes
+        val suffix = last.toLongOrNull()?.takeIf { it > 0 } ?: return null
+        (length - suffix).coerceAtLeast(0) to length - 1
+    } else {
+        val start = first.toLongOrNull()?.takeIf { it in 0 until length } ?: return null
+        val end = if (last.isEmpty()) length - 1 else last.toLongOrNull()?.coerceAtMost(length - 1) ?: return null
+        if (end < start) null else start to end
+    }
+}
+
+private fun Context.isNotModified(image: ResponseImage): Boolean {
+    val ifNoneMatch = header("If-None-Match")
+    if (ifNoneMatch != null) {
+        return image.etag != null && ifNoneMatch.split(',').any { it.trim() == image.etag || it.trim() == "*" }
+    }
+    val ifModifiedSince = header("If-Modified-Since") ?: return false
+    val lastModified = image.lastModified ?: return false
+    val since = runCatching { ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond() }
+        .getOrNull() ?: return false
+    return lastModified / 1000 <= since
+}
+
+private fun Context.sendFile(channel: FileChannel, start: Long, count: Long) {
+    res.setContentLengthLong(count)
+    val out = res.outputStream
+    val target = Channels.newChannel(out)
+    var position = start
+    while (position < start + count) {
+        position += channel.transferTo(position, start + count - position, target)
+    }
+    out.flush()
+}
+
+private fun httpDate(millis: Long): String =
+    DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(millis).atZone(ZoneOffset.UTC))
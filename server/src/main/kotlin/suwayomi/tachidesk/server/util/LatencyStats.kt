@@ -0,0 +1,55 @@
+package suwayomi.tachidesk.server.util
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+/**
+ * Count, total and max of a latency plus its p50/p99 over the last [samples] values.
+ * Percentiles from a small ring are rough but cost nothing to keep for many keys.
+ */
+class LatencyStats(private val samples: Int = 256) {
+    private var count = 0L
+    private var totalNanos = 0L
+    private var maxNanos = 0L
+    private var amount = 0L
+    private val ring = LongArray(samples)
+
+    /** [amount] is summed as is, e.g. rows written by a statement */
+    @Synchronized
+    fun record(elapsedNanos: Long, amount: Long = 0) {
+        ring[(count % samples).toInt()] = elapsedNanos
+        count++
+        totalNanos += elapsedNanos
+        this.amount += amount
+        if (elapsedNanos > maxNanos) {
+            maxNanos = elapsedNanos
+        }
+    }
+
+    @Synchronized
+    fun snapshot(): Snapshot {
+        val sorted = ring.copyOf(count.coerceAtMost(samples.toLong()).toInt()).apply { sort() }
+        fun percentile(p: Double) = if (sorted.isEmpty()) 0.0 else sorted[((sorted.size - 1) * p).toInt()] / 1e6
+        return Snapshot(
+            count = count,
+            totalMs = totalNanos / 1e6,
+            p50Ms = percentile(0.5),
+            p99Ms = percentile(0.99),
+            maxMs = maxNanos / 1e6,
+            amount = amount,
+        )
+    }
+
+    data class Snapshot(
+        val count: Long,
+        val totalMs: Double,
+        val p50Ms: Double,
+        val p99Ms: Double,
+        val maxMs: Double,
+        val amount: Long,
+    )
+}
@@ -0,0 +1,283 @@
+package suwayomi.tachidesk.server.util
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import kotlinx.coroutines.ThreadContextElement
+import kotlinx.coroutines.withContext
+import mu.KotlinLogging
+import okhttp3.Call
+import java.util.Collections
+import java.util.WeakHashMap
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.AbstractCoroutineContextElement
+import kotlin.coroutines.CoroutineContext
+
+enum class SpanKind {
+    TRACE,
+    STEP,
+    DB,
+    NET,
+    NATIVE_NET,
+    PARSE,
+}
+
+class TraceSpan(
+    val name: String,
+    val kind: SpanKind,
+    /** ms since the start of the trace */
+    val startMs: Double,
+) {
+    @Volatile
+    var durationMs: Double = 0.0
+        internal set
+
+    val children: List<TraceSpan>
+        get() = synchronized(childList) { childList.toList() }
+
+    internal val childList = mutableListOf<TraceSpan>()
+
+    /** start of the next [Tracer.split] step */
+    @Volatile
+    internal var markNanos: Long = 0
+}
+
+class TraceRecord(val id: Long, val name: String, val startAt: Long) {
+    internal val startNanos = System.nanoTime()
+    internal val spanCount = AtomicLong()
+
+    val root = TraceSpan(name, SpanKind.TRACE, 0.0).apply { markNanos = startNanos }
+
+    val durationMs: Double
+        get() = root.durationMs
+}
+
+/** what runs in a trace: the trace and the span new spans are attached to */
+class TraceContext(val trace: TraceRecord, val span: TraceSpan)
+
+/** carries the [TraceContext] of a coroutine to whatever thread it resumes on */
+class TraceElement(val context: TraceContext?) : ThreadContextElement<TraceContext?>, AbstractCoroutineContextElement(Key) {
+    companion object Key : CoroutineContext.Key<TraceElement>
+
+    override fun updateThreadContext(context: CoroutineContext): TraceContext? {
+        val old = Tracer.local.get()
+        Tracer.local.set(this.context)
+        return old
+    }
+
+    override fun restoreThreadContext(context: CoroutineContext, oldState: TraceContext?) {
+        Tracer.local.set(oldState)
+    }
+}
+
+/**
+ * Request tracing with nested spans.
+ *
+ * The current span lives in a thread local that [TraceElement] moves along with the coroutine, so a
+ * suspend function started with [trace] keeps its spans when it resumes on another thread. OkHttp calls
+ * are bound to the context they were created in, their events may arrive on a dispatcher thread.
+ * Finished traces go into a ring of the last [MAX_TRACES], every span also feeds a histogram per kind and name.
+ */
+object Tracer {
+    private val logger = KotlinLogging.logger {}
+
+    private const val MAX_TRACES = 200
+    private const val MAX_SPANS_PER_TRACE = 500
+    private const val MAX_STATS = 500
+
+    internal val local = ThreadLocal<TraceContext?>()
+
+    private val ids = AtomicLong()
+    private val traces = ArrayDeque<TraceRecord>()
+    private val stats = ConcurrentHashMap<String, LatencyStats>()
+    private val calls = Collections.synchronizedMap(WeakHashMap<Call, TraceContext>())
+
+    /** no trace is started while false, so spans and sql timings aren't recorded either */
+    @Volatile
+    var enabled = false
+
+    fun current(): TraceContext? = local.get()
+
+    /** runs [block] as a new trace, or as a span if there already is one */
+    suspend fun <T> trace(name: String, block: suspend () -> T): T {
+        if (!enabled) {
+            return block()
+        }
+        if (current() != null) {
+            return span(name, SpanKind.STEP, block)
+        }
+        val context = begin(name)
+        try {
+            return withContext(TraceElement(context)) { block() }
+        } finally {
+            end(context)
+        }
+    }
+
+    /** [trace] for code that doesn't suspend */
+    inline fun <T> traceBlocking(name: String, block: () -> T): T {
+        if (!enabled) {
+            return block()
+        }
+        val parent = current()
+        val context = if (parent != null) openSpan(parent, name, SpanKind.STEP) else begin(name)
+        val old = swap(context)
+        try {
+            return block()
+        } finally {
+            swap(old)
+            if (parent != null) closeSpan(context) else end(context)
+        }
+    }
+
+    suspend fun <T> span(name: String, kind: SpanKind = SpanKind.STEP, block: suspend () -> T): T {
+        val parent = current() ?: return block()
+        val context = openSpan(parent, name, kind)
+        try {
+            return withContext(TraceElement(context)) { block() }
+        } finally {
+            closeSpan(context)
+        }
+    }
+
+    /** [span] for code that doesn't suspend */
+    inline fun <T> spanBlocking(name: String, kind: SpanKind = SpanKind.STEP, block: () -> T): T {
+        val parent = current() ?: return block()
+        val context = openSpan(parent, name, kind)
+        val old = swap(context)
+        try {
+            return block()
+        } finally {
+            swap(old)
+            closeSpan(context)
+        }
+    }
+
+    /** closes the step that started at the previous split (or the start of the current span) */
+    fun split(name: String) {
+        val context = current() ?: return
+        val now = System.nanoTime()
+        val start = context.span.markNanos
+        context.span.markNanos = now
+        record(context, name, SpanKind.STEP, now - start)
+    }
+
+    /** adds a span of [kind] that ended just now and took [elapsedNanos] */
+    fun record(context: TraceContext?, name: String, kind: SpanKind, elapsedNanos: Long) {
+        if (!enabled) {
+            return
+        }
+        statsOf(kind, name).record(elapsedNanos)
+        if (context == null || context.trace.spanCount.incrementAndGet() > MAX_SPANS_PER_TRACE) {
+            return
+        }
+        val trace = context.trace
+        val startMs = (System.nanoTime() - elapsedNanos - trace.startNanos) / 1e6
+        val span = TraceSpan(name, kind, startMs).apply { durationMs = elapsedNanos / 1e6 }
+        synchronized(context.span.childList) { context.span.childList.add(span) }
+    }
+
+    /** remembers the context [call] is created in, so its network events land in the right trace */
+    fun bind(call: Call) {
+        val context = current() ?: return
+        calls[call] = context
+    }
+
+    fun contextOf(call: Call): TraceContext? = if (enabled) calls[call] else null
+
+    fun unbind(call: Call) {
+        calls.remove(call)
+    }
+
+    fun recentTraces(limit: Int): List<TraceRecord> = synchronized(traces) {
+        traces.takeLast(limit.coerceAtLeast(0)).reversed()
+    }
+
+    fun spanStats(): Map<String, LatencyStats.Snapshot> {
+        return stats.mapValues { it.value.snapshot() }
+    }
+
+    fun reset() {
+        synchronized(traces) { traces.clear() }
+        stats.clear()
+    }
+
+    @PublishedApi
+    internal fun begin(name: String): TraceContext {
+        val trace = TraceRecord(ids.incrementAndGet(), name, System.currentTimeMillis())
+        return TraceContext(trace, trace.root)
+    }
+
+    @PublishedApi
+    internal fun end(context: TraceContext) {
+        val trace = context.trace
+        val elapsed = System.nanoTime() - trace.startNanos
+        trace.root.durationMs = elapsed / 1e6
+        statsOf(SpanKind.TRACE, trace.name).record(elapsed)
+        synchronized(traces) {
+            traces.addLast(trace)
+            if (traces.size > MAX_TRACES) {
+                traces.removeFirst()
+            }
+        }
+        logger.debug { "[TRACE]${trace.name} cost=${"%.1f".format(trace.durationMs)}ms spans=${trace.spanCount.get()}" }
+    }
+
+    @PublishedApi
+    internal fun openSpan(parent: TraceContext, name: String, kind: SpanKind): TraceContext {
+        val trace = parent.trace
+        val now = System.nanoTime()
+        val span = TraceSpan(name, kind, (now - trace.startNanos) / 1e6).apply { markNanos = now }
+        if (trace.spanCount.incrementAndGet() <= MAX_SPANS_PER_TRACE) {
+            synchronized(parent.span.childList) { parent.span.childList.add(span) }
+        }
+        return TraceContext(trace, span)
+    }
+
+    @PublishedApi
+    internal fun closeSpan(context: TraceContext) {
+        val span = context.span
+        val elapsed = System.nanoTime() - context.trace.startNanos - (span.startMs * 1e6).toLong()
+        span.durationMs = elapsed / 1e6
+        statsOf(span.kind, span.name).record(elapsed)
+    }
+
+    @PublishedApi
+    internal fun swap(context: TraceContext?): TraceContext? {
+        val old = local.get()
+        local.set(context)
+        return old
+    }
+
+    private fun statsOf(kind: SpanKind, name: String): LatencyStats {
+        val key = "$kind:$name"
+        return stats[key] ?: if (stats.size < MAX_STATS) stats.computeIfAbsent(key) { LatencyStats() } else stats.computeIfAbsent("$kind:other") { LatencyStats() }
+    }
+}
+
+data class TraceSpanDataClass(
+    val name: String,
+    val kind: SpanKind,
+    val startMs: Double,
+    val durationMs: Double,
+    val children: List<TraceSpanDataClass>,
+)
+
+data class TraceDataClass(
+    val id: Long,
+    val name: String,
+    val startAt: Long,
+    val durationMs: Double,
+    val root: TraceSpanDataClass,
+)
+
+fun TraceSpan.toDataClass(): TraceSpanDataClass =
+    TraceSpanDataClass(name, kind, startMs, durationMs, children.map { it.toDataClass() })
+
+fun TraceRecord.toDataClass(): TraceDataClass =
+    TraceDataClass(id, name, startAt, durationMs, root.toDataClass())
@@ -0,0 +1,101 @@
+package eu.kanade.tachiyomi.data.backup
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import eu.kanade.tachiyomi.data.backup.models.Backup
+import eu.kanade.tachiyomi.data.backup.models.BackupCategory
+import eu.kanade.tachiyomi.data.backup.models.BackupChapter
+import eu.kanade.tachiyomi.data.backup.models.BackupExtensionRepos
+import eu.kanade.tachiyomi.data.backup.models.BackupManga
+import eu.kanade.tachiyomi.data.backup.models.BackupSource
+import kotlinx.serialization.protobuf.ProtoBuf
+import okio.Buffer
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+
+class BackupStreamWriterTest {
+    private val mangas = (0 until 20).map { i ->
+        BackupManga(
+            source = i % 3L,
+            url = "/manga/$i",
+            title = "manga $i ".repeat(i + 1),
+            genre = listOf("action", "drama"),
+            chapters = (0 until i * 10).map { BackupChapter(url = "/chapter/$it", name = "chapter $it", read = it % 2 == 0) },
+            categories = listOf(1L),
+        )
+    }
+    private val categories = listOf(BackupCategory("reading", 1), BackupCategory("done", 2))
+    private val sources = listOf(BackupSource("a", 0), BackupSource("b", 1), BackupSource("c", 2))
+
+    @Test
+    fun writesTheBytesOfTheWholeBackup() {
+        val expected = ProtoBuf.encodeToByteArray(Backup.serializer(), Backup(mangas, categories, sources))
+
+        val buffer = Buffer()
+        val writer = BackupStreamWriter(buffer)
+        mangas.forEach { writer.writeManga(it) }
+        categories.forEach { writer.writeCategory(it) }
+        sources.forEach { writer.writeSource(it) }
+
+        assertArrayEquals(expected, buffer.readByteArray())
+    }
+
+    @Test
+    fun readsBackTheWrittenBackup(@TempDir dir: File) {
+        val repo = BackupExtensionRepos("https://example.org/repo", "example", null, "https://example.org", "ab:cd")
+        val buffer = Buffer()
+        val writer = BackupStreamWriter(buffer)
+        mangas.take(10).forEach { writer.writeManga(it) }
+        // fields this reader doesn't know, one of every wire type, between and after the known ones
+        buffer.writeTag(50, 0).writeVarint(1L shl 40)
+        buffer.writeTag(51, 1).writeLongLe(-1)
+        buffer.writeTag(52, 5).writeIntLe(-1)
+        val unknown = ProtoBuf.encodeToByteArray(BackupManga.serializer(), mangas[1])
+        buffer.writeTag(53, 2).writeVarint(unknown.size.toLong()).write(unknown)
+        mangas.drop(10).forEach { writer.writeManga(it) }
+        categories.forEach { writer.writeCategory(it) }
+        sources.forEach { writer.writeSource(it) }
+        val repoBytes = ProtoBuf.encodeToByteArray(BackupExtensionRepos.serializer(), repo)
+        buffer.writeTag(106, 2).writeVarint(repoBytes.size.toLong()).write(repoBytes)
+        buffer.writeTag(54, 0).writeVarint(7)
+        val file = File(dir, "backup.proto").apply { writeBytes(buffer.readByteArray()) }
+
+        val reader = BackupReader(file)
+        val header = reader.readHeader()
+        assertEquals(mangas.size, header.mangaCount)
+        assertEquals(categories.map { it.name to it.order }, header.categories.map { it.name to it.order })
+        assertEquals(sources, header.sources)
+        assertEquals(listOf(repo.baseUrl), header.extensionRepos.map { it.baseUrl })
+
+        val read = mutableListOf<BackupManga>()
+        reader.forEachManga { read += it }
+        assertEquals(mangas, read)
+    }
+
+    @Test
+    fun writesAnEmptyBackup() {
+        val expected = ProtoBuf.encodeToByteArray(Backup.serializer(), Backup(emptyList()))
+        val buffer = Buffer()
+        BackupStreamWriter(buffer)
+        assertArrayEquals(expected, buffer.readByteArray())
+    }
+
+    private fun Buffer.writeTag(number: Int, wireType: Int) = writeVarint((number.toLong() shl 3) or wireType.toLong())
+
+    private fun Buffer.writeVarint(value: Long): Buffer {
+        var rest = value
+        while (rest and 0x7FL.inv() != 0L) {
+            writeByte(((rest and 0x7F) or 0x80).toInt())
+            rest = rest ushr 7
+        }
+        return writeByte(rest.toInt())
+    }
+}
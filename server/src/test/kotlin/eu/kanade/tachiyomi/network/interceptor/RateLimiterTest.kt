@@ -0,0 +1,38 @@
+package eu.kanade.tachiyomi.network.interceptor
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class RateLimiterTest {
+    @Test
+    fun reservesSlotsWithoutBlocking() {
+        val limiter = RateLimiter("test", 2, 60_000)
+        assertEquals(0L, limiter.reserve())
+        assertEquals(0L, limiter.reserve())
+        assertTrue(limiter.waitMillis() > 59_000)
+
+        // every further caller gets its own slot a period after the one it replaces
+        val third = limiter.reserve()
+        val fourth = limiter.reserve()
+        val fifth = limiter.reserve()
+        assertTrue(third in 59_000..60_000)
+        assertTrue(fourth in 59_000..60_000)
+        assertTrue(fifth in 119_000..120_000)
+        assertEquals(5L, limiter.stats().granted)
+    }
+
+    @Test
+    fun sharesLimitersByKeyAndLimit() {
+        val a = RateLimiter.shared("host:example.org", 5, 1000)
+        assertTrue(a === RateLimiter.shared("host:example.org", 5, 1000))
+        assertTrue(a !== RateLimiter.shared("host:example.org", 2, 1000))
+    }
+}
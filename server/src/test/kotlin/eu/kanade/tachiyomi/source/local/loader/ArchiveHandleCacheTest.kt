@@ -0,0 +1,67 @@
+package eu.kanade.tachiyomi.source.local.loader
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+
+class ArchiveHandleCacheTest {
+    private class FakeLoader : PageLoader {
+        var closed = false
+
+        override fun getPages() = (0 until 3).map { i -> ReaderPage(i).apply { stream = { byteArrayOf(i.toByte()).inputStream() } } }
+
+        override fun close() {
+            closed = true
+        }
+    }
+
+    private val opened = mutableMapOf<String, FakeLoader>()
+
+    private fun cache(maxOpen: Int) = ArchiveHandleCache({ maxOpen }, { Long.MAX_VALUE }) { file ->
+        FakeLoader().also { opened[file.name] = it }
+    }
+
+    private fun archive(dir: File, name: String) = File(dir, name).apply { writeText(name) }
+
+    @Test
+    fun reusesOpenArchives(@TempDir dir: File) {
+        val cache = cache(2)
+        val a = archive(dir, "a.cbz")
+        assertEquals(3, cache.pageCount("a", a))
+        assertEquals(1, cache.openPage("a", a, 1).use { it.read() })
+
+        val stats = cache.stats()
+        assertEquals(1, stats.openArchives)
+        assertEquals(1, stats.hits)
+        assertEquals(1, stats.misses)
+    }
+
+    @Test
+    fun closesEvictedArchivesOnceReleased(@TempDir dir: File) {
+        val cache = cache(1)
+        val a = archive(dir, "a.cbz")
+        val b = archive(dir, "b.cbz")
+
+        val stream = cache.openPage("a", a, 0)
+        cache.pageCount("b", b)
+        assertFalse(opened["a.cbz"]!!.closed)
+        stream.close()
+        assertTrue(opened["a.cbz"]!!.closed)
+        assertFalse(opened["b.cbz"]!!.closed)
+
+        // opened again lazily
+        assertEquals(2, cache.openPage("a", a, 2).use { it.read() })
+        assertTrue(opened["b.cbz"]!!.closed)
+        assertEquals(2, cache.stats().evictions)
+    }
+}
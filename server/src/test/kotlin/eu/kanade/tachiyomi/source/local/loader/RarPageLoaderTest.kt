@@ -0,0 +1,100 @@
+package eu.kanade.tachiyomi.source.local.loader
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.junit.jupiter.api.Assertions.assertArrayEquals
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.zip.CRC32
+import kotlin.random.Random
+
+class RarPageLoaderTest {
+    private val pages = (1..24).map { i -> "%02d.png".format(i) to Random(i).nextBytes(1000 + i * 97) }
+
+    @Test
+    fun readsPagesFromSeveralThreads(@TempDir dir: File) {
+        val file = File(dir, "chapter.cbr").apply { writeBytes(storedRar(pages)) }
+        RarPageLoader(file).use { loader ->
+            val readerPages = loader.getPages()
+            assertEquals(pages.size, readerPages.size)
+
+            // more readers than pooled archives, so pages are read by archives other than the one that listed them
+            val executor = Executors.newFixedThreadPool(8)
+            try {
+                val reads = (0 until 4).flatMap { readerPages.shuffled(Random(it)) }.map { page ->
+                    executor.submit(Callable { page.index to page.stream!!().use { it.readBytes() } })
+                }
+                reads.forEach {
+                    val (index, bytes) = it.get(30, TimeUnit.SECONDS)
+                    assertArrayEquals(pages[index].second, bytes)
+                }
+            } finally {
+                executor.shutdownNow()
+            }
+        }
+    }
+
+    /** a RAR 4 archive of uncompressed entries */
+    private fun storedRar(entries: List<Pair<String, ByteArray>>): ByteArray {
+        val out = ByteArrayOutputStream()
+        out.write(byteArrayOf(0x52, 0x61, 0x72, 0x21, 0x1A, 0x07, 0x00))
+        // main header, no flags
+        out.write(block(0x73, 0, ByteArray(6)))
+        entries.forEach { (name, data) ->
+            val nameBytes = name.toByteArray()
+            val crc = CRC32().apply { update(data) }.value
+            val fields = ByteArrayOutputStream().apply {
+                writeInt(data.size.toLong()) // packed size
+                writeInt(data.size.toLong()) // unpacked size
+                write(0) // host os
+                writeInt(crc)
+                writeInt((40L shl 25) or (1L shl 21) or (1L shl 16)) // dos time, 2020-01-01
+                write(20) // version needed
+                write(0x30) // stored
+                writeShort(nameBytes.size)
+                writeInt(0x20) // attributes
+                write(nameBytes)
+            }.toByteArray()
+            // LONG_BLOCK, the data follows the header
+            out.write(block(0x74, 0x8000, fields))
+            out.write(data)
+        }
+        out.write(block(0x7B, 0x4000, ByteArray(0)))
+        return out.toByteArray()
+    }
+
+    private fun block(type: Int, flags: Int, fields: ByteArray): ByteArray {
+        val body = ByteArrayOutputStream().apply {
+            write(type)
+            writeShort(flags)
+            writeShort(7 + fields.size)
+            write(fields)
+        }.toByteArray()
+        val crc = CRC32().apply { update(body) }.value
+        return ByteArrayOutputStream().apply {
+            writeShort((crc and 0xFFFF).toInt())
+            write(body)
+        }.toByteArray()
+    }
+
+    private fun ByteArrayOutputStream.writeShort(value: Int) {
+        write(value and 0xFF)
+        write((value shr 8) and 0xFF)
+    }
+
+    private fun ByteArrayOutputStream.writeInt(value: Long) {
+        writeShort((value and 0xFFFF).toInt())
+        writeShort(((value shr 16) and 0xFFFF).toInt())
+    }
+}
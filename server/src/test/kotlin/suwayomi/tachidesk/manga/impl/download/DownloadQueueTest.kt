@@ -0,0 +1,93 @@
+package suwayomi.tachidesk.manga.impl.download
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+import suwayomi.tachidesk.manga.impl.download.model.DownloadChapter
+import suwayomi.tachidesk.manga.impl.download.model.DownloadState
+import suwayomi.tachidesk.manga.model.dataclass.ChapterDataClass
+import suwayomi.tachidesk.manga.model.dataclass.MangaDataClass
+
+class DownloadQueueTest {
+    private fun download(mangaId: Int, chapterIndex: Int, sourceId: Long): DownloadChapter {
+        val manga = MangaDataClass(id = mangaId, sourceId = sourceId.toString(), url = "", title = "")
+        val chapter = ChapterDataClass(
+            id = mangaId * 1000 + chapterIndex,
+            url = "",
+            name = "",
+            uploadDate = 0,
+            chapterNumber = chapterIndex.toFloat(),
+            scanlator = null,
+            mangaId = mangaId,
+            read = false,
+            bookmarked = false,
+            lastPageRead = 0,
+            lastReadAt = 0,
+            index = chapterIndex,
+            fetchedAt = 0,
+            downloaded = false,
+        )
+        return DownloadChapter(chapterIndex, mangaId, chapter, manga)
+    }
+
+    private fun DownloadQueue.keys() = toList().map { it.mangaId to it.chapterIndex }
+
+    @Test
+    fun `duplicate chapters are not added`() {
+        val queue = DownloadQueue()
+
+        assertTrue(queue.add(download(1, 1, 10)))
+        assertFalse(queue.add(download(1, 1, 10)))
+        assertTrue(queue.contains(1, 1))
+        assertEquals(1, queue.size)
+    }
+
+    @Test
+    fun `source sub-queues keep queue order`() {
+        val queue = DownloadQueue()
+        queue.add(download(1, 1, 10))
+        queue.add(download(2, 1, 20))
+        queue.add(download(1, 2, 10))
+
+        assertEquals(listOf(10L, 20L), queue.sourceIds { true })
+        assertEquals(listOf(1, 2), queue.sourceQueue(10).map { it.chapterIndex })
+
+        queue.firstOrNull(10) { it.chapterIndex == 1 }!!.state = DownloadState.Error
+        assertEquals(listOf(2), queue.take(10, 5) { it.state != DownloadState.Error }.map { it.chapterIndex })
+
+        queue.remove(2, 1)
+        assertEquals(listOf(10L), queue.sourceIds { true })
+    }
+
+    @Test
+    fun `move behaves like list remove and insert`() {
+        val queue = DownloadQueue()
+        val expected = mutableListOf<Pair<Int, Int>>()
+        (0 until 10).forEach {
+            queue.add(download(it, 0, it % 3L))
+            expected.add(it to 0)
+        }
+
+        // moving repeatedly into the same gap exhausts the keys and forces a renumber
+        repeat(100) { i ->
+            val moved = expected.removeAt(9 - i % 3)
+            val to = 1 + i % 2
+            expected.add(to, moved)
+            queue.move(moved.first, moved.second, to)
+            assertEquals(expected, queue.keys())
+        }
+
+        queue.move(expected.first().first, 0, 100)
+        expected.add(expected.removeAt(0))
+        assertEquals(expected, queue.keys())
+        assertEquals(expected.filter { it.first % 3 == 0 }, queue.sourceQueue(0).map { it.mangaId to it.chapterIndex })
+    }
+}
@@ -0,0 +1,49 @@
+package suwayomi.tachidesk.manga.impl.update
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertFalse
+import org.junit.jupiter.api.Assertions.assertTrue
+import org.junit.jupiter.api.Test
+
+class FetchIntervalTest {
+    private val day = 24 * 3600L
+    private val now = 1_000 * day
+
+    @Test
+    fun weeklySeries() {
+        val uploads = (1..10).map { (now - it * 7 * day) * 1000 }
+        val prediction = FetchInterval.predict(uploads, emptyList(), now)
+        assertEquals(7, prediction.interval)
+        assertEquals(now, prediction.nextUpdate)
+    }
+
+    @Test
+    fun fallsBackToFetchTimes() {
+        val fetchedAts = listOf(now - 2 * day, now - 5 * day, now - 8 * day)
+        val prediction = FetchInterval.predict(listOf(0, 0, 0), fetchedAts, now)
+        assertEquals(3, prediction.interval)
+        assertEquals(now + day, prediction.nextUpdate)
+    }
+
+    @Test
+    fun unknownWithoutHistory() {
+        val prediction = FetchInterval.predict(listOf(now * 1000), listOf(now, now + 1), now)
+        assertEquals(0, prediction.interval)
+        assertTrue(FetchInterval.shouldUpdate(prediction.interval, prediction.nextUpdate, now))
+    }
+
+    @Test
+    fun overdueSeriesIsCheckedOncePerInterval() {
+        val next = FetchInterval.nextUpdate(now - 100 * day, 28, now)
+        assertEquals(now + 12 * day, next)
+        assertFalse(FetchInterval.shouldUpdate(28, next, now))
+        assertTrue(FetchInterval.shouldUpdate(28, next, next - day))
+    }
+}
@@ -0,0 +1,122 @@
+package suwayomi.tachidesk.manga.impl.util.storage
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import okhttp3.Protocol
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.ResponseBody.Companion.toResponseBody
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNotEquals
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.util.concurrent.atomic.AtomicInteger
+
+class DiskImageCacheTest {
+    @TempDir
+    lateinit var dir: File
+
+    private val png = byteArrayOf(0x89.toByte(), 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A)
+
+    private fun response(url: String, body: ByteArray, contentType: String? = null): Response {
+        return Response.Builder()
+            .request(Request.Builder().url(url).build())
+            .protocol(Protocol.HTTP_1_1)
+            .code(200)
+            .message("OK")
+            .apply { if (contentType != null) header("Content-Type", contentType) }
+            .body(body.toResponseBody())
+            .build()
+    }
+
+    private fun entries() = dir.listFiles()!!.filterNot { it.name.endsWith(".type") }
+
+    @Test
+    fun concurrentMissesShareOneDownload() = runBlocking {
+        val cache = DiskImageCache(dir) { 0 }
+        val fetches = AtomicInteger()
+        val url = "https://example.org/cover.png"
+
+        val images = (0 until 8).map {
+            async {
+                cache.get(1, url) {
+                    fetches.incrementAndGet()
+                    delay(50)
+                    response(url, png)
+                }
+            }
+        }.awaitAll()
+
+        assertEquals(1, fetches.get())
+        assertEquals(1, images.map { it.etag }.distinct().size)
+        assertEquals("image/png", images.first().contentType)
+        assertEquals(png.toList(), images.first().open().use { it.readBytes() }.toList())
+    }
+
+    @Test
+    fun newUrlAndInvalidateMiss() = runBlocking {
+        val cache = DiskImageCache(dir) { 0 }
+        val fetches = AtomicInteger()
+        suspend fun get(url: String, body: ByteArray) = cache.get(1, url) {
+            fetches.incrementAndGet()
+            response(url, body)
+        }
+
+        val first = get("https://example.org/a.png", png)
+        get("https://example.org/a.png", png)
+        assertEquals(1, fetches.get())
+
+        val second = get("https://example.org/b.png", png + 1.toByte())
+        assertEquals(2, fetches.get())
+        assertNotEquals(first.etag, second.etag)
+
+        cache.invalidate(1)
+        assertEquals(0, cache.sizeBytes())
+        get("https://example.org/b.png", png + 1.toByte())
+        assertEquals(3, fetches.get())
+    }
+
+    @Test
+    fun keepsContentTypeAcrossRestarts() = runBlocking {
+        val svg = "<svg xmlns=\"http://www.w3.org/2000/svg\"/>".toByteArray()
+        val url = "https://example.org/cover.svg"
+        val first = DiskImageCache(dir) { 0 }.get(1, url) { response(url, svg, "image/svg+xml") }
+        assertEquals("image/svg+xml", first.contentType)
+
+        val fetches = AtomicInteger()
+        val reloaded = DiskImageCache(dir) { 0 }.get(1, url) {
+            fetches.incrementAndGet()
+            response(url, svg)
+        }
+        assertEquals(0, fetches.get())
+        assertEquals("image/svg+xml", reloaded.contentType)
+        assertEquals(first.etag, reloaded.etag)
+    }
+
+    @Test
+    fun evictsLeastRecentlyUsed() = runBlocking {
+        val body = ByteArray(1000) { it.toByte() }
+        val cache = DiskImageCache(dir) { 2500 }
+        (1..3).forEach { owner ->
+            val url = "https://example.org/$owner"
+            cache.get(owner, url) { response(url, body + owner.toByte()) }
+            entries().first { it.name.startsWith("${owner}_") }.setLastModified(owner * 1000L)
+        }
+
+        // over 2500 bytes after the third, the oldest goes until it is under 90%
+        assertEquals(2, entries().size)
+        assertEquals(listOf("2", "3"), entries().map { it.name.substringBefore('_') }.sorted())
+        // the evicted entry takes its type with it
+        assertEquals(2, dir.listFiles()!!.count { it.name.endsWith(".type") })
+    }
+}
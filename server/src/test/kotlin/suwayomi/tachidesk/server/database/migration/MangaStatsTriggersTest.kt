@@ -0,0 +1,138 @@
+package suwayomi.tachidesk.server.database.migration
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.junit.jupiter.api.AfterEach
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import suwayomi.tachidesk.manga.impl.MangaStats
+import java.sql.Connection
+import java.sql.DriverManager
+import kotlin.random.Random
+
+/** the triggers of [M0034_MangaStats] keep MangaStats equal to the aggregate [MangaStats.repair] compares it with */
+class MangaStatsTriggersTest {
+    private lateinit var conn: Connection
+
+    @BeforeEach
+    fun setUp() {
+        conn = DriverManager.getConnection("jdbc:sqlite::memory:")
+        // the columns the triggers read, as in the real tables
+        exec("""CREATE TABLE Manga ("id" INTEGER PRIMARY KEY)""")
+        exec(
+            """
+            CREATE TABLE Chapter (
+                "id" INTEGER PRIMARY KEY AUTOINCREMENT,
+                "manga" INT NOT NULL,
+                "read" BOOLEAN NOT NULL DEFAULT 0,
+                "is_downloaded" BOOLEAN NOT NULL DEFAULT 0,
+                "last_read_at" BIGINT NOT NULL DEFAULT 0,
+                "fetched_at" BIGINT NOT NULL DEFAULT 0,
+                "date_upload" BIGINT NOT NULL DEFAULT 0
+            )
+            """.trimIndent(),
+        )
+        (1..3).forEach { exec("INSERT INTO Manga(id) VALUES ($it)") }
+        M0034_MangaStats().sqls.forEach { exec(it) }
+    }
+
+    @AfterEach
+    fun tearDown() {
+        conn.close()
+    }
+
+    @Test
+    fun followsChapterChanges() {
+        (1..5).forEach { insertChapter(1, fetchedAt = 100L + it, dateUpload = 1000L * it) }
+        (1..3).forEach { insertChapter(2, fetchedAt = 200L + it, dateUpload = 500L * it) }
+        assertMatchesAggregate()
+
+        // read, then unread the chapter holding the latest read date
+        exec("UPDATE Chapter SET \"read\" = 1, last_read_at = id * 10 WHERE manga = 1")
+        assertMatchesAggregate()
+        exec("UPDATE Chapter SET \"read\" = 0, last_read_at = 0 WHERE id = (SELECT MAX(id) FROM Chapter WHERE manga = 1)")
+        assertMatchesAggregate()
+
+        exec("UPDATE Chapter SET is_downloaded = 1 WHERE id % 2 = 0")
+        assertMatchesAggregate()
+
+        // lower the maxima, they are recomputed from the other chapters
+        exec("UPDATE Chapter SET date_upload = 1, fetched_at = 1 WHERE id = 5")
+        assertMatchesAggregate()
+
+        // delete the chapters holding the maxima
+        exec("DELETE FROM Chapter WHERE id = (SELECT id FROM Chapter WHERE manga = 1 ORDER BY date_upload DESC LIMIT 1)")
+        exec("DELETE FROM Chapter WHERE id = (SELECT id FROM Chapter WHERE manga = 1 ORDER BY last_read_at DESC LIMIT 1)")
+        assertMatchesAggregate()
+
+        // move chapters to a manga with and without a stats row
+        exec("UPDATE Chapter SET manga = 3 WHERE id = 1")
+        exec("UPDATE Chapter SET manga = 2 WHERE id = 2")
+        assertMatchesAggregate()
+
+        exec("DELETE FROM Chapter WHERE manga = 2")
+        assertMatchesAggregate()
+        assertEquals(listOf(0L, 0L, 0L, 0L, 0L, 0L), stats()[2])
+    }
+
+    @Test
+    fun followsRandomChanges() {
+        val random = Random(34)
+        repeat(500) {
+            val manga = random.nextInt(1, 4)
+            val value = random.nextLong(0, 50)
+            when (random.nextInt(6)) {
+                0, 1 -> insertChapter(manga, random.nextLong(0, 50), random.nextLong(0, 50))
+                2 -> exec("UPDATE Chapter SET \"read\" = NOT \"read\", last_read_at = $value WHERE id = ${randomChapter(random)}")
+                3 -> exec("UPDATE Chapter SET is_downloaded = NOT is_downloaded, fetched_at = $value WHERE id = ${randomChapter(random)}")
+                4 -> exec("DELETE FROM Chapter WHERE id = ${randomChapter(random)}")
+                else -> exec("UPDATE Chapter SET manga = $manga, date_upload = $value WHERE id = ${randomChapter(random)}")
+            }
+            assertMatchesAggregate()
+        }
+    }
+
+    private fun insertChapter(manga: Int, fetchedAt: Long, dateUpload: Long) {
+        exec("INSERT INTO Chapter(manga, fetched_at, date_upload) VALUES ($manga, $fetchedAt, $dateUpload)")
+    }
+
+    private fun randomChapter(random: Random): Long {
+        val ids = query("SELECT id FROM Chapter").map { it[0] }
+        return if (ids.isEmpty()) -1 else ids[random.nextInt(ids.size)]
+    }
+
+    private fun assertMatchesAggregate() {
+        val expected = query(MangaStats.aggregateSql).associate { it[0] to it.drop(1) }
+        // a manga whose chapters are all gone keeps a row of zeros, the reads skip it
+        val actual = stats().filterValues { it[0] > 0 }
+        assertEquals(expected, actual)
+    }
+
+    private fun stats(): Map<Long, List<Long>> {
+        return query(
+            """
+            SELECT manga, chapter_count, unread_count, download_count, last_read_at, latest_fetched_at, latest_upload_at
+            FROM MangaStats
+            """.trimIndent(),
+        ).associate { it[0] to it.drop(1) }
+    }
+
+    private fun query(sql: String): List<List<Long>> {
+        return conn.createStatement().use { statement ->
+            statement.executeQuery(sql).use { rs ->
+                val columns = rs.metaData.columnCount
+                generateSequence { if (rs.next()) (1..columns).map { rs.getLong(it) } else null }.toList()
+            }
+        }
+    }
+
+    private fun exec(sql: String) {
+        conn.createStatement().use { it.execute(sql) }
+    }
+}
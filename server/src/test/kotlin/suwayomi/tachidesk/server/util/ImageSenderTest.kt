@@ -0,0 +1,32 @@
+package suwayomi.tachidesk.server.util
+
+/*
+ * Copyright (C) 2026 Tachimanga
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at https://mozilla.org/MPL/2.0/. */
+
+import org.junit.jupiter.api.Assertions.assertEquals
+import org.junit.jupiter.api.Assertions.assertNull
+import org.junit.jupiter.api.Test
+
+class ImageSenderTest {
+    @Test
+    fun parsesSingleRanges() {
+        assertEquals(0L to 99L, parseByteRange("bytes=0-99", 1000))
+        assertEquals(500L to 999L, parseByteRange("bytes=500-", 1000))
+        assertEquals(900L to 999L, parseByteRange("bytes=-100", 1000))
+        assertEquals(0L to 999L, parseByteRange("bytes=-5000", 1000))
+        assertEquals(990L to 999L, parseByteRange("bytes=990-5000", 1000))
+    }
+
+    @Test
+    fun rejectsUnsatisfiableRanges() {
+        assertNull(parseByteRange("bytes=1000-", 1000))
+        assertNull(parseByteRange("bytes=50-10", 1000))
+        assertNull(parseByteRange("bytes=0-1,5-9", 1000))
+        assertNull(parseByteRange("items=0-1", 1000))
+        assertNull(parseByteRange("bytes=-0", 1000))
+    }
+}